@@ -0,0 +1,193 @@
+package com.termux.terminal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Deterministically generated input resembling what terminals see in practice, for measuring
+ * {@link TerminalEmulator#append(byte[], int)}. Every corpus is generated from a fixed seed, so numbers are comparable
+ * between commits.
+ */
+final class BenchmarkCorpora {
+
+    /** The approximate size of each corpus. */
+    static final int CORPUS_SIZE = 1024 * 1024;
+
+    private static final String[] LOG_LEVELS = {"INFO ", "DEBUG", "WARN ", "ERROR", "TRACE"};
+    private static final String[] LOG_WORDS = {"request", "processed", "connection", "timeout", "user", "session", "cache", "miss", "hit", "database",
+        "query", "completed", "started", "worker", "queue", "retry", "scheduled", "shutdown", "flush", "commit"};
+    private static final String[] CODE_WORDS = {"int", "return", "if", "for", "while", "static", "final", "void", "char", "struct", "const", "buffer",
+        "length", "index", "result", "value", "(", ")", "{", "}", ";", "=", "+", "->", "[", "]"};
+    private static final String CJK = "的一是在不了有和人这中大为上个国我以要他时来用们生到作地于出就分对成会可主发年动同工也能下过子说产种面而方后多定行学法所民得经十三之进着等部度家电力里如水化高自二理起小物现实加量都两体制机当使点从业本去把性好应开它合还因由其些然前外天政四日那社义事平形相全表间样与关各重新线内数正心反你明看原又么利比或但质气第向道命此变条只没结解问意建月公无系军很情者最立代想已通并提直题党程展五果料象员革位入常文总次品式活设及管特件长求老头基资边流路级少图山统接知较将组见计别她手角期根论运农指几九区强放决西被干做必战先回则任取据处队南给色光门即保治北造百规热领七海口东导器压志世金增争济阶油思术极交受联什认六共权收证改清己美再采转更单风切打白教速花带安场身车例真务具万每目至达走积示议声报斗完类八离华名确才科张信马节话米整空元况今集温传土许步群广石记需段研界拉林律叫且究观越织装影算低持音众书布复容儿须际商非验连断深难近矿千周委素技备半办青省列习响约支般史感劳便团往酸历市克何除消构府称太准精值号率族维划选标写存候毛亲快效斯院查江型眼王按格养易置派层片始却专状育厂京识适属圆包火住调满县局照参红细引听该铁价严";
+    private static final int[] EMOJI = {0x1F600, 0x1F602, 0x1F44D, 0x1F680, 0x1F389, 0x2764, 0x1F525, 0x1F4A9, 0x1F914, 0x2705, 0x1F3E0, 0x1F30D};
+    /** Combining diacritical marks U+0300..U+036F. */
+    private static final int COMBINING_FIRST = 0x0300, COMBINING_COUNT = 0x70;
+
+    private BenchmarkCorpora() {
+    }
+
+    /** Plain ASCII log lines, the most common kind of output. */
+    static byte[] asciiLog() {
+        Random random = new Random(1);
+        StringBuilder builder = new StringBuilder(CORPUS_SIZE + 200);
+        long millis = 1500000000000L;
+        while (builder.length() < CORPUS_SIZE) {
+            millis += random.nextInt(500);
+            builder.append(millis / 1000).append('.').append(String.format("%03d", millis % 1000)).append(' ');
+            builder.append(LOG_LEVELS[random.nextInt(LOG_LEVELS.length)]).append(" [worker-").append(random.nextInt(16)).append("] ");
+            int words = 5 + random.nextInt(15);
+            for (int i = 0; i < words; i++)
+                builder.append(LOG_WORDS[random.nextInt(LOG_WORDS.length)]).append(i % 4 == 3 ? "=" + random.nextInt(100000) + " " : " ");
+            builder.append("\r\n");
+        }
+        return builder.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** Compiler diagnostics as printed by gcc or clang with colors, with many short SGR runs. */
+    static byte[] sgrCompilerOutput() {
+        Random random = new Random(2);
+        StringBuilder builder = new StringBuilder(CORPUS_SIZE + 500);
+        while (builder.length() < CORPUS_SIZE) {
+            int line = 1 + random.nextInt(2000);
+            int column = 1 + random.nextInt(80);
+            boolean error = random.nextInt(3) == 0;
+            builder.append("\033[01m\033[Ksrc/module").append(random.nextInt(40)).append(".c:").append(line).append(':').append(column).append(":\033[m\033[K ");
+            builder.append(error ? "\033[01;31m\033[Kerror: \033[m\033[K" : "\033[01;35m\033[Kwarning: \033[m\033[K");
+            builder.append("unused variable '\033[01m\033[K").append(CODE_WORDS[random.nextInt(CODE_WORDS.length)]).append("\033[m\033[K' [");
+            builder.append(error ? "\033[01;31m\033[K" : "\033[01;35m\033[K").append("-Wunused-variable\033[m\033[K]\r\n");
+            builder.append(String.format("%5d | ", line));
+            int tokens = 4 + random.nextInt(12);
+            for (int i = 0; i < tokens; i++) {
+                switch (random.nextInt(4)) {
+                    case 0:
+                        builder.append("\033[38;5;").append(16 + random.nextInt(216)).append('m');
+                        break;
+                    case 1:
+                        builder.append("\033[38;2;").append(random.nextInt(256)).append(';').append(random.nextInt(256)).append(';').append(random.nextInt(256))
+                            .append('m');
+                        break;
+                    default:
+                        builder.append("\033[0m");
+                }
+                builder.append(CODE_WORDS[random.nextInt(CODE_WORDS.length)]).append(' ');
+            }
+            builder.append("\033[0m\r\n      |     \033[01;32m\033[K^~~~~~\033[m\033[K\r\n");
+        }
+        return builder.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** Scrolling and partial redraws of a full screen editor with syntax highlighting in a 80x24 terminal. */
+    static byte[] vimRedraw() {
+        Random random = new Random(3);
+        StringBuilder builder = new StringBuilder(CORPUS_SIZE + 5000);
+        builder.append("\033[?1049h\033[22;0;0t\033[?1h\033=\033[H\033[2J");
+        while (builder.length() < CORPUS_SIZE) {
+            switch (random.nextInt(3)) {
+                case 0:
+                    // Scroll down a line within the scroll region, like pressing j at the bottom of the window:
+                    builder.append("\033[1;23r\033[23;1H\n\033[1;24r\033[23;1H");
+                    appendCodeLine(random, builder);
+                    break;
+                case 1:
+                    // Scroll up with reverse index:
+                    builder.append("\033[1;23r\033[1;1H\033M\033[1;24r\033[1;1H");
+                    appendCodeLine(random, builder);
+                    break;
+                default:
+                    // Page down, redrawing every line:
+                    builder.append("\033[?25l");
+                    for (int row = 1; row <= 23; row++) {
+                        builder.append("\033[").append(row).append(";1H");
+                        appendCodeLine(random, builder);
+                        builder.append("\033[K");
+                    }
+                    builder.append("\033[24;1H\033[1m-- INSERT --\033[0m\033[24;63H").append(random.nextInt(3000)).append(",1\033[?25h");
+            }
+        }
+        builder.append("\033[?1049l");
+        return builder.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void appendCodeLine(Random random, StringBuilder builder) {
+        builder.append("\033[33m").append(String.format("%4d ", random.nextInt(9999))).append("\033[m");
+        int indent = random.nextInt(4) * 4;
+        for (int i = 0; i < indent; i++)
+            builder.append(' ');
+        int width = 5 + indent;
+        while (width < 70) {
+            String word = CODE_WORDS[random.nextInt(CODE_WORDS.length)];
+            int color = random.nextInt(5);
+            if (color < 3) builder.append("\033[38;5;").append(new int[]{130, 28, 21}[color]).append('m');
+            builder.append(word);
+            if (color < 3) builder.append("\033[m");
+            builder.append(' ');
+            width += word.length() + 1;
+        }
+    }
+
+    /** A process monitor repainting meters and a process table many times a second in a 80x24 terminal. */
+    static byte[] htopRedraw() {
+        Random random = new Random(4);
+        StringBuilder builder = new StringBuilder(CORPUS_SIZE + 5000);
+        builder.append("\033[?1049h\033[1;24r\033[m\033[4l\033[?7h\033[H\033[2J");
+        while (builder.length() < CORPUS_SIZE) {
+            for (int cpu = 0; cpu < 4; cpu++) {
+                builder.append("\033[").append(cpu + 1).append(";3H\033[36m").append(cpu + 1).append("\033[39m\033[1m[");
+                int used = random.nextInt(30);
+                builder.append("\033[32m");
+                for (int i = 0; i < 30; i++) {
+                    if (i == used / 2) builder.append("\033[31m");
+                    builder.append(i < used ? '|' : ' ');
+                }
+                builder.append("\033[37m").append(String.format("%4.1f%%", used * 100 / 30.0)).append("\033[0m]");
+            }
+            builder.append("\033[6;1H\033[30;42m  PID USER      PRI  NI  VIRT   RES   SHR S CPU% MEM%   TIME+  Command\033[K\033[m");
+            for (int row = 7; row <= 23; row++) {
+                builder.append("\033[").append(row).append(";1H");
+                if (row == 7) builder.append("\033[30;46m");
+                builder.append(String.format("%5d ", 1 + random.nextInt(30000))).append(random.nextBoolean() ? "root     " : "user     ");
+                builder.append(String.format(" 20   0 %5dM %5dM %5dM S %4.1f %4.1f %2d:%02d.%02d ", random.nextInt(9999), random.nextInt(999), random.nextInt(99),
+                    random.nextInt(1000) / 10.0, random.nextInt(1000) / 10.0, random.nextInt(60), random.nextInt(60), random.nextInt(100)));
+                builder.append("\033[1m").append(LOG_WORDS[random.nextInt(LOG_WORDS.length)]).append("\033[0m\033[K");
+            }
+            builder.append("\033[24;1H\033[30;46mF1\033[39;49mHelp  \033[30;46mF10\033[39;49mQuit\033[K");
+        }
+        builder.append("\033[?1049l");
+        return builder.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** Text in CJK scripts with emoji and combining characters, exercising wide characters and surrogate pairs. */
+    static byte[] cjkAndEmoji() {
+        Random random = new Random(5);
+        StringBuilder builder = new StringBuilder(CORPUS_SIZE);
+        int bytes = 0;
+        while (bytes < CORPUS_SIZE) {
+            int lineLength = 10 + random.nextInt(60);
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < lineLength; i++) {
+                int choice = random.nextInt(10);
+                if (choice < 6) {
+                    line.append(CJK.charAt(random.nextInt(CJK.length())));
+                } else if (choice < 8) {
+                    line.appendCodePoint(EMOJI[random.nextInt(EMOJI.length)]);
+                } else if (choice < 9) {
+                    line.append((char) ('a' + random.nextInt(26))).appendCodePoint(COMBINING_FIRST + random.nextInt(COMBINING_COUNT));
+                } else {
+                    line.append(' ');
+                }
+            }
+            line.append("\r\n");
+            bytes += line.toString().getBytes(StandardCharsets.UTF_8).length;
+            builder.append(line);
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Random bytes, as when accidentally printing a binary file. */
+    static byte[] binaryGarbage() {
+        byte[] result = new byte[CORPUS_SIZE];
+        new Random(6).nextBytes(result);
+        return result;
+    }
+
+}
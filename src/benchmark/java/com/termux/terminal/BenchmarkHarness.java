@@ -0,0 +1,154 @@
+package com.termux.terminal;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A minimal benchmark harness, used instead of JMH to keep the build free of dependencies.
+ * <p>
+ * Each benchmark is warmed up and then measured over a number of iterations of fixed duration, reporting the time and
+ * the number of bytes allocated (on JVMs where {@link com.sun.management.ThreadMXBean} is available) per operation. The
+ * best iteration is reported, since noise on a benchmark machine only ever makes things slower.
+ */
+final class BenchmarkHarness {
+
+    /** One invocation of the code under test. */
+    interface Task {
+        /** Run the code once, returning something derived from the result so that it is not optimized away. */
+        long run();
+    }
+
+    /** The result of measuring a benchmark. */
+    static final class Result {
+        final String suite, name;
+        /** The number of operations performed by a single {@link Task#run()}. */
+        final long operationsPerRun;
+        /** The number of bytes of input processed by a single operation, or 0 if not applicable. */
+        final long bytesPerOperation;
+        final double nanosPerOperation;
+        /** The bytes allocated per operation, or -1 if not measurable on this JVM. */
+        final double allocatedBytesPerOperation;
+
+        Result(String suite, String name, long operationsPerRun, long bytesPerOperation, double nanosPerOperation, double allocatedBytesPerOperation) {
+            this.suite = suite;
+            this.name = name;
+            this.operationsPerRun = operationsPerRun;
+            this.bytesPerOperation = bytesPerOperation;
+            this.nanosPerOperation = nanosPerOperation;
+            this.allocatedBytesPerOperation = allocatedBytesPerOperation;
+        }
+
+        /** Megabytes (10^6 bytes) of input per second. */
+        double megabytesPerSecond() {
+            return bytesPerOperation == 0 ? 0 : (bytesPerOperation / 1e6) / (nanosPerOperation / 1e9);
+        }
+
+        /** Bytes allocated per megabyte of input. */
+        double allocatedBytesPerMegabyte() {
+            return (bytesPerOperation == 0 || allocatedBytesPerOperation < 0) ? -1 : allocatedBytesPerOperation * 1e6 / bytesPerOperation;
+        }
+
+        String toCsv() {
+            return String.format(Locale.US, "%s,%s,%.2f,%.1f,%.2f,%.0f", suite, name, nanosPerOperation, allocatedBytesPerOperation, megabytesPerSecond(),
+                allocatedBytesPerMegabyte());
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(String.format(Locale.US, "%-50s %14.1f ns/op", suite + "." + name, nanosPerOperation));
+            if (allocatedBytesPerOperation >= 0) builder.append(String.format(Locale.US, " %12.1f B/op", allocatedBytesPerOperation));
+            if (bytesPerOperation > 0) {
+                builder.append(String.format(Locale.US, " %10.2f MB/s", megabytesPerSecond()));
+                if (allocatedBytesPerOperation >= 0) builder.append(String.format(Locale.US, " %14.0f B/MB", allocatedBytesPerMegabyte()));
+            }
+            return builder.toString();
+        }
+    }
+
+    static final String CSV_HEADER = "suite,benchmark,ns_per_op,bytes_allocated_per_op,mb_per_s,bytes_allocated_per_mb";
+
+    private static final com.sun.management.ThreadMXBean ALLOCATION_BEAN;
+
+    static {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocationBean = null;
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            allocationBean = (com.sun.management.ThreadMXBean) bean;
+            if (allocationBean.isThreadAllocatedMemorySupported()) {
+                allocationBean.setThreadAllocatedMemoryEnabled(true);
+            } else {
+                allocationBean = null;
+            }
+        }
+        ALLOCATION_BEAN = allocationBean;
+    }
+
+    private final long warmupNanos, iterationNanos;
+    private final int iterations;
+    private final List<Result> results = new ArrayList<>();
+    /** Sink for task results, so that the JIT cannot remove the work. */
+    long blackhole;
+
+    BenchmarkHarness(long warmupMillis, long iterationMillis, int iterations) {
+        this.warmupNanos = warmupMillis * 1000000;
+        this.iterationNanos = iterationMillis * 1000000;
+        this.iterations = iterations;
+    }
+
+    List<Result> getResults() {
+        return results;
+    }
+
+    /**
+     * Measure a task.
+     *
+     * @param operationsPerRun  the number of operations a single run of the task performs, used to report per operation.
+     * @param bytesPerOperation the number of input bytes an operation processes, for throughput, or 0.
+     */
+    Result measure(String suite, String name, long operationsPerRun, long bytesPerOperation, Task task) {
+        // Warm up, and find out how many runs fit in a tenth of an iteration to keep timer overhead low:
+        long runsPerBatch = 1;
+        long warmupEnd = System.nanoTime() + warmupNanos;
+        while (true) {
+            long start = System.nanoTime();
+            for (long i = 0; i < runsPerBatch; i++)
+                blackhole += task.run();
+            long elapsed = System.nanoTime() - start;
+            if (System.nanoTime() > warmupEnd) break;
+            if (elapsed < iterationNanos / 10) runsPerBatch *= 2;
+        }
+
+        double bestNanosPerOperation = Double.MAX_VALUE;
+        double allocatedPerOperation = -1;
+        long threadId = Thread.currentThread().getId();
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            long runs = 0;
+            long allocatedBefore = (ALLOCATION_BEAN == null) ? 0 : ALLOCATION_BEAN.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            long elapsed;
+            do {
+                for (long i = 0; i < runsPerBatch; i++)
+                    blackhole += task.run();
+                runs += runsPerBatch;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < iterationNanos);
+            long allocated = (ALLOCATION_BEAN == null) ? -1 : ALLOCATION_BEAN.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+            double operations = (double) runs * operationsPerRun;
+            double nanosPerOperation = elapsed / operations;
+            if (nanosPerOperation < bestNanosPerOperation) {
+                bestNanosPerOperation = nanosPerOperation;
+                allocatedPerOperation = (allocated < 0) ? -1 : allocated / operations;
+            }
+        }
+
+        Result result = new Result(suite, name, operationsPerRun, bytesPerOperation, bestNanosPerOperation, allocatedPerOperation);
+        results.add(result);
+        System.out.println(result);
+        return result;
+    }
+
+}
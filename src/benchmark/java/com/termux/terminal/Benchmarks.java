@@ -0,0 +1,124 @@
+package com.termux.terminal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the benchmarks, to be compared between commits to catch regressions in the hot paths.
+ * <p>
+ * Arguments are names of suites to run (all suites if none are given), recordings made with {@link TerminalRecorder}
+ * (files ending with ".rec") to replay as fast as possible, "--quick" for a short run useful as a smoke test, and
+ * "--csv=FILE" to also write the results as CSV.
+ */
+public final class Benchmarks {
+
+    /** A group of related benchmarks. */
+    interface Suite {
+        void run(BenchmarkHarness harness) throws IOException;
+    }
+
+    /** A client ignoring everything, so that only the emulator itself is measured. */
+    static final TerminalClient NULL_CLIENT = new TerminalClient() {
+        @Override
+        public void write(byte[] data, int offset, int count) {
+        }
+
+        @Override
+        public void titleChanged(String oldTitle, String newTitle) {
+        }
+
+        @Override
+        public void clipboardText(String text) {
+        }
+
+        @Override
+        public void onBell() {
+        }
+
+        @Override
+        public void onColorsChanged() {
+        }
+    };
+
+    /** A logger discarding its output, since binary garbage makes the emulator log a lot. */
+    static final PrintStream NULL_LOGGER = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    });
+
+    static final Map<String, Suite> SUITES = new LinkedHashMap<>();
+
+    static {
+        SUITES.put(ParserThroughputBenchmark.SUITE, ParserThroughputBenchmark::run);
+        SUITES.put(TerminalRowBenchmark.SUITE, TerminalRowBenchmark::run);
+        SUITES.put(ResizeBenchmark.SUITE, ResizeBenchmark::run);
+        SUITES.put(SerializerBenchmark.SUITE, SerializerBenchmark::run);
+    }
+
+    private Benchmarks() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<String> suites = new ArrayList<>();
+        List<File> recordings = new ArrayList<>();
+        String csvFile = null;
+        boolean quick = false;
+        for (String arg : args) {
+            if (arg.equals("--quick")) {
+                quick = true;
+            } else if (arg.startsWith("--csv=")) {
+                csvFile = arg.substring("--csv=".length());
+            } else if (arg.endsWith(".rec")) {
+                recordings.add(new File(arg));
+            } else if (SUITES.containsKey(arg)) {
+                suites.add(arg);
+            } else {
+                throw new IllegalArgumentException("Unknown benchmark suite '" + arg + "', available: " + SUITES.keySet());
+            }
+        }
+        if (suites.isEmpty() && recordings.isEmpty()) suites.addAll(SUITES.keySet());
+
+        BenchmarkHarness harness = quick ? new BenchmarkHarness(50, 50, 1) : new BenchmarkHarness(3000, 1000, 5);
+        for (String suite : suites)
+            SUITES.get(suite).run(harness);
+        for (File recording : recordings)
+            replay(harness, recording);
+
+        if (csvFile != null) {
+            try (PrintWriter writer = new PrintWriter(csvFile, "UTF-8")) {
+                writer.println(BenchmarkHarness.CSV_HEADER);
+                for (BenchmarkHarness.Result result : harness.getResults())
+                    writer.println(result.toCsv());
+            }
+        }
+    }
+
+    /** Replay a recording from a real session, starting from a fresh emulator each time. */
+    private static void replay(BenchmarkHarness harness, File recording) throws IOException {
+        try (TerminalReplayer replayer = new TerminalReplayer(recording)) {
+            long bytes = replayer.replay(replayer.createEmulator(NULL_CLIENT, NULL_LOGGER), false).bytesAppended;
+            harness.measure("Replay", recording.getName(), 1, bytes, () -> {
+                try {
+                    TerminalEmulator emulator = replayer.createEmulator(NULL_CLIENT, NULL_LOGGER);
+                    replayer.replay(emulator, false);
+                    return emulator.getCursorRow();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+    }
+
+}
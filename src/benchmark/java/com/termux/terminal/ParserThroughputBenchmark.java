@@ -0,0 +1,40 @@
+package com.termux.terminal;
+
+/**
+ * Measures {@link TerminalEmulator#append(byte[], int)} on the corpora from {@link BenchmarkCorpora}, fed in chunks of
+ * the size a pty read typically returns.
+ */
+final class ParserThroughputBenchmark {
+
+    static final String SUITE = "ParserThroughput";
+    /** The size of reads from the pty in the Termux app. */
+    static final int CHUNK_SIZE = 4096;
+
+    private ParserThroughputBenchmark() {
+    }
+
+    static void run(BenchmarkHarness harness) {
+        measure(harness, "asciiLog", BenchmarkCorpora.asciiLog());
+        measure(harness, "sgrCompilerOutput", BenchmarkCorpora.sgrCompilerOutput());
+        measure(harness, "vimRedraw", BenchmarkCorpora.vimRedraw());
+        measure(harness, "htopRedraw", BenchmarkCorpora.htopRedraw());
+        measure(harness, "cjkAndEmoji", BenchmarkCorpora.cjkAndEmoji());
+        measure(harness, "binaryGarbage", BenchmarkCorpora.binaryGarbage());
+    }
+
+    private static void measure(BenchmarkHarness harness, String name, final byte[] corpus) {
+        // The emulator is reused between runs, as a long running session would be, so that the measurement is of the
+        // steady state with full history and not of filling it:
+        final TerminalEmulator emulator = new TerminalEmulator(Benchmarks.NULL_CLIENT, 80, 24, 2000, Benchmarks.NULL_LOGGER);
+        final byte[] chunk = new byte[CHUNK_SIZE];
+        harness.measure(SUITE, name, 1, corpus.length, () -> {
+            for (int offset = 0; offset < corpus.length; offset += CHUNK_SIZE) {
+                int length = Math.min(CHUNK_SIZE, corpus.length - offset);
+                System.arraycopy(corpus, offset, chunk, 0, length);
+                emulator.append(chunk, length);
+            }
+            return emulator.getCursorRow() + emulator.getCursorCol();
+        });
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.termux.terminal;
+
+/**
+ * Measures {@link TerminalEmulator#resize(int, int)} changing the number of columns, against the size of the history.
+ * Each run toggles between two widths, as when dragging a window edge back and forth.
+ */
+final class ResizeBenchmark {
+
+    static final String SUITE = "Resize";
+
+    private static final int[] TRANSCRIPT_ROWS = {1000, 10000, 50000};
+    private static final int ROWS = 24;
+
+    private ResizeBenchmark() {
+    }
+
+    static void run(BenchmarkHarness harness) {
+        byte[] corpus = BenchmarkCorpora.asciiLog();
+        for (int transcriptRows : TRANSCRIPT_ROWS) {
+            final TerminalEmulator emulator = filledEmulator(corpus, transcriptRows);
+            harness.measure(SUITE, "resizeColumns" + transcriptRows, 1, 0, () -> {
+                emulator.resize(emulator.columns == 80 ? 100 : 80, ROWS);
+                return emulator.getCursorRow();
+            });
+            // Also reading the whole history, which first rewraps any of it not rewrapped by the resize itself in parallel:
+            harness.measure(SUITE, "resizeColumnsAndReadHistory" + transcriptRows, 1, 0, () -> {
+                emulator.resize(emulator.columns == 80 ? 100 : 80, ROWS);
+                return emulator.getScreen().getTranscriptText().length();
+            });
+        }
+    }
+
+    /** Create an 80 column emulator with its history full. */
+    private static TerminalEmulator filledEmulator(byte[] corpus, int transcriptRows) {
+        TerminalEmulator emulator = new TerminalEmulator(Benchmarks.NULL_CLIENT, 80, ROWS, transcriptRows, Benchmarks.NULL_LOGGER);
+        while (emulator.getScreen().getActiveRows() < transcriptRows)
+            emulator.append(corpus, corpus.length);
+        return emulator;
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.termux.terminal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Measures {@link TerminalSerializer} writing out the whole history and screen, as done when a viewer attaches to a
+ * session, for plain and for colorful output.
+ */
+final class SerializerBenchmark {
+
+    static final String SUITE = "Serializer";
+
+    private static final int TRANSCRIPT_ROWS = 10000;
+
+    private SerializerBenchmark() {
+    }
+
+    static void run(BenchmarkHarness harness) {
+        measure(harness, "asciiLog", BenchmarkCorpora.asciiLog());
+        measure(harness, "sgrCompilerOutput", BenchmarkCorpora.sgrCompilerOutput());
+    }
+
+    private static void measure(BenchmarkHarness harness, String corpusName, byte[] corpus) {
+        TerminalEmulator emulator = new TerminalEmulator(Benchmarks.NULL_CLIENT, 80, 24, TRANSCRIPT_ROWS, Benchmarks.NULL_LOGGER);
+        while (emulator.getScreen().getActiveRows() < TRANSCRIPT_ROWS)
+            emulator.append(corpus, corpus.length);
+        final TerminalBuffer screen = emulator.getScreen();
+        final ByteBuffer chunk = ByteBuffer.allocateDirect(64 * 1024);
+        long outputBytes = serialize(screen, chunk);
+        harness.measure(SUITE, "transcript_" + corpusName, 1, outputBytes, () -> serialize(screen, chunk));
+    }
+
+    /** Serialize the transcript, discarding the output, returning its length. */
+    private static long serialize(TerminalBuffer screen, ByteBuffer chunk) {
+        TerminalSerializer serializer = TerminalSerializer.forTranscript(screen);
+        long length = 0;
+        boolean done;
+        do {
+            chunk.clear();
+            done = serializer.write(chunk);
+            length += chunk.position();
+        } while (!done);
+        return length;
+    }
+
+}
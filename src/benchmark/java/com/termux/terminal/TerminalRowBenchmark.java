@@ -0,0 +1,122 @@
+package com.termux.terminal;
+
+/**
+ * Measures the {@link TerminalRow} operations which dominate profiles of {@link TerminalEmulator#append(byte[], int)}
+ * and of resizing, in isolation from the parser.
+ */
+final class TerminalRowBenchmark {
+
+    static final String SUITE = "TerminalRow";
+
+    private static final int COLUMNS = 80;
+    private static final long STYLE = TextStyle.encode(2, TextStyle.COLOR_INDEX_BACKGROUND, TextStyle.CHARACTER_ATTRIBUTE_BOLD);
+    private static final int[] FIND_START_OF_COLUMN_SIZES = {80, 132, 200, 300, 500};
+
+    private TerminalRowBenchmark() {
+    }
+
+    static void run(BenchmarkHarness harness) {
+        final TerminalRow row = new TerminalRow(COLUMNS, TextStyle.NORMAL);
+
+        // Each run overwrites the whole row, one operation per setChar() call:
+        harness.measure(SUITE, "setCharAscii", COLUMNS, 0, () -> {
+            for (int column = 0; column < COLUMNS; column++)
+                row.setChar(column, 'a' + (column % 26), STYLE);
+            return row.getSpaceUsed();
+        });
+        harness.measure(SUITE, "setCharWide", COLUMNS / 2, 0, () -> {
+            for (int column = 0; column < COLUMNS; column += 2)
+                row.setChar(column, 0x4E00 + column, STYLE);
+            return row.getSpaceUsed();
+        });
+        harness.measure(SUITE, "setCharSurrogatePair", COLUMNS / 2, 0, () -> {
+            for (int column = 0; column < COLUMNS; column += 2)
+                row.setChar(column, 0x1F600 + column, STYLE);
+            return row.getSpaceUsed();
+        });
+        // Combining characters accumulate in their column, so the row is cleared at the start of each run and every
+        // column gets a base character followed by a combining one, counted as two operations:
+        harness.measure(SUITE, "setCharCombining", 2 * COLUMNS, 0, () -> {
+            row.clear(TextStyle.NORMAL);
+            for (int column = 0; column < COLUMNS; column++) {
+                row.setChar(column, 'a', STYLE);
+                row.setChar(column, 0x0301, STYLE);
+            }
+            return row.getSpaceUsed();
+        });
+
+        final TerminalRow source = mixedRow(COLUMNS);
+        final TerminalRow destination = new TerminalRow(COLUMNS, TextStyle.NORMAL);
+        harness.measure(SUITE, "copyIntervalWholeRow", 1, 0, () -> {
+            destination.copyInterval(source, 0, COLUMNS, 0);
+            return destination.getSpaceUsed();
+        });
+        harness.measure(SUITE, "copyIntervalPartialRow", 1, 0, () -> {
+            destination.copyInterval(source, 10, 50, 25);
+            return destination.getSpaceUsed();
+        });
+
+        // Looking up every column of the row, so the reported time is the average over the row:
+        for (final int columns : FIND_START_OF_COLUMN_SIZES) {
+            final TerminalRow asciiRow = new TerminalRow(columns, TextStyle.NORMAL);
+            for (int column = 0; column < columns; column++)
+                asciiRow.setChar(column, 'a' + (column % 26), STYLE);
+            harness.measure(SUITE, "findStartOfColumnAscii" + columns, columns, 0, () -> {
+                long sum = 0;
+                for (int column = 0; column < columns; column++)
+                    sum += asciiRow.findStartOfColumn(column);
+                return sum;
+            });
+
+            final TerminalRow mixedRow = mixedRow(columns);
+            harness.measure(SUITE, "findStartOfColumnMixed" + columns, columns, 0, () -> {
+                long sum = 0;
+                for (int column = 0; column < columns; column++)
+                    sum += mixedRow.findStartOfColumn(column);
+                return sum;
+            });
+        }
+
+        // Walking a row as a renderer does, by column with findStartOfColumn() and getStyle() or by style run:
+        final StyleRunCursor cursor = new StyleRunCursor();
+        harness.measure(SUITE, "renderByColumnMixed", COLUMNS, 0, () -> {
+            long sum = 0;
+            for (int column = 0; column < COLUMNS; column++)
+                sum += source.findStartOfColumn(column) + source.getStyle(column);
+            return sum;
+        });
+        harness.measure(SUITE, "renderByStyleRunMixed", COLUMNS, 0, () -> {
+            long sum = 0;
+            cursor.reset(source, 0, COLUMNS);
+            while (cursor.next())
+                sum += cursor.getCharEnd() + cursor.getStyle();
+            return sum;
+        });
+    }
+
+    /** A row with a repeating mix of ASCII, wide, surrogate pair and combining characters. */
+    private static TerminalRow mixedRow(int columns) {
+        TerminalRow row = new TerminalRow(columns, TextStyle.NORMAL);
+        int column = 0;
+        for (int i = 0; column < columns - 1; i++) {
+            switch (i % 4) {
+                case 0:
+                    row.setChar(column++, 'a' + (i % 26), STYLE);
+                    break;
+                case 1:
+                    row.setChar(column, 0x4E00 + i, STYLE);
+                    column += 2;
+                    break;
+                case 2:
+                    row.setChar(column, 0x1F600 + (i % 64), STYLE);
+                    column += 2;
+                    break;
+                default:
+                    row.setChar(column, 'e', STYLE);
+                    row.setChar(column++, 0x0301, STYLE);
+            }
+        }
+        return row;
+    }
+
+}
@@ -0,0 +1,238 @@
+package com.termux.terminal;
+
+import java.util.Arrays;
+
+/**
+ * A growable byte array for writing text as UTF-8 together with the escape sequences understood by
+ * {@link TerminalEmulator}, used to encode screen contents for other terminals.
+ */
+final class AnsiOutput {
+
+    /** The effects which SGR can set, leaving out {@link TextStyle#CHARACTER_ATTRIBUTE_PROTECTED}. */
+    private static final int SGR_EFFECTS = 0b111111111 & ~TextStyle.CHARACTER_ATTRIBUTE_PROTECTED;
+    /** The SGR codes setting and resetting the effects other than bold and dim, which share a reset code. */
+    private static final int[] EFFECT_BITS = {TextStyle.CHARACTER_ATTRIBUTE_ITALIC, TextStyle.CHARACTER_ATTRIBUTE_UNDERLINE,
+        TextStyle.CHARACTER_ATTRIBUTE_BLINK, TextStyle.CHARACTER_ATTRIBUTE_INVERSE, TextStyle.CHARACTER_ATTRIBUTE_INVISIBLE,
+        TextStyle.CHARACTER_ATTRIBUTE_STRIKETHROUGH};
+    private static final int[] EFFECT_SET_CODES = {3, 4, 5, 7, 8, 9};
+    private static final int[] EFFECT_RESET_CODES = {23, 24, 25, 27, 28, 29};
+
+    private byte[] bytes;
+    private int length;
+    /** If an SGR parameter has been written since the last CSI, so that the next one needs a separator. */
+    private boolean sgrParameterWritten;
+
+    AnsiOutput(int capacity) {
+        bytes = new byte[capacity];
+    }
+
+    int length() {
+        return length;
+    }
+
+    /** The written bytes are the first {@link #length()} ones. */
+    byte[] array() {
+        return bytes;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, length);
+    }
+
+    void clear() {
+        length = 0;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, length + extra));
+    }
+
+    void writeByte(int b) {
+        ensureCapacity(1);
+        bytes[length++] = (byte) b;
+    }
+
+    /** Write the Control Sequence Introducer, "ESC [". */
+    void writeCsi() {
+        ensureCapacity(2);
+        bytes[length++] = 27;
+        bytes[length++] = '[';
+    }
+
+    void writeNumber(int number) {
+        if (number >= 10) writeNumber(number / 10);
+        writeByte('0' + number % 10);
+    }
+
+    void writeCodePoint(int codePoint) {
+        ensureCapacity(4);
+        if (codePoint < 0x80) {
+            bytes[length++] = (byte) codePoint;
+        } else if (codePoint < 0x800) {
+            bytes[length++] = (byte) (0xC0 | (codePoint >> 6));
+            bytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (codePoint < 0x10000) {
+            bytes[length++] = (byte) (0xE0 | (codePoint >> 12));
+            bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            bytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else {
+            bytes[length++] = (byte) (0xF0 | (codePoint >> 18));
+            bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            bytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+        }
+    }
+
+    /** Write java chars as UTF-8, with a lone surrogate written as U+FFFD. */
+    void writeChars(char[] text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = text[i];
+            if (c < 0x80) {
+                writeByte(c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text[i + 1])) {
+                writeCodePoint(Character.toCodePoint(c, text[++i]));
+            } else {
+                writeCodePoint(Character.isSurrogate(c) ? 0xFFFD : c);
+            }
+        }
+    }
+
+    /**
+     * Start an OSC 8 hyperlink, with the text from {@link HyperlinkTable#getSequenceText(int)}, or end the current one
+     * if null.
+     */
+    void writeHyperlink(String sequenceText) {
+        ensureCapacity(4);
+        bytes[length++] = 27;
+        bytes[length++] = ']';
+        bytes[length++] = '8';
+        bytes[length++] = ';';
+        if (sequenceText == null) {
+            writeByte(';');
+        } else {
+            char[] chars = sequenceText.toCharArray();
+            writeChars(chars, 0, chars.length);
+        }
+        writeByte(27);
+        writeByte('\\');
+    }
+
+    /** Move the cursor to a zero-based position with Cursor Position (CUP), leaving out parameters which are 1. */
+    void writeCursorPosition(int row, int column) {
+        writeCsi();
+        if (row > 0 || column > 0) writeNumber(row + 1);
+        if (column > 0) {
+            writeByte(';');
+            writeNumber(column + 1);
+        }
+        writeByte('H');
+    }
+
+    /** Write a CSI sequence with one parameter, which is left out if 1. */
+    void writeCsi(int parameter, char finalChar) {
+        writeCsi();
+        if (parameter != 1) writeNumber(parameter);
+        writeByte(finalChar);
+    }
+
+    /**
+     * Write the shortest Select Graphic Rendition (SGR) sequence changing the style of a terminal from one style to
+     * another, either changing only what differs or resetting and setting everything, or nothing if they are the same.
+     */
+    void writeStyleChange(long from, long to) {
+        if (sgrStyle(from) == sgrStyle(to)) return;
+        int start = length;
+        writeIncrementalSgr(from, to);
+        int incrementalEnd = length;
+        writeResetSgr(to);
+        int resetLength = length - incrementalEnd;
+        if (resetLength < incrementalEnd - start) {
+            System.arraycopy(bytes, incrementalEnd, bytes, start, resetLength);
+            length = start + resetLength;
+        } else {
+            length = incrementalEnd;
+        }
+    }
+
+    /** The parts of a style which SGR can set. */
+    private static long sgrStyle(long style) {
+        return TextStyle.encode(TextStyle.decodeForeColor(style), TextStyle.decodeBackColor(style), TextStyle.decodeEffect(style) & SGR_EFFECTS);
+    }
+
+    private void writeIncrementalSgr(long from, long to) {
+        startSgr();
+        int fromEffect = TextStyle.decodeEffect(from), toEffect = TextStyle.decodeEffect(to);
+        final int boldOrDim = TextStyle.CHARACTER_ATTRIBUTE_BOLD | TextStyle.CHARACTER_ATTRIBUTE_DIM;
+        if ((fromEffect & ~toEffect & boldOrDim) != 0) {
+            // Both are reset by the same code, so set again what is kept:
+            writeSgrParameter(22);
+            fromEffect &= ~boldOrDim;
+        }
+        if ((toEffect & ~fromEffect & TextStyle.CHARACTER_ATTRIBUTE_BOLD) != 0) writeSgrParameter(1);
+        if ((toEffect & ~fromEffect & TextStyle.CHARACTER_ATTRIBUTE_DIM) != 0) writeSgrParameter(2);
+        for (int i = 0; i < EFFECT_BITS.length; i++) {
+            int bit = EFFECT_BITS[i];
+            if ((fromEffect & bit) != (toEffect & bit)) writeSgrParameter((toEffect & bit) != 0 ? EFFECT_SET_CODES[i] : EFFECT_RESET_CODES[i]);
+        }
+        int foreColor = TextStyle.decodeForeColor(to);
+        if (foreColor != TextStyle.decodeForeColor(from)) writeSgrColor(foreColor, 30, 90, TextStyle.COLOR_INDEX_FOREGROUND);
+        int backColor = TextStyle.decodeBackColor(to);
+        if (backColor != TextStyle.decodeBackColor(from)) writeSgrColor(backColor, 40, 100, TextStyle.COLOR_INDEX_BACKGROUND);
+        writeByte('m');
+    }
+
+    private void writeResetSgr(long to) {
+        startSgr();
+        int effect = TextStyle.decodeEffect(to);
+        int foreColor = TextStyle.decodeForeColor(to), backColor = TextStyle.decodeBackColor(to);
+        // A lone reset may leave out its parameter, but an empty parameter among others is ignored:
+        boolean alone = (effect & SGR_EFFECTS) == 0 && foreColor == TextStyle.COLOR_INDEX_FOREGROUND && backColor == TextStyle.COLOR_INDEX_BACKGROUND;
+        if (!alone) writeSgrParameter(0);
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_BOLD) != 0) writeSgrParameter(1);
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_DIM) != 0) writeSgrParameter(2);
+        for (int i = 0; i < EFFECT_BITS.length; i++)
+            if ((effect & EFFECT_BITS[i]) != 0) writeSgrParameter(EFFECT_SET_CODES[i]);
+        if (foreColor != TextStyle.COLOR_INDEX_FOREGROUND) writeSgrColor(foreColor, 30, 90, TextStyle.COLOR_INDEX_FOREGROUND);
+        if (backColor != TextStyle.COLOR_INDEX_BACKGROUND) writeSgrColor(backColor, 40, 100, TextStyle.COLOR_INDEX_BACKGROUND);
+        writeByte('m');
+    }
+
+    private void startSgr() {
+        writeCsi();
+        sgrParameterWritten = false;
+    }
+
+    private void writeSgrParameter(int parameter) {
+        if (sgrParameterWritten) writeByte(';');
+        writeNumber(parameter);
+        sgrParameterWritten = true;
+    }
+
+    /**
+     * Write the parameters setting a color, as returned by {@link TextStyle#decodeForeColor(long)}.
+     *
+     * @param base         the code of the first of the 8 standard colors, 30 for foreground and 40 for background.
+     * @param brightBase   the code of the first of the 8 bright colors.
+     * @param defaultIndex the index of the default color, which is set by base + 9.
+     */
+    private void writeSgrColor(int color, int base, int brightBase, int defaultIndex) {
+        if ((color & 0xff000000) == 0xff000000) {
+            writeSgrParameter(base + 8);
+            writeSgrParameter(2);
+            writeSgrParameter((color >> 16) & 0xff);
+            writeSgrParameter((color >> 8) & 0xff);
+            writeSgrParameter(color & 0xff);
+        } else if (color == defaultIndex) {
+            writeSgrParameter(base + 9);
+        } else if (color < 8) {
+            writeSgrParameter(base + color);
+        } else if (color < 16) {
+            writeSgrParameter(brightBase + color - 8);
+        } else {
+            writeSgrParameter(base + 8);
+            writeSgrParameter(5);
+            writeSgrParameter(color);
+        }
+    }
+
+}
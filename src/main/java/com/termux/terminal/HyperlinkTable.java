@@ -0,0 +1,153 @@
+package com.termux.terminal;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The OSC 8 hyperlinks referred to by the cells of a {@link TerminalBuffer}, so that a cell stores an int id instead of
+ * a URI string.
+ * <p>
+ * Each link is stored once, by its URI and the optional id parameter given with it, together with a count of the
+ * references to it: one for each cell of a row in the buffer, and one for the link the emulator is currently writing
+ * with. A link is removed when its last reference goes away, as when the rows with it are cleared or leave the
+ * transcript, and its id is then reused. Id 0 means no link.
+ */
+final class HyperlinkTable {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** The URI of each link by id, or null for a free id. */
+    private String[] uris = new String[INITIAL_CAPACITY];
+    /** The key in {@link #idsByKey} of each link by id, which is its {@link #getSequenceText(int) sequence text}. */
+    private String[] keys = new String[INITIAL_CAPACITY];
+    private int[] referenceCounts = new int[INITIAL_CAPACITY];
+    private final HashMap<String, Integer> idsByKey = new HashMap<>();
+    /** Ids of removed links, to reuse before growing. */
+    private int[] freeIds = new int[INITIAL_CAPACITY];
+    private int freeIdCount;
+    /** The highest id ever given out. */
+    private int highestId;
+
+    /**
+     * Get the id of a link, adding it if necessary, with a reference to it for the caller.
+     *
+     * @param idParameter the id parameter of the OSC 8 sequence, or the empty string if none.
+     */
+    int obtain(String idParameter, String uri) {
+        if (uri.isEmpty()) throw new IllegalArgumentException("Empty hyperlink URI");
+        String key = (idParameter.isEmpty() ? "" : "id=" + idParameter) + ';' + uri;
+        Integer existing = idsByKey.get(key);
+        if (existing != null) {
+            retain(existing);
+            return existing;
+        }
+        int id;
+        if (freeIdCount > 0) {
+            id = freeIds[--freeIdCount];
+        } else {
+            id = ++highestId;
+            if (id == uris.length) {
+                uris = Arrays.copyOf(uris, 2 * uris.length);
+                keys = Arrays.copyOf(keys, 2 * keys.length);
+                referenceCounts = Arrays.copyOf(referenceCounts, 2 * referenceCounts.length);
+            }
+        }
+        uris[id] = uri;
+        keys[id] = key;
+        referenceCounts[id] = 1;
+        idsByKey.put(key, id);
+        return id;
+    }
+
+    /** Add a reference to a link, which must be in the table. Does nothing for id 0. */
+    void retain(int id) {
+        if (id == 0) return;
+        if (uris[id] == null) throw new IllegalStateException("No hyperlink with id " + id);
+        referenceCounts[id]++;
+    }
+
+    /** Remove a reference to a link, removing the link with its last reference. Does nothing for id 0. */
+    void release(int id) {
+        if (id == 0) return;
+        if (uris[id] == null) throw new IllegalStateException("No hyperlink with id " + id);
+        if (--referenceCounts[id] > 0) return;
+        idsByKey.remove(keys[id]);
+        uris[id] = null;
+        keys[id] = null;
+        if (freeIdCount == freeIds.length) freeIds = Arrays.copyOf(freeIds, 2 * freeIds.length);
+        freeIds[freeIdCount++] = id;
+    }
+
+    /** The URI of a link, or null for id 0 or an id no longer in the table. */
+    String getUri(int id) {
+        return (id > 0 && id < uris.length) ? uris[id] : null;
+    }
+
+    /**
+     * The parameters and URI of an OSC 8 sequence starting a link, as in "id=name;URI" or ";URI", or null for id 0 or
+     * an id no longer in the table.
+     */
+    String getSequenceText(int id) {
+        return (id > 0 && id < keys.length) ? keys[id] : null;
+    }
+
+    /** The number of links in the table. */
+    int size() {
+        return idsByKey.size();
+    }
+
+    /** Remove all links, as when all rows referring to them are replaced. */
+    void clear() {
+        Arrays.fill(uris, null);
+        Arrays.fill(keys, null);
+        Arrays.fill(referenceCounts, 0);
+        idsByKey.clear();
+        freeIdCount = 0;
+        highestId = 0;
+    }
+
+    /** Write the links, each with its id, to a snapshot. See {@link TerminalSnapshot}. */
+    void writeSnapshot(TerminalSnapshot.Output out) throws IOException {
+        out.writeInt(size());
+        for (int id = 1; id <= highestId; id++) {
+            if (uris[id] == null) continue;
+            out.writeInt(id);
+            // The key is the parameters, with the id parameter if any, and the URI separated by a semicolon:
+            String parameters = keys[id].substring(0, keys[id].length() - uris[id].length() - 1);
+            out.writeUTF(parameters.isEmpty() ? "" : parameters.substring("id=".length()));
+            out.writeUTF(uris[id]);
+        }
+    }
+
+    /**
+     * Add the links written by {@link #writeSnapshot(TerminalSnapshot.Output)}, with a reference to each for the caller.
+     *
+     * @return the id in this table of each id in the snapshot, or 0 for an id not in the snapshot.
+     */
+    int[] readSnapshot(TerminalSnapshot.Input in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) throw new IOException("Invalid hyperlink count: " + count);
+        int[] ids = new int[1];
+        for (int i = 0; i < count; i++) {
+            int id = in.readInt();
+            String idParameter = in.readUTF();
+            String uri = in.readUTF();
+            if (id <= 0 || uri.isEmpty()) throw new IOException("Invalid hyperlink: id=" + id + ", uri=" + uri);
+            if (id >= ids.length) ids = Arrays.copyOf(ids, Math.max(2 * ids.length, id + 1));
+            ids[id] = obtain(idParameter, uri);
+        }
+        return ids;
+    }
+
+    /** Estimate the heap bytes used by this table, see {@link TerminalRow#estimateHeapBytes()}. */
+    long estimateHeapBytes() {
+        long bytes = 32 + 3 * TerminalRow.arrayBytes(4L * uris.length) + TerminalRow.arrayBytes(4L * freeIds.length);
+        // The hash map with an entry and a boxed id per link, and the strings of the URI and key:
+        bytes += 48 + TerminalRow.arrayBytes(4L * Math.max(16, 2 * idsByKey.size()));
+        for (int id = 1; id <= highestId; id++)
+            if (uris[id] != null) bytes += 32 + 16 + 2 * (40 + 2L * keys[id].length());
+        return bytes;
+    }
+
+}
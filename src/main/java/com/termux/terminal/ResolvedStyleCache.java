@@ -0,0 +1,167 @@
+package com.termux.terminal;
+
+import java.util.Arrays;
+
+/**
+ * Resolves the styles of cells, see {@link TextStyle}, to the colors and effects to draw them with, caching the result.
+ * <p>
+ * Resolving a style involves decoding it, looking up indexed colors in {@link TerminalEmulator#colors}, making bold text
+ * use bright colors, swapping colors for inverse text or reverse video (DECSET 5) and dimming faint text. Since a screen
+ * normally only uses a few dozen distinct styles, caching makes this a hash lookup for almost every cell.
+ * <p>
+ * Get the cache of an emulator with {@link TerminalEmulator#getResolvedStyles()}. It is invalidated when the emulator
+ * changes colors or reverse video, and should be invalidated with {@link #invalidate()} after changing
+ * {@link TerminalColors#currentColors} directly. Like the emulator it is not thread safe.
+ *
+ * <pre>
+ * cache.resolve(style);
+ * paint.setColor(cache.getForeColor());
+ * </pre>
+ */
+public final class ResolvedStyleCache {
+
+    /** The number of cached styles. A power of two. */
+    static final int CAPACITY = 256;
+    /** The number of slots to look in for a style before replacing the first. */
+    private static final int PROBES = 4;
+    /** The effects of {@link #getEffect()}: the CHARACTER_ATTRIBUTE_* flags except inverse, which is applied to the colors. */
+    private static final int RESOLVED_EFFECTS = 0b111111111 & ~TextStyle.CHARACTER_ATTRIBUTE_INVERSE;
+
+    private final TerminalEmulator emulator;
+
+    private final long[] styles = new long[CAPACITY];
+    private final int[] foreColors = new int[CAPACITY];
+    private final int[] backColors = new int[CAPACITY];
+    private final int[] effects = new int[CAPACITY];
+    /** The {@link #generation} each slot was resolved in, so that invalidating does not need to clear the slots. */
+    private final int[] generations = new int[CAPACITY];
+    private int generation = 1;
+    /** The reverse video setting the cached styles were resolved with. */
+    private boolean reverseVideo;
+    private boolean boldAsBright = true;
+
+    private int foreColor, backColor, effect;
+    private long hits, misses;
+
+    ResolvedStyleCache(TerminalEmulator emulator) {
+        this.emulator = emulator;
+    }
+
+    /** Drop all cached styles. */
+    public void invalidate() {
+        if (++generation == 0) {
+            // Wrapped around, so old slots could look current:
+            Arrays.fill(generations, 0);
+            generation = 1;
+        }
+    }
+
+    /** If bold text with one of the first 8 indexed colors should use the bright variant of it. True by default. */
+    public void setBoldAsBright(boolean boldAsBright) {
+        if (boldAsBright != this.boldAsBright) {
+            this.boldAsBright = boldAsBright;
+            invalidate();
+        }
+    }
+
+    /** Resolve a style, making the result available from {@link #getForeColor()} and friends. */
+    public void resolve(long style) {
+        if (emulator.isReverseVideo() != reverseVideo) {
+            reverseVideo = !reverseVideo;
+            invalidate();
+        }
+        int first = slotOf(style);
+        for (int probe = 0; probe < PROBES; probe++) {
+            int slot = (first + probe) & (CAPACITY - 1);
+            if (generations[slot] != generation) {
+                store(slot, style);
+                return;
+            } else if (styles[slot] == style) {
+                hits++;
+                foreColor = foreColors[slot];
+                backColor = backColors[slot];
+                effect = effects[slot];
+                return;
+            }
+        }
+        store(first, style);
+    }
+
+    private static int slotOf(long style) {
+        long mixed = style * 0x9E3779B97F4A7C15L;
+        return (int) (mixed >>> 32) & (CAPACITY - 1);
+    }
+
+    private void store(int slot, long style) {
+        misses++;
+        resolveUncached(style);
+        styles[slot] = style;
+        foreColors[slot] = foreColor;
+        backColors[slot] = backColor;
+        effects[slot] = effect;
+        generations[slot] = generation;
+    }
+
+    private void resolveUncached(long style) {
+        int[] palette = emulator.colors.currentColors;
+        int fore = TextStyle.decodeForeColor(style);
+        int back = TextStyle.decodeBackColor(style);
+        int effect = TextStyle.decodeEffect(style);
+
+        if ((fore & 0xff000000) != 0xff000000) {
+            // Let bold have bright colors if applicable (one of the first 8):
+            boolean bold = (effect & (TextStyle.CHARACTER_ATTRIBUTE_BOLD | TextStyle.CHARACTER_ATTRIBUTE_BLINK)) != 0;
+            if (boldAsBright && bold && fore >= 0 && fore < 8) fore += 8;
+            fore = palette[fore];
+        }
+        if ((back & 0xff000000) != 0xff000000) back = palette[back];
+
+        // Reverse video here if one and only one of the reverse flags are set:
+        if (reverseVideo ^ (effect & TextStyle.CHARACTER_ATTRIBUTE_INVERSE) != 0) {
+            int tmp = fore;
+            fore = back;
+            back = tmp;
+        }
+
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_DIM) != 0) {
+            // Dim color handling used by libvte which in turn took it from xterm:
+            int red = (0xFF & (fore >> 16)) * 2 / 3;
+            int green = (0xFF & (fore >> 8)) * 2 / 3;
+            int blue = (0xFF & fore) * 2 / 3;
+            fore = 0xFF000000 | (red << 16) | (green << 8) | blue;
+        }
+
+        this.foreColor = fore;
+        this.backColor = back;
+        this.effect = effect & RESOLVED_EFFECTS;
+    }
+
+    /** The ARGB color to draw the text of the last resolved style with. */
+    public int getForeColor() {
+        return foreColor;
+    }
+
+    /** The ARGB color to draw the background of the last resolved style with. */
+    public int getBackColor() {
+        return backColor;
+    }
+
+    /**
+     * The CHARACTER_ATTRIBUTE_* flags of {@link TextStyle} of the last resolved style, except inverse, which has been
+     * applied to the colors. Dim has been applied to the foreground color, but is kept for renderers wanting to do more.
+     */
+    public int getEffect() {
+        return effect;
+    }
+
+    /** The number of styles resolved from the cache. */
+    public long getHits() {
+        return hits;
+    }
+
+    /** The number of styles resolved without the cache. */
+    public long getMisses() {
+        return misses;
+    }
+
+}
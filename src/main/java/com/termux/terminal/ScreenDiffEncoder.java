@@ -0,0 +1,170 @@
+package com.termux.terminal;
+
+import java.util.Objects;
+
+/**
+ * Encodes the changes between {@link ScreenFrame}:s as escape sequences, so that a remote viewer running a terminal of
+ * the same size can mirror a session without being sent its raw output.
+ * <p>
+ * An encoder keeps track of what one viewer shows. The first call to {@link #encode(ScreenFrame)}, and the first after
+ * {@link #reset()} or a change of the screen size, encodes the whole frame for a viewer which has just joined. Later
+ * calls encode only what changed since the frame last encoded, using Cursor Position (CUP), Select Graphic Rendition
+ * (SGR), Erase Character (ECH) and Erase in Line (EL), and Scroll Up (SU) when the screen has scrolled, much like mosh
+ * does, with OSC 8 around cells with a hyperlink. A viewer which is slow to receive can simply be sent the latest frame
+ * when ready, skipping those in between.
+ * <p>
+ * Resizing the terminal of a viewer, as well as changes of the color palette, must be sent separately.
+ */
+public final class ScreenDiffEncoder {
+
+    /** The fewest spaces of the same style to erase instead of writing them. */
+    private static final int MIN_ERASE_CELLS = 5;
+
+    /** What the viewer shows, or null if not known. */
+    private ScreenFrame shown;
+    /** The style the viewer writes with, as set by the last SGR sent. */
+    private long style;
+    /** The hyperlink the viewer writes with, as set by the last OSC 8 sent, or null if none. */
+    private String link;
+    /** The position of the cursor of the viewer, with a negative row if it is not known. */
+    private int cursorRow = -1, cursorColumn;
+
+    private final AnsiOutput out = new AnsiOutput(4096);
+
+    /** Encode the escape sequences turning what the viewer shows into a frame, which the viewer then shows. */
+    public byte[] encode(ScreenFrame frame) {
+        out.clear();
+        if (shown == null || shown.columns != frame.columns || shown.rows != frame.rows) {
+            encodeFullFramePrelude(frame);
+        } else {
+            encodeScroll(frame);
+        }
+        for (int row = 0; row < frame.rows; row++)
+            encodeRow(frame, row);
+
+        if (cursorRow != frame.cursorRow || cursorColumn != frame.cursorColumn) moveCursor(frame.cursorRow, frame.cursorColumn);
+        if (frame.cursorVisible != shown.cursorVisible) {
+            out.writeCsi();
+            out.writeByte('?');
+            out.writeNumber(25);
+            out.writeByte(frame.cursorVisible ? 'h' : 'l');
+        }
+        shown.copyFrom(frame);
+        return out.toByteArray();
+    }
+
+    /** Forget what the viewer shows, so that the next frame is encoded in full. */
+    public void reset() {
+        shown = null;
+    }
+
+    /**
+     * Reset the style, hyperlink and scroll region of the viewer and clear its screen, after which it shows a blank
+     * frame.
+     */
+    private void encodeFullFramePrelude(ScreenFrame frame) {
+        style = TextStyle.NORMAL;
+        out.writeCsi();
+        out.writeByte('m');
+        out.writeCsi();
+        out.writeByte('r');
+        out.writeCsi();
+        out.writeByte('H');
+        out.writeCsi(2, 'J');
+        out.writeHyperlink(null);
+        link = null;
+        cursorRow = cursorColumn = 0;
+        shown = new ScreenFrame(frame.columns, frame.rows);
+        // Make sure the cursor visibility is sent:
+        shown.cursorVisible = !frame.cursorVisible;
+    }
+
+    /**
+     * If more rows of the frame are found in what the viewer shows a number of rows further down than in place, scroll
+     * the viewer up by that many rows first, blanking the rows at the bottom.
+     */
+    private void encodeScroll(ScreenFrame frame) {
+        int rows = frame.rows;
+        int bestShift = 0, bestMatches = countShiftedMatches(frame, 0);
+        for (int shift = 1; shift < rows; shift++) {
+            int matches = countShiftedMatches(frame, shift);
+            if (matches > bestMatches) {
+                bestShift = shift;
+                bestMatches = matches;
+            }
+        }
+        if (bestShift == 0) return;
+
+        out.writeStyleChange(style, TextStyle.NORMAL);
+        style = TextStyle.NORMAL;
+        out.writeCsi(bestShift, 'S');
+        shown.scrollUp(bestShift);
+    }
+
+    /** Count the non-blank rows of a frame which are probably shown that many rows further down by the viewer. */
+    private int countShiftedMatches(ScreenFrame frame, int shift) {
+        int matches = 0;
+        for (int row = 0; row + shift < frame.rows; row++)
+            if (!frame.blank[row] && frame.hashes[row] == shown.hashes[row + shift]) matches++;
+        return matches;
+    }
+
+    private void encodeRow(ScreenFrame frame, int row) {
+        if (frame.rowEquals(row, shown, row)) return;
+        int columns = frame.columns;
+        for (int column = 0; column < columns; ) {
+            if (frame.cellEquals(row, column, shown, row, column) || frame.isWideContinuation(row, column)) {
+                column++;
+                continue;
+            }
+
+            long cellStyle = frame.styles[row][column];
+            String cellLink = frame.getLink(row, column);
+            // Erased cells have no hyperlink:
+            int spaces = 0;
+            while (cellLink == null && column + spaces < columns && frame.isSpace(row, column + spaces)
+                && frame.styles[row][column + spaces] == cellStyle && frame.getLink(row, column + spaces) == null)
+                spaces++;
+            moveCursor(row, column);
+            out.writeStyleChange(style, cellStyle);
+            style = cellStyle;
+            if (spaces < MIN_ERASE_CELLS && !Objects.equals(link, cellLink)) {
+                out.writeHyperlink(cellLink);
+                link = cellLink;
+            }
+            if (spaces >= MIN_ERASE_CELLS) {
+                if (column + spaces == columns) {
+                    out.writeCsi();
+                    out.writeByte('K');
+                } else {
+                    out.writeCsi(spaces, 'X');
+                }
+                column += spaces;
+            } else {
+                int start = frame.cellStarts[row][column];
+                out.writeChars(frame.text[row], start, frame.cellStarts[row][column + 1]);
+                boolean wide = column + 1 < columns && frame.isWideContinuation(row, column + 1);
+                column += wide ? 2 : 1;
+                // Writing in the last column leaves the cursor there, about to wrap:
+                if (column < columns) {
+                    cursorColumn = column;
+                } else {
+                    cursorRow = -1;
+                }
+            }
+        }
+    }
+
+    /** Move the cursor of the viewer, forward on the same row if shorter. */
+    private void moveCursor(int row, int column) {
+        if (row == cursorRow && column == cursorColumn) return;
+        if (row == cursorRow && column > cursorColumn) {
+            out.writeCsi(column - cursorColumn, 'C');
+        } else {
+            out.writeCursorPosition(row, column);
+        }
+        cursorRow = row;
+        cursorColumn = column;
+    }
+
+}
@@ -0,0 +1,259 @@
+package com.termux.terminal;
+
+import java.util.Objects;
+
+/**
+ * A copy of what the screen of a {@link TerminalEmulator} shows at one moment - the text, style and hyperlink of each
+ * cell and the cursor - for {@link ScreenDiffEncoder} to encode on another thread while the emulator keeps running.
+ * <p>
+ * Capture with {@link #capture(TerminalEmulator)} on the thread using the emulator. A frame may be captured into any
+ * number of times, reusing its arrays as long as the screen size is unchanged, and copying only the rows which have a
+ * new {@link TerminalRow#getVersion() version} since.
+ */
+public final class ScreenFrame {
+
+    int columns, rows;
+    int cursorRow, cursorColumn;
+    boolean cursorVisible = true;
+
+    /** The text of each row, as in {@link TerminalRow#text}. */
+    char[][] text = new char[0][];
+    /**
+     * For each row the index in {@link #text} of the text of each column, followed by the end of the text. The second
+     * column of a wide character has no text of its own, so starts where it ends.
+     */
+    int[][] cellStarts = new int[0][];
+    /** The style of each cell of each row. See {@link TextStyle}. */
+    long[][] styles = new long[0][];
+    /**
+     * The OSC 8 hyperlink of each cell of each row as its {@link HyperlinkTable#getSequenceText(int) sequence text}, or
+     * null for a cell without one. A row without hyperlinks has null instead of an array.
+     */
+    String[][] links = new String[0][];
+    boolean[] lineWraps = new boolean[0];
+    /** A hash of the text and styles of each row, to find rows which may be equal quickly. */
+    long[] hashes = new long[0];
+    /** The version of the {@link TerminalRow} each row was copied from, or 0 if not known. */
+    long[] versions = new long[0];
+    /** If each row only has spaces of the normal style. */
+    boolean[] blank = new boolean[0];
+
+    /** Create an empty frame, to capture into. */
+    public ScreenFrame() {
+    }
+
+    /** Create a frame of blank rows of the normal style, with the cursor at the top left. */
+    ScreenFrame(int columns, int rows) {
+        setSize(columns, rows);
+        for (int row = 0; row < rows; row++)
+            setRow(row, null, null);
+    }
+
+    /** Copy the screen and cursor of an emulator into this frame. */
+    public void capture(TerminalEmulator emulator) {
+        TerminalBuffer screen = emulator.getScreen();
+        setSize(screen.columns, screen.screenRows);
+        for (int row = 0; row < rows; row++) {
+            TerminalRow source = screen.rows[screen.externalToInternalRow(row)];
+            if (source == null || source.getVersion() != versions[row]) setRow(row, source, screen);
+        }
+        cursorRow = emulator.getCursorRow();
+        cursorColumn = emulator.getCursorCol();
+        cursorVisible = emulator.isShowingCursor();
+    }
+
+    /** Make this frame a copy of another. */
+    void copyFrom(ScreenFrame other) {
+        setSize(other.columns, other.rows);
+        for (int row = 0; row < rows; row++) {
+            int textLength = other.cellStarts[row][columns];
+            if (text[row].length < textLength) text[row] = new char[other.text[row].length];
+            System.arraycopy(other.text[row], 0, text[row], 0, textLength);
+            System.arraycopy(other.cellStarts[row], 0, cellStarts[row], 0, columns + 1);
+            System.arraycopy(other.styles[row], 0, styles[row], 0, columns);
+            if (other.links[row] == null) {
+                links[row] = null;
+            } else {
+                if (links[row] == null) links[row] = new String[columns];
+                System.arraycopy(other.links[row], 0, links[row], 0, columns);
+            }
+        }
+        System.arraycopy(other.lineWraps, 0, lineWraps, 0, rows);
+        System.arraycopy(other.hashes, 0, hashes, 0, rows);
+        System.arraycopy(other.versions, 0, versions, 0, rows);
+        System.arraycopy(other.blank, 0, blank, 0, rows);
+        cursorRow = other.cursorRow;
+        cursorColumn = other.cursorColumn;
+        cursorVisible = other.cursorVisible;
+    }
+
+    /** Move the rows up, as scrolling the whole screen does, leaving blank rows at the bottom. */
+    void scrollUp(int count) {
+        for (int row = 0; row < rows; row++) {
+            int from = row + count;
+            if (from < rows) {
+                // Swap rather than copy, so that the rows at the bottom keep arrays of their own:
+                char[] rowText = text[row];
+                text[row] = text[from];
+                text[from] = rowText;
+                int[] starts = cellStarts[row];
+                cellStarts[row] = cellStarts[from];
+                cellStarts[from] = starts;
+                long[] rowStyles = styles[row];
+                styles[row] = styles[from];
+                styles[from] = rowStyles;
+                String[] rowLinks = links[row];
+                links[row] = links[from];
+                links[from] = rowLinks;
+                lineWraps[row] = lineWraps[from];
+                hashes[row] = hashes[from];
+                versions[row] = versions[from];
+                blank[row] = blank[from];
+            } else {
+                setRow(row, null, null);
+            }
+        }
+    }
+
+    private void setSize(int newColumns, int newRows) {
+        if (newColumns == columns && newRows == rows) return;
+        columns = newColumns;
+        rows = newRows;
+        text = new char[rows][];
+        cellStarts = new int[rows][];
+        styles = new long[rows][];
+        links = new String[rows][];
+        for (int row = 0; row < rows; row++) {
+            text[row] = new char[columns];
+            cellStarts[row] = new int[columns + 1];
+            styles[row] = new long[columns];
+        }
+        lineWraps = new boolean[rows];
+        hashes = new long[rows];
+        versions = new long[rows];
+        blank = new boolean[rows];
+    }
+
+    /** Copy a row of a buffer, which is blank if null. */
+    private void setRow(int row, TerminalRow source, TerminalBuffer buffer) {
+        int[] starts = cellStarts[row];
+        long[] rowStyles = styles[row];
+        if (source == null) {
+            char[] rowText = text[row];
+            for (int column = 0; column < columns; column++) {
+                rowText[column] = ' ';
+                starts[column] = column;
+                rowStyles[column] = TextStyle.NORMAL;
+            }
+            starts[columns] = columns;
+            links[row] = null;
+            lineWraps[row] = false;
+            versions[row] = 0;
+        } else {
+            int spaceUsed = source.getSpaceUsed();
+            if (text[row].length < spaceUsed) text[row] = new char[source.text.length];
+            char[] rowText = text[row];
+            System.arraycopy(source.text, 0, rowText, 0, spaceUsed);
+            int index = 0;
+            for (int column = 0; column < columns; column++) {
+                starts[column] = index;
+                if (index >= spaceUsed) continue;
+                char c = rowText[index++];
+                int codePoint = (Character.isHighSurrogate(c) && index < spaceUsed) ? Character.toCodePoint(c, rowText[index++]) : c;
+                // A combining character should not start a cell, but if it does it takes up the cell on its own:
+                int width = Math.max(1, WcWidth.width(codePoint));
+                while (index < spaceUsed) {
+                    c = rowText[index];
+                    boolean surrogatePair = Character.isHighSurrogate(c) && index + 1 < spaceUsed;
+                    if (WcWidth.width(surrogatePair ? Character.toCodePoint(c, rowText[index + 1]) : c) > 0) break;
+                    index += surrogatePair ? 2 : 1;
+                }
+                if (width == 2 && column + 1 < columns) starts[++column] = index;
+            }
+            starts[columns] = index;
+            for (int column = 0; column < columns; column++)
+                rowStyles[column] = source.getStyle(column);
+            if (source.hasLinks()) {
+                if (links[row] == null) links[row] = new String[columns];
+                for (int column = 0; column < columns; column++)
+                    links[row][column] = buffer.getHyperlinkSequenceText(source.getLink(column));
+            } else {
+                links[row] = null;
+            }
+            lineWraps[row] = source.lineWrap;
+            versions[row] = source.getVersion();
+        }
+
+        long hash = 0;
+        boolean isBlank = true;
+        char[] rowText = text[row];
+        for (int i = 0; i < starts[columns]; i++) {
+            hash = 31 * hash + rowText[i];
+            if (rowText[i] != ' ') isBlank = false;
+        }
+        for (int column = 0; column < columns; column++) {
+            hash = 31 * hash + rowStyles[column];
+            if (rowStyles[column] != TextStyle.NORMAL) isBlank = false;
+        }
+        hashes[row] = hash;
+        blank[row] = isBlank && links[row] == null;
+    }
+
+    /** If a cell of this frame has the same text, style and hyperlink as a cell of another. */
+    boolean cellEquals(int row, int column, ScreenFrame other, int otherRow, int otherColumn) {
+        if (styles[row][column] != other.styles[otherRow][otherColumn]) return false;
+        if (!Objects.equals(getLink(row, column), other.getLink(otherRow, otherColumn))) return false;
+        int start = cellStarts[row][column], end = cellStarts[row][column + 1];
+        int otherStart = other.cellStarts[otherRow][otherColumn], otherEnd = other.cellStarts[otherRow][otherColumn + 1];
+        if (end - start != otherEnd - otherStart) return false;
+        char[] rowText = text[row], otherText = other.text[otherRow];
+        for (int i = 0; i < end - start; i++)
+            if (rowText[start + i] != otherText[otherStart + i]) return false;
+        return true;
+    }
+
+    /** If a row of this frame has the same cells as a row of another frame of the same number of columns. */
+    boolean rowEquals(int row, ScreenFrame other, int otherRow) {
+        if (hashes[row] != other.hashes[otherRow]) return false;
+        for (int column = 0; column < columns; column++)
+            if (!cellEquals(row, column, other, otherRow, column)) return false;
+        return true;
+    }
+
+    /** The hyperlink of a cell as in {@link #links}, or null if none. */
+    String getLink(int row, int column) {
+        return (links[row] == null) ? null : links[row][column];
+    }
+
+    /** If a cell is a single space, which erasing with its style produces. */
+    boolean isSpace(int row, int column) {
+        int start = cellStarts[row][column];
+        return cellStarts[row][column + 1] == start + 1 && text[row][start] == ' ';
+    }
+
+    /** If a cell is the second column of a wide character, which has no text of its own. */
+    boolean isWideContinuation(int row, int column) {
+        return column > 0 && cellStarts[row][column] == cellStarts[row][column + 1];
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCursorRow() {
+        return cursorRow;
+    }
+
+    public int getCursorColumn() {
+        return cursorColumn;
+    }
+
+    public boolean isCursorVisible() {
+        return cursorVisible;
+    }
+
+}
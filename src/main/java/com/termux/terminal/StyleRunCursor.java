@@ -0,0 +1,116 @@
+package com.termux.terminal;
+
+/**
+ * Iterates over the runs of cells of a {@link TerminalRow} with the same style, so that a renderer can draw a run with
+ * one text call instead of looking up the style and text of each column.
+ * <p>
+ * A run consists of cells which all have the same style and are either all wide or all narrow, together with any
+ * combining characters following them. The same cursor can be reused for any number of rows, and iterating allocates
+ * nothing:
+ *
+ * <pre>
+ * cursor.reset(row, 0, columns);
+ * while (cursor.next())
+ *     draw(row.text, cursor.getCharStart(), cursor.getCharEnd(), cursor.getColumnStart(), cursor.getStyle());
+ * </pre>
+ */
+public final class StyleRunCursor {
+
+    private TerminalRow row;
+    private int endColumn;
+    /** The index in {@link TerminalRow#text} and the column of the next cell. */
+    private int charIndex, column;
+    /** The end of the text of the next cell, including combining characters, and its width. */
+    private int cellEnd, cellWidth;
+
+    private int runCharStart, runCharEnd, runColumnStart, runColumnEnd;
+    private long runStyle;
+    private boolean runWide;
+
+    /**
+     * Start iterating over the runs of a row within a range of columns. A wide character starting in the column before
+     * the range is not included, while one starting in the last column of the range is.
+     */
+    public void reset(TerminalRow row, int startColumn, int endColumn) {
+        if (startColumn < 0 || startColumn > endColumn || endColumn > row.getColumns())
+            throw new IllegalArgumentException("startColumn=" + startColumn + ", endColumn=" + endColumn + ", columns=" + row.getColumns());
+        this.row = row;
+        this.endColumn = endColumn;
+        charIndex = 0;
+        column = 0;
+        decodeCell();
+        while (column < startColumn && charIndex < row.getSpaceUsed()) {
+            charIndex = cellEnd;
+            column += cellWidth;
+            decodeCell();
+        }
+    }
+
+    /** Move to the next run, returning false if there are no more. */
+    public boolean next() {
+        if (column >= endColumn || charIndex >= row.getSpaceUsed()) return false;
+        runCharStart = charIndex;
+        runColumnStart = column;
+        runStyle = row.getStyle(column);
+        runWide = cellWidth == 2;
+        do {
+            charIndex = cellEnd;
+            column += cellWidth;
+            decodeCell();
+        } while (column < endColumn && charIndex < row.getSpaceUsed() && row.getStyle(column) == runStyle && (cellWidth == 2) == runWide);
+        runCharEnd = charIndex;
+        runColumnEnd = Math.min(column, row.getColumns());
+        return true;
+    }
+
+    /** Find the end and width of the cell starting at {@link #charIndex}. */
+    private void decodeCell() {
+        char[] text = row.text;
+        int spaceUsed = row.getSpaceUsed();
+        if (charIndex >= spaceUsed) return;
+        int index = charIndex;
+        char c = text[index++];
+        int codePoint = (Character.isHighSurrogate(c) && index < spaceUsed) ? Character.toCodePoint(c, text[index++]) : c;
+        // A combining character should not start a cell, but if it does it takes up the cell on its own:
+        cellWidth = Math.max(1, WcWidth.width(codePoint));
+        while (index < spaceUsed) {
+            c = text[index];
+            boolean surrogatePair = Character.isHighSurrogate(c) && index + 1 < spaceUsed;
+            codePoint = surrogatePair ? Character.toCodePoint(c, text[index + 1]) : c;
+            if (WcWidth.width(codePoint) > 0) break;
+            index += surrogatePair ? 2 : 1;
+        }
+        cellEnd = index;
+    }
+
+    /** The index in {@link TerminalRow#text} of the first char of the current run. */
+    public int getCharStart() {
+        return runCharStart;
+    }
+
+    /** The index in {@link TerminalRow#text} after the last char of the current run. */
+    public int getCharEnd() {
+        return runCharEnd;
+    }
+
+    /** The first column of the current run. */
+    public int getColumnStart() {
+        return runColumnStart;
+    }
+
+    /** The column after the current run. */
+    public int getColumnEnd() {
+        return runColumnEnd;
+    }
+
+    /** The style of the current run. See {@link TextStyle}. */
+    public long getStyle() {
+        return runStyle;
+    }
+
+    /** If the cells of the current run are wide characters, each taking up two columns. */
+    public boolean isWide() {
+        return runWide;
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.termux.terminal;
+
+import java.util.Arrays;
+
+/**
+ * The distinct styles, see {@link TextStyle}, used by the rows of a {@link TerminalBuffer}, so that a row can store a
+ * short index into the table for each cell instead of the eight byte style itself.
+ * <p>
+ * A screen normally uses a few dozen distinct styles, but programs drawing with truecolor may use any number of them.
+ * The table therefore holds at most {@link #MAX_STYLES} styles, after which a row needing a style not in it stores the
+ * styles of its cells in full. Styles are never removed, so indices stored in rows stay valid for the life of the table.
+ * Once full, the buffer instead replaces the table with a new one holding only the styles its rows still use.
+ */
+final class StyleTable {
+
+    /** The most styles a table holds, which must fit in a short index. */
+    static final int MAX_STYLES = 4096;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] styles = new long[INITIAL_CAPACITY];
+    private int size;
+    /** Open addressing hash of {@link #styles}, holding the index of a style plus one, or zero for an empty slot. */
+    private short[] slots = new short[2 * INITIAL_CAPACITY];
+
+    /** Get the index of a style, adding it if necessary, or -1 if it is not in the table and the table is full. */
+    int indexOf(long style) {
+        int mask = slots.length - 1;
+        for (int slot = slotOf(style, mask); ; slot = (slot + 1) & mask) {
+            int entry = slots[slot];
+            if (entry == 0) break;
+            if (styles[entry - 1] == style) return entry - 1;
+        }
+        if (size == MAX_STYLES) return -1;
+        if (size == styles.length) grow();
+        styles[size] = style;
+        insert(size++);
+        return size - 1;
+    }
+
+    /** The style with the specified index, as returned by {@link #indexOf(long)}. */
+    long styleAt(int index) {
+        return styles[index];
+    }
+
+    /** The number of styles in the table. */
+    int size() {
+        return size;
+    }
+
+    /** Estimate the heap bytes used by this table, see {@link TerminalRow#estimateHeapBytes()}. */
+    long estimateHeapBytes() {
+        return 32 + TerminalRow.arrayBytes(8L * styles.length) + TerminalRow.arrayBytes(2L * slots.length);
+    }
+
+    private void grow() {
+        styles = Arrays.copyOf(styles, 2 * styles.length);
+        slots = new short[2 * styles.length];
+        for (int index = 0; index < size; index++)
+            insert(index);
+    }
+
+    private void insert(int index) {
+        int mask = slots.length - 1;
+        int slot = slotOf(styles[index], mask);
+        while (slots[slot] != 0)
+            slot = (slot + 1) & mask;
+        slots[slot] = (short) (index + 1);
+    }
+
+    private static int slotOf(long style, int mask) {
+        long mixed = style * 0x9E3779B97F4A7C15L;
+        return (int) (mixed >>> 32) & mask;
+    }
+
+}
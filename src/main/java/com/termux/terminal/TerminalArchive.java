@@ -0,0 +1,254 @@
+package com.termux.terminal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The oldest part of the history of a {@link TerminalBuffer}, holding rows evicted from its circular buffer so that the
+ * history can grow far beyond what could be kept as {@link TerminalRow} objects.
+ * <p>
+ * Rows are stored in three tiers:
+ * <ol>
+ * <li>The newest rows are kept as they are in an open block of {@link #BLOCK_ROWS} rows.</li>
+ * <li>A full block is encoded with the snapshot row format and compressed onto the heap.</li>
+ * <li>Once the compressed blocks use more than a limit, the oldest of them are moved to a temporary file which is
+ * memory-mapped in segments of {@link #SEGMENT_BYTES}.</li>
+ * </ol>
+ * Rows are read back a block at a time, with the most recently read blocks kept decoded so that reading rows in order
+ * takes constant amortized time. Rows are returned as they were added, so may have another number of columns than the
+ * buffer has now.
+ */
+final class TerminalArchive implements Closeable {
+
+    static final int BLOCK_ROWS = 256;
+    static final int SEGMENT_BYTES = 8 * 1024 * 1024;
+    /** The most rows kept, so that external row numbers stay far from overflowing. Rows after that are dropped. */
+    static final int MAX_ROWS = 1 << 30;
+    private static final int CACHED_BLOCKS = 4;
+
+    /** A full block of compressed rows. */
+    private static final class Block {
+        /** The compressed rows while on the heap, null once moved to disk. */
+        byte[] compressed;
+        final int length;
+        /** Where the compressed rows are in {@link #segments} once moved to disk. */
+        int segment, offset;
+
+        Block(byte[] compressed) {
+            this.compressed = compressed;
+            this.length = compressed.length;
+        }
+    }
+
+    /** The most bytes of compressed blocks to keep on the heap. */
+    private final long heapLimit;
+    /** The directory for the temporary file, or null for the default temporary directory. */
+    private final File directory;
+
+    private final ArrayList<Block> blocks = new ArrayList<>();
+    private final TerminalRow[] openBlock = new TerminalRow[BLOCK_ROWS];
+    private int openBlockRows;
+    /** The number of blocks, the oldest, moved to disk. */
+    private int blocksOnDisk;
+    private long heapBytes, diskBytes;
+
+    /** The temporary file if it could not be deleted while open, as on Windows, or else null. */
+    private File file;
+    private FileChannel channel;
+    private final ArrayList<MappedByteBuffer> segments = new ArrayList<>();
+    private long fileSize;
+    /** The position in the newest segment to write the next block at. */
+    private int segmentPosition;
+    /** If writing to disk has failed, after which blocks are kept on the heap. */
+    private boolean diskFailed;
+
+    private final LinkedHashMap<Integer, TerminalRow[]> decodedBlocks = new LinkedHashMap<Integer, TerminalRow[]>(2 * CACHED_BLOCKS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, TerminalRow[]> eldest) {
+            return size() > CACHED_BLOCKS;
+        }
+    };
+
+    private final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    private final TerminalSnapshot.Output encoder = new TerminalSnapshot.Output(encoded);
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final byte[] deflateBuffer = new byte[16 * 1024];
+
+    /**
+     * @param heapLimit the most bytes of compressed rows to keep on the heap before moving them to disk.
+     * @param directory where to create the temporary file, or null for the default temporary directory.
+     */
+    TerminalArchive(long heapLimit, File directory) {
+        if (heapLimit < 0) throw new IllegalArgumentException("Negative heap limit: " + heapLimit);
+        this.heapLimit = heapLimit;
+        this.directory = directory;
+    }
+
+    int getRowCount() {
+        return blocks.size() * BLOCK_ROWS + openBlockRows;
+    }
+
+    /** The estimated heap bytes used, by compressed blocks on the heap and by the rows of the open block. */
+    long getHeapBytes() {
+        long bytes = heapBytes;
+        for (int i = 0; i < openBlockRows; i++)
+            bytes += openBlock[i].estimateHeapBytes();
+        return bytes;
+    }
+
+    long getDiskBytes() {
+        return diskBytes;
+    }
+
+    /** Add a row, which must not be null, as the newest. The row must not be changed afterwards. */
+    void add(TerminalRow row) {
+        if (getRowCount() >= MAX_ROWS) return;
+        openBlock[openBlockRows++] = row;
+        if (openBlockRows == BLOCK_ROWS) {
+            blocks.add(new Block(compress(openBlock)));
+            heapBytes += blocks.get(blocks.size() - 1).length;
+            Arrays.fill(openBlock, null);
+            openBlockRows = 0;
+            while (heapBytes > heapLimit && blocksOnDisk < blocks.size() && !diskFailed)
+                moveToDisk(blocks.get(blocksOnDisk));
+        }
+    }
+
+    /** Get a row by its index, from 0 for the oldest row. The row must not be changed. */
+    TerminalRow getRow(int index) {
+        if (index < 0 || index >= getRowCount()) throw new IllegalArgumentException("index=" + index + ", rows=" + getRowCount());
+        int blockIndex = index / BLOCK_ROWS;
+        if (blockIndex == blocks.size()) return openBlock[index % BLOCK_ROWS];
+        TerminalRow[] rows = decodedBlocks.get(blockIndex);
+        if (rows == null) {
+            rows = decompress(blocks.get(blockIndex));
+            decodedBlocks.put(blockIndex, rows);
+        }
+        return rows[index % BLOCK_ROWS];
+    }
+
+    /** Drop all rows. */
+    void clear() {
+        blocks.clear();
+        Arrays.fill(openBlock, null);
+        openBlockRows = 0;
+        blocksOnDisk = 0;
+        heapBytes = diskBytes = 0;
+        decodedBlocks.clear();
+        segments.clear();
+        segmentPosition = 0;
+        fileSize = 0;
+        closeFile();
+    }
+
+    /** Drop all rows and delete the temporary file. */
+    @Override
+    public void close() {
+        clear();
+        deflater.end();
+    }
+
+    private byte[] compress(TerminalRow[] rows) {
+        encoded.reset();
+        try {
+            for (TerminalRow row : rows) {
+                encoder.writeInt(row.getColumns());
+                row.writeSnapshot(encoder);
+            }
+            encoder.flush();
+        } catch (IOException e) {
+            // Not possible when writing to memory:
+            throw new IllegalStateException(e);
+        }
+        byte[] input = encoded.toByteArray();
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 8);
+        while (!deflater.finished())
+            output.write(deflateBuffer, 0, deflater.deflate(deflateBuffer));
+        return output.toByteArray();
+    }
+
+    private TerminalRow[] decompress(Block block) {
+        byte[] compressed = block.compressed;
+        if (compressed == null) {
+            compressed = new byte[block.length];
+            ByteBuffer view = segments.get(block.segment).duplicate();
+            view.position(block.offset);
+            view.get(compressed);
+        }
+        try {
+            TerminalSnapshot.Input in = new TerminalSnapshot.Input(new InflaterInputStream(new ByteArrayInputStream(compressed)));
+            TerminalRow[] rows = new TerminalRow[BLOCK_ROWS];
+            for (int i = 0; i < BLOCK_ROWS; i++)
+                rows[i] = TerminalRow.readSnapshot(in, in.readInt());
+            return rows;
+        } catch (IOException e) {
+            // Only possible if the data has been corrupted, as it is all in memory:
+            throw new IllegalStateException("Corrupt history block", e);
+        }
+    }
+
+    /** Move a block to the end of the temporary file, or keep it on the heap from now on if that fails. */
+    private void moveToDisk(Block block) {
+        try {
+            if (channel == null) {
+                file = File.createTempFile("terminal-history", ".tmp", directory);
+                channel = new RandomAccessFile(file, "rw").getChannel();
+                // Unlinked while open where possible, so that nothing is left behind however the process ends:
+                if (file.delete()) file = null;
+            }
+            MappedByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (segment == null || segment.capacity() - segmentPosition < block.length) {
+                int size = Math.max(SEGMENT_BYTES, block.length);
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, fileSize, size);
+                fileSize += size;
+                segments.add(segment);
+                segmentPosition = 0;
+            }
+            ByteBuffer view = segment.duplicate();
+            view.position(segmentPosition);
+            view.put(block.compressed);
+            block.segment = segments.size() - 1;
+            block.offset = segmentPosition;
+            segmentPosition += block.length;
+        } catch (IOException e) {
+            diskFailed = true;
+            return;
+        }
+        block.compressed = null;
+        heapBytes -= block.length;
+        diskBytes += block.length;
+        blocksOnDisk++;
+    }
+
+    private void closeFile() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing to do, the file is deleted below.
+            }
+            channel = null;
+        }
+        if (file != null) {
+            if (!file.delete()) file.deleteOnExit();
+            file = null;
+        }
+    }
+
+}
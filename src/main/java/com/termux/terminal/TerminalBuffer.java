@@ -1,5 +1,12 @@
 package com.termux.terminal;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * A circular buffer of {@link TerminalRow}:s which keeps notes about what is visible on a logical screen and the scroll
  * history.
@@ -8,6 +15,14 @@ package com.termux.terminal;
  */
 public final class TerminalBuffer {
 
+    /** Returned by {@link #findText(String, int, boolean)} if the text is not found. */
+    public static final int NOT_FOUND = Integer.MIN_VALUE;
+
+    /** The number of pending segments from which {@link #rewrapHistory()} rewraps them in parallel. */
+    private static final int PARALLEL_REWRAP_SEGMENTS = 4 * TerminalReflow.RewrapTask.SEGMENTS_PER_TASK;
+    /** The most released rows kept in {@link #rowPool}. */
+    static final int ROW_POOL_SIZE = 32;
+
     TerminalRow[] rows;
     /** The length of {@link #rows}. */
     int totalRows;
@@ -17,6 +32,49 @@ public final class TerminalBuffer {
     private int activeTranscriptRows = 0;
     /** The index in the circular buffer where the visible screen starts. */
     private int screenFirstRow = 0;
+    /**
+     * The history rows not yet rewrapped after the number of columns changed, by their index in {@link #rows}, or null
+     * if there are none. See {@link #reflow(int, int, int, int[], long)}.
+     */
+    private TerminalReflow.Segment[] pendingReflow;
+    private int pendingReflowSegments;
+    /**
+     * Index of the logical lines in the history, by index in {@link #rows}. For the first row of a logical line this is
+     * minus the number of rows of the line, or 0 if the line may continue onto the screen, and for following rows the
+     * number of rows since the first. Rows in history never change, so this only needs updating as rows enter or leave
+     * the history. See {@link #getLogicalLineStart(int)}.
+     */
+    private int[] lineIndex;
+    /** The most heap bytes history rows may use, see {@link #setHistoryBudget(long)}. */
+    private long historyBudget = Long.MAX_VALUE;
+    /**
+     * The estimated heap bytes used by history rows, counting the source rows of a segment not yet rewrapped instead of
+     * the rows it will be rewrapped into, as long as any of them are in the history.
+     */
+    private long historyBytes;
+    /** Where rows evicted from the history are kept, or null if they are dropped. See {@link #enableArchive(long, File)}. */
+    private TerminalArchive archive;
+    /**
+     * Rows released from the history, reused for new rows so that scrolling with a full history allocates nothing. A
+     * row of another number of columns than the buffer is dropped instead of being reused.
+     */
+    private final ArrayDeque<TerminalRow> rowPool = new ArrayDeque<>(ROW_POOL_SIZE);
+    /**
+     * The styles of the cells of the rows, which store indices into this table instead of the styles when possible. A
+     * full table is replaced by one with only the styles still used, see {@link #compactStyleTable(boolean)}.
+     */
+    private StyleTable styleTable = new StyleTable();
+    /** The rows scrolled in or cleared since {@link #styleTable} was last replaced. */
+    private int rowsSinceStyleCompaction;
+    /**
+     * The OSC 8 hyperlinks of the cells of the rows. Rows hold references to the links of their cells, which they give
+     * up when cleared or when leaving the buffer, so that links are dropped along with the rows using them.
+     */
+    private final HyperlinkTable linkTable = new HyperlinkTable();
+    /** If rows entering the history share the row before them when equal, see {@link #setHistoryDeduplication(boolean)}. */
+    private boolean deduplicateHistory;
+    /** Changes whenever the rows are laid out anew, see {@link #getEpoch()}. */
+    private long epoch;
 
     /**
      * Create a terminal buffer.
@@ -27,27 +85,36 @@ public final class TerminalBuffer {
      *                   the top of the screen.
      */
     public TerminalBuffer(int columns, int totalRows, int rows) {
+        this(columns, totalRows, rows, TextStyle.NORMAL);
+    }
+
+    /** Create a terminal buffer with the screen cleared using the specified style. */
+    TerminalBuffer(int columns, int totalRows, int rows, long style) {
         this.columns = columns;
         this.totalRows = totalRows;
         this.screenRows = rows;
         this.rows = new TerminalRow[totalRows];
+        this.lineIndex = new int[totalRows];
 
-        blockSet(0, 0, columns, screenRows, ' ', TextStyle.NORMAL);
+        blockSet(0, 0, columns, screenRows, ' ', style);
     }
 
     public String getTranscriptText() {
-        return getSelectedText(0, -getActiveTranscriptRows(), columns, screenRows).trim();
+        rewrapHistory();
+        return getSelectedText(0, -getActiveTranscriptRows() - getArchivedRows(), columns, screenRows).trim();
     }
 
     public String getSelectedText(int selX1, int selY1, int selX2, int selY2) {
         final StringBuilder builder = new StringBuilder();
-        final int columns = this.columns;
 
-        if (selY1 < -getActiveTranscriptRows()) selY1 = -getActiveTranscriptRows();
+        if (selY1 < -getActiveTranscriptRows() - getArchivedRows()) selY1 = -getActiveTranscriptRows() - getArchivedRows();
         if (selY2 >= screenRows) selY2 = screenRows - 1;
 
         for (int row = selY1; row <= selY2; row++) {
-            int x1 = (row == selY1) ? selX1 : 0;
+            TerminalRow lineObject = getRowAt(row);
+            // Archived rows keep the number of columns they had:
+            final int columns = lineObject.getColumns();
+            int x1 = (row == selY1) ? Math.min(selX1, columns) : 0;
             int x2;
             if (row == selY2) {
                 x2 = selX2 + 1;
@@ -55,9 +122,8 @@ public final class TerminalBuffer {
             } else {
                 x2 = columns;
             }
-            TerminalRow lineObject = rows[externalToInternalRow(row)];
             int x1Index = lineObject.findStartOfColumn(x1);
-            int x2Index = (x2 < this.columns) ? lineObject.findStartOfColumn(x2) : lineObject.getSpaceUsed();
+            int x2Index = (x2 < columns) ? lineObject.findStartOfColumn(x2) : lineObject.getSpaceUsed();
             if (x2Index == x1Index) {
                 // Selected the start of a wide character.
                 x2Index = lineObject.findStartOfColumn(x2 + 1);
@@ -65,7 +131,7 @@ public final class TerminalBuffer {
             char[] line = lineObject.text;
             int lastPrintingCharIndex = -1;
             int i;
-            boolean rowLineWrap = getLineWrap(row);
+            boolean rowLineWrap = lineObject.lineWrap;
             if (rowLineWrap && x2 == columns) {
                 // If the line was wrapped, we shouldn't lose trailing space:
                 lastPrintingCharIndex = x2Index - 1;
@@ -86,10 +152,265 @@ public final class TerminalBuffer {
         return activeTranscriptRows;
     }
 
+    /**
+     * A number which changes whenever the rows of this buffer are laid out anew, by a resize or by restoring a snapshot,
+     * after which anything remembered about rows by their position should be forgotten. Rows which merely change are
+     * told apart by {@link TerminalRow#getVersion()}.
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
     public int getActiveRows() {
         return activeTranscriptRows + screenRows;
     }
 
+    /**
+     * Keep rows evicted from the history in a {@link TerminalArchive} instead of dropping them, so that the history is
+     * effectively unlimited. Archived rows come before the history, see {@link #getRowAt(int)}, and are included by
+     * {@link #getSelectedText(int, int, int, int)} and {@link #findText(String, int, boolean)}. They are not rewrapped
+     * when the number of columns changes, and not included in snapshots.
+     *
+     * @param heapBytes the most bytes of compressed rows to keep on the heap before moving the oldest of them to a
+     *                  temporary file.
+     * @param directory where to create the temporary file, or null for the default temporary directory.
+     */
+    public void enableArchive(long heapBytes, File directory) {
+        closeArchive();
+        archive = new TerminalArchive(heapBytes, directory);
+    }
+
+    /** Stop archiving rows evicted from the history, dropping those archived and deleting any temporary file. */
+    public void closeArchive() {
+        if (archive != null) {
+            archive.close();
+            archive = null;
+        }
+    }
+
+    /** The number of archived rows, which come before the history. See {@link #enableArchive(long, File)}. */
+    public int getArchivedRows() {
+        return (archive == null) ? 0 : archive.getRowCount();
+    }
+
+    /** The estimated bytes of archived rows moved to disk. */
+    public long getArchiveDiskBytes() {
+        return (archive == null) ? 0 : archive.getDiskBytes();
+    }
+
+    /**
+     * Get a row by its external row number, which includes the archive before the history from
+     * -{@link #getActiveTranscriptRows()} - {@link #getArchivedRows()}. Archived rows must not be changed, and may have
+     * another number of columns than the screen.
+     */
+    public TerminalRow getRowAt(int externalRow) {
+        if (externalRow < -activeTranscriptRows) {
+            int index = getArchivedRows() + activeTranscriptRows + externalRow;
+            if (index < 0)
+                throw new IllegalArgumentException("extRow=" + externalRow + ", activeTranscriptRows=" + activeTranscriptRows + ", archivedRows=" + getArchivedRows());
+            return archive.getRow(index);
+        }
+        return rows[externalToInternalRow(externalRow)];
+    }
+
+    /**
+     * Search for text in the logical lines of the screen, the history and the archive.
+     *
+     * @param text      the text to find, which may span rows joined by line wrapping.
+     * @param fromRow   a row in the logical line to start after, which is not itself searched.
+     * @param backwards if to search towards older rows instead of newer.
+     * @return the first row of the nearest logical line containing the text, or {@link #NOT_FOUND}.
+     */
+    public int findText(String text, int fromRow, boolean backwards) {
+        final int firstRow = -activeTranscriptRows - getArchivedRows();
+        int start = fromRow, end = fromRow;
+        while (start > firstRow && getRowAt(start - 1).lineWrap)
+            start--;
+        while (end < screenRows - 1 && getRowAt(end).lineWrap)
+            end++;
+        while (true) {
+            if (backwards) {
+                if (start == firstRow) return NOT_FOUND;
+                start = end = start - 1;
+                while (start > firstRow && getRowAt(start - 1).lineWrap)
+                    start--;
+            } else {
+                if (end >= screenRows - 1) return NOT_FOUND;
+                start = end = end + 1;
+                while (end < screenRows - 1 && getRowAt(end).lineWrap)
+                    end++;
+            }
+            if (getSelectedText(0, start, Integer.MAX_VALUE - 1, end).contains(text)) return start;
+        }
+    }
+
+    /** Add a row evicted from the history to the archive, which must be enabled. */
+    private void archiveRow(TerminalRow row) {
+        archive.add(row == null ? new TerminalRow(columns, TextStyle.NORMAL) : row);
+    }
+
+    /**
+     * Limit the estimated heap bytes used by history rows, evicting the oldest rows as needed to stay within it. This
+     * applies in addition to the number of rows the buffer was created with, so that the memory used by a session is
+     * bounded regardless of how wide its rows are.
+     *
+     * @param bytes the budget in bytes, or {@link Long#MAX_VALUE} for no limit.
+     */
+    public void setHistoryBudget(long bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("Negative history budget: " + bytes);
+        historyBudget = bytes;
+        trimHistoryToBudget();
+    }
+
+    /**
+     * Store consecutive equal rows in the history once, as output repeating the same line does, by letting each slot of
+     * such a run in the circular buffer refer to the first row of the run. The repeated rows still have row numbers of
+     * their own, and their heap bytes are only counted for the first. Rows are matched by {@link TerminalRow#getHash()}
+     * and then compared, which costs a pass over each row as it enters the history. Rows already in the history stay as
+     * they are when turned on or off.
+     */
+    public void setHistoryDeduplication(boolean enabled) {
+        deduplicateHistory = enabled;
+    }
+
+    public boolean isHistoryDeduplicated() {
+        return deduplicateHistory;
+    }
+
+    public long getHistoryBudget() {
+        return historyBudget;
+    }
+
+    /** The estimated heap bytes used by history rows. See {@link #setHistoryBudget(long)}. */
+    public long getHistoryBytes() {
+        return historyBytes;
+    }
+
+    /**
+     * Evict the oldest history rows, to the archive if enabled, until they use at most the specified number of bytes.
+     * Unlike {@link #setHistoryBudget(long)} this does not stop the history from growing again. Released rows kept for
+     * reuse are dropped as well.
+     *
+     * @return the number of bytes freed.
+     */
+    public long trimHistory(long maxBytes) {
+        long freed = evictHistoryDownTo(maxBytes);
+        for (TerminalRow row : rowPool)
+            freed += row.estimateHeapBytes();
+        rowPool.clear();
+        return freed;
+    }
+
+    /** Evict the oldest history rows until they use at most the specified number of bytes, returning the bytes freed. */
+    private long evictHistoryDownTo(long maxBytes) {
+        long before = historyBytes;
+        while (historyBytes > maxBytes && activeTranscriptRows > 0)
+            evictOldestHistoryRow(true);
+        return before - historyBytes;
+    }
+
+    /**
+     * Estimate the heap bytes used by this buffer, which is the history rows, the screen rows, the circular buffer
+     * itself, the style and hyperlink tables and the part of any archive on the heap, as laid out by a 64-bit JVM with
+     * compressed object pointers.
+     */
+    public long getHeapBytes() {
+        long bytes = historyBytes + TerminalRow.arrayBytes(4L * rows.length) + TerminalRow.arrayBytes(4L * lineIndex.length);
+        bytes += styleTable.estimateHeapBytes() + linkTable.estimateHeapBytes();
+        if (pendingReflow != null) bytes += TerminalRow.arrayBytes(4L * pendingReflow.length);
+        if (archive != null) bytes += archive.getHeapBytes();
+        for (TerminalRow row : rowPool)
+            bytes += row.estimateHeapBytes();
+        for (int row = 0; row < screenRows; row++) {
+            TerminalRow line = rows[slotOf(row)];
+            if (line != null) bytes += line.estimateHeapBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Add a row which has entered the history to {@link #historyBytes}, unless it is the row before it. If deduplicating
+     * and equal to the row before it, it is replaced by that row instead.
+     */
+    private void countHistoryRow(int externalRow) {
+        int slot = slotOf(externalRow);
+        TerminalRow row = rows[slot];
+        if (row == null) return;
+        TerminalRow previous = previousHistoryRow(externalRow);
+        if (row == previous) return;
+        if (deduplicateHistory && previous != null && previous.getColumns() == row.getColumns() && row.contentEquals(previous)) {
+            rows[slot] = previous;
+            releaseRow(row);
+            return;
+        }
+        historyBytes += row.estimateHeapBytes();
+    }
+
+    /** The row before a history row, or null if it is the oldest or not yet rewrapped. */
+    private TerminalRow previousHistoryRow(int externalRow) {
+        int previous = externalRow - 1;
+        return (previous < -activeTranscriptRows || isPendingReflow(previous)) ? null : rows[slotOf(previous)];
+    }
+
+    /**
+     * Remove a history row which is now on the screen from {@link #historyBytes}, giving it a copy of its own if it is
+     * shared with the row before it, since screen rows change.
+     */
+    private void uncountHistoryRow(int externalRow) {
+        int slot = slotOf(externalRow);
+        TerminalRow row = rows[slot];
+        if (row == null || isPendingReflow(externalRow)) return;
+        if (row == previousHistoryRow(externalRow)) {
+            rows[slot] = obtainRow(TextStyle.NORMAL);
+            rows[slot].copyFrom(row);
+        } else {
+            historyBytes -= row.estimateHeapBytes();
+        }
+    }
+
+    /** Drop the oldest history rows until within {@link #historyBudget}. */
+    private void trimHistoryToBudget() {
+        evictHistoryDownTo(historyBudget);
+    }
+
+    /**
+     * Drop the oldest history row, or move it to the archive if enabled. Archived rows keep their text and styles but
+     * not their hyperlinks.
+     *
+     * @param release if to also release the row, instead of leaving it for reuse.
+     */
+    private void evictOldestHistoryRow(boolean release) {
+        int slot = slotOf(-activeTranscriptRows);
+        if (archive != null) {
+            if (pendingReflow != null && pendingReflow[slot] != null) rewrapSegment(pendingReflow[slot]);
+            archiveRow(rows[slot]);
+            // The row now belongs to the archive, so cannot be reused:
+            release = true;
+        }
+        evictFromLineIndex();
+        if (pendingReflow != null && pendingReflow[slot] != null) {
+            evictFromSegment(slot);
+        } else if (rows[slot] != null) {
+            int next = -activeTranscriptRows + 1;
+            if (next < 0 && !isPendingReflow(next) && rows[slotOf(next)] == rows[slot]) {
+                // Shared with the next row, which now counts it, so must neither be released nor reused:
+                rows[slot] = null;
+            } else {
+                historyBytes -= rows[slot].estimateHeapBytes();
+            }
+            if (release && rows[slot] != null) {
+                // Not referenced from elsewhere unless archived, so can be reused:
+                if (archive == null) {
+                    releaseRow(rows[slot]);
+                } else {
+                    rows[slot].releaseLinks();
+                }
+                rows[slot] = null;
+            }
+        }
+        activeTranscriptRows--;
+    }
+
     /**
      * Convert a row value from the public external coordinate system to our internal private coordinate system.
      *
@@ -114,12 +435,15 @@ public final class TerminalBuffer {
     public int externalToInternalRow(int externalRow) {
         if (externalRow < -activeTranscriptRows || externalRow > screenRows)
             throw new IllegalArgumentException("extRow=" + externalRow + ", screenRows=" + screenRows + ", activeTranscriptRows=" + activeTranscriptRows);
-        final int internalRow = screenFirstRow + externalRow;
-        return (internalRow < 0) ? (totalRows + internalRow) : (internalRow % totalRows);
+        int internalRow = screenFirstRow + externalRow;
+        internalRow = (internalRow < 0) ? (totalRows + internalRow) : (internalRow % totalRows);
+        // The row after the screen is only used internally when scrolling, see scrollDownOneLine():
+        if (pendingReflow != null && pendingReflow[internalRow] != null && externalRow < screenRows) rewrapSegment(pendingReflow[internalRow]);
+        return internalRow;
     }
 
     public void setLineWrap(int row) {
-        rows[externalToInternalRow(row)].lineWrap = true;
+        rows[externalToInternalRow(row)].setLineWrap(true);
     }
 
     public boolean getLineWrap(int row) {
@@ -127,18 +451,95 @@ public final class TerminalBuffer {
     }
 
     public void clearLineWrap(int row) {
-        rows[externalToInternalRow(row)].lineWrap = false;
+        rows[externalToInternalRow(row)].setLineWrap(false);
     }
 
     /**
-     * Resize the screen which this transcript backs. Currently, this only works if the number of columns does not
-     * change or the rows expand (that is, it only works when shrinking the number of rows).
+     * Get the first row of the logical line containing a row, a logical line being a sequence of rows joined by line
+     * wrapping. This takes constant time for rows in the history, which may be large, while rows on the screen are
+     * scanned.
+     */
+    public int getLogicalLineStart(int externalRow) {
+        if (externalRow < -activeTranscriptRows || externalRow >= screenRows)
+            throw new IllegalArgumentException("extRow=" + externalRow + ", screenRows=" + screenRows + ", activeTranscriptRows=" + activeTranscriptRows);
+        int row = externalRow;
+        while (row > 0 && wrapsOntoNextRow(row - 1))
+            row--;
+        if (row == 0 && activeTranscriptRows > 0 && wrapsOntoNextRow(-1)) row = -1;
+        if (row < 0) row = Math.max(-activeTranscriptRows, row - Math.max(0, lineIndex[externalToInternalRow(row)]));
+        return row;
+    }
+
+    /** Get the last row of the logical line containing a row. See {@link #getLogicalLineStart(int)}. */
+    public int getLogicalLineEnd(int externalRow) {
+        int row = externalRow;
+        if (row < 0) {
+            int start = getLogicalLineStart(row);
+            int entry = lineIndex[externalToInternalRow(start)];
+            if (entry < 0) return start - entry - 1;
+            // Still open, so the line continues to the newest history row and possibly onto the screen:
+            row = -1;
+        } else if (row >= screenRows) {
+            throw new IllegalArgumentException("extRow=" + externalRow + ", screenRows=" + screenRows);
+        }
+        while (row < screenRows - 1 && wrapsOntoNextRow(row))
+            row++;
+        return row;
+    }
+
+    private boolean wrapsOntoNextRow(int externalRow) {
+        TerminalRow row = rows[externalToInternalRow(externalRow)];
+        return row != null && row.lineWrap;
+    }
+
+    /** The index in {@link #rows} of a row, without rewrapping it as {@link #externalToInternalRow(int)} does. */
+    private int slotOf(int externalRow) {
+        return (screenFirstRow + externalRow + totalRows) % totalRows;
+    }
+
+    private boolean isPendingReflow(int externalRow) {
+        return pendingReflow != null && pendingReflow[slotOf(externalRow)] != null;
+    }
+
+    /**
+     * Add a history row to {@link #lineIndex}, after the row before it which must already be indexed unless not yet
+     * rewrapped. A {@link TerminalReflow.Segment} always ends with a complete logical line, so a row after one starts a
+     * new line.
+     */
+    private void indexHistoryRow(int externalRow) {
+        int slot = slotOf(externalRow);
+        int previous = externalRow - 1;
+        TerminalRow previousRow = (previous < -activeTranscriptRows || isPendingReflow(previous)) ? null : rows[slotOf(previous)];
+        lineIndex[slot] = (previousRow != null && previousRow.lineWrap) ? Math.max(0, lineIndex[slotOf(previous)]) + 1 : 0;
+        if (rows[slot] == null || !rows[slot].lineWrap) {
+            // The logical line is complete, record its length at its first row:
+            int start = Math.max(-activeTranscriptRows, externalRow - lineIndex[slot]);
+            lineIndex[slotOf(start)] = start - externalRow - 1;
+        }
+    }
+
+    /** Update {@link #lineIndex} for the oldest history row being dropped, so that the row after it starts a line. */
+    private void evictFromLineIndex() {
+        int oldest = -activeTranscriptRows;
+        if (oldest + 1 >= 0 || isPendingReflow(oldest) || isPendingReflow(oldest + 1)) return;
+        int next = slotOf(oldest + 1);
+        if (lineIndex[next] > 0) lineIndex[next] = Math.min(0, lineIndex[slotOf(oldest)] + 1);
+    }
+
+    /**
+     * Resize the screen which this transcript backs.
+     * <p>
+     * If the number of columns changes the text is rewrapped, see {@link #reflow(int, int, int, int[], long)}.
      *
      * @param newColumns The number of columns the screen should have.
      * @param newRows    The number of rows the screen should have.
      * @param cursor     An int[2] containing the (column, row) cursor location.
      */
     public void resize(int newColumns, int newRows, int newTotalRows, int[] cursor, long currentStyle, boolean altScreen) {
+        Object event = TerminalEvents.beginResize();
+        epoch++;
+        final int oldColumns = columns, oldRows = screenRows;
+        int reflowedRows = 0;
         // newRows > totalRows should not normally happen since totalRows is TRANSCRIPT_ROWS (10000):
         if (newColumns == columns && newRows <= totalRows) {
             // Fast resize where just the rows changed.
@@ -161,6 +562,9 @@ public final class TerminalBuffer {
                         allocateFullLineIfNecessary((screenFirstRow + screenRows + i) % totalRows).clear(currentStyle);
                     shiftDownOfTopRow = actualShift;
                 }
+                // Rows not yet rewrapped are no longer counted when rewrapped onto the screen below:
+                for (int row = -1; row >= shiftDownOfTopRow; row--)
+                    uncountHistoryRow(row);
             }
             screenFirstRow += shiftDownOfTopRow;
             screenFirstRow = (screenFirstRow < 0) ? (screenFirstRow + totalRows) : (screenFirstRow % totalRows);
@@ -168,127 +572,289 @@ public final class TerminalBuffer {
             activeTranscriptRows = altScreen ? 0 : Math.max(0, activeTranscriptRows + shiftDownOfTopRow);
             cursor[1] -= shiftDownOfTopRow;
             screenRows = newRows;
-        } else {
-            // Copy away old state and update new:
-            TerminalRow[] oldLines = rows;
-            rows = new TerminalRow[newTotalRows];
-            for (int i = 0; i < newTotalRows; i++)
-                rows[i] = new TerminalRow(newColumns, currentStyle);
-
-            final int oldActiveTranscriptRows = activeTranscriptRows;
-            final int oldScreenFirstRow = screenFirstRow;
-            final int oldScreenRows = screenRows;
-            final int oldTotalRows = totalRows;
-            totalRows = newTotalRows;
-            screenRows = newRows;
-            activeTranscriptRows = screenFirstRow = 0;
-            columns = newColumns;
-
-            int newCursorRow = -1;
-            int newCursorColumn = -1;
-            int oldCursorRow = cursor[1];
-            int oldCursorColumn = cursor[0];
-            boolean newCursorPlaced = false;
-
-            int currentOutputExternalRow = 0;
-            int currentOutputExternalColumn = 0;
-
-            // Loop over every character in the initial state.
-            // Blank rows should be skipped only if at end of transcript (just as is done in the "fast" resize), so we
-            // keep track how many blank rows we have skipped if we later on find a non-blank line.
-            int skippedBlankLines = 0;
-            for (int externalOldRow = -oldActiveTranscriptRows; externalOldRow < oldScreenRows; externalOldRow++) {
-                // Do what externalToInternalRow() does but for the old state:
-                int internalOldRow = oldScreenFirstRow + externalOldRow;
-                internalOldRow = (internalOldRow < 0) ? (oldTotalRows + internalOldRow) : (internalOldRow % oldTotalRows);
-
-                TerminalRow oldLine = oldLines[internalOldRow];
-                boolean cursorAtThisRow = externalOldRow == oldCursorRow;
-                // The cursor may only be on a non-null line, which we should not skip:
-                if (oldLine == null || (!(!newCursorPlaced && cursorAtThisRow)) && oldLine.isBlank()) {
-                    skippedBlankLines++;
-                    continue;
-                } else if (skippedBlankLines > 0) {
-                    // After skipping some blank rows we encounter a non-blank line. Insert the skipped blank rows.
-                    for (int i = 0; i < skippedBlankLines; i++) {
-                        if (currentOutputExternalRow == screenRows - 1) {
-                            scrollDownOneLine(0, screenRows, currentStyle);
-                        } else {
-                            currentOutputExternalRow++;
-                        }
-                        currentOutputExternalColumn = 0;
-                    }
-                    skippedBlankLines = 0;
+            if (pendingReflow != null) {
+                // Rows revealed from the history when expanding are to be rewrapped now:
+                for (int i = 0; i < screenRows; i++)
+                    externalToInternalRow(i);
+            }
+            if (shiftDownOfTopRow > 0) {
+                for (int row = Math.max(-activeTranscriptRows, -shiftDownOfTopRow); row < 0; row++) {
+                    indexHistoryRow(row);
+                    countHistoryRow(row);
                 }
+                trimHistoryToBudget();
+            } else if (shiftDownOfTopRow < 0 && activeTranscriptRows > 0 && wrapsOntoNextRow(-1)) {
+                // The newest logical line in the history now continues onto the screen, where it may still change:
+                lineIndex[slotOf(getLogicalLineStart(-1))] = 0;
+            }
+        } else {
+            reflowedRows = reflow(newColumns, newRows, newTotalRows, cursor, currentStyle);
+        }
+
+        // Handle cursor scrolling off screen:
+        if (cursor[0] < 0 || cursor[1] < 0) cursor[0] = cursor[1] = 0;
+        compactStyleTable(true);
+
+        TerminalEvents.commitResize(event, oldColumns, oldRows, newColumns, newRows, reflowedRows);
+    }
 
-                int lastNonSpaceIndex = 0;
-                boolean justToCursor = false;
-                if (cursorAtThisRow || oldLine.lineWrap) {
-                    // Take the whole line, either because of cursor on it, or if line wrapping.
-                    lastNonSpaceIndex = oldLine.getSpaceUsed();
-                    if (cursorAtThisRow) justToCursor = true;
+    /**
+     * Rewrap all text to a new number of columns.
+     * <p>
+     * Only the rows needed for the screen are rewrapped immediately. For the rest of the history it is just counted how
+     * many rows each logical line will need, and the rows are rewrapped a {@link TerminalReflow.Segment} at a time when
+     * first accessed through {@link #externalToInternalRow(int)}. Segments not yet rewrapped are carried over to the
+     * next resize, so that repeated resizing, as when dragging a window edge, stays cheap with a large history.
+     *
+     * @return the number of rows rewrapped right away.
+     */
+    private int reflow(int newColumns, int newRows, int newTotalRows, int[] cursor, long currentStyle) {
+        // Collect the rows oldest first, with the source rows of segments still not rewrapped from a previous resize:
+        // together with the index of the first row of the logical line each row is part of:
+        ArrayList<TerminalRow> oldRows = new ArrayList<>(getActiveRows());
+        int[] lineStarts = new int[getActiveRows()];
+        TerminalReflow.Segment previousSegment = null;
+        for (int externalRow = -activeTranscriptRows; externalRow < screenRows; externalRow++) {
+            int internalRow = (screenFirstRow + externalRow + totalRows) % totalRows;
+            TerminalReflow.Segment segment = (pendingReflow == null) ? null : pendingReflow[internalRow];
+            if (segment != null && segment.skip > 0) {
+                // The oldest segment may have been partly scrolled out of history, so rewrap it to not bring that back:
+                rewrapSegment(segment);
+                segment = null;
+            }
+            if (segment == null) {
+                if (lineStarts.length == oldRows.size()) lineStarts = Arrays.copyOf(lineStarts, 2 * oldRows.size());
+                if (externalRow < 0) {
+                    int lineStart = Math.max(-activeTranscriptRows, externalRow - Math.max(0, lineIndex[internalRow]));
+                    lineStarts[oldRows.size()] = oldRows.size() - (externalRow - lineStart);
                 } else {
-                    for (int i = 0; i < oldLine.getSpaceUsed(); i++)
-                        // NEWLY INTRODUCED BUG! Should not index oldLine.style with char indices
-                        if (oldLine.text[i] != ' '/* || oldLine.style[i] != currentStyle */)
-                            lastNonSpaceIndex = i + 1;
+                    lineStarts[oldRows.size()] = TerminalReflow.startOfLogicalLine(oldRows, lineStarts);
+                }
+                oldRows.add(rows[internalRow]);
+            } else if (segment != previousSegment) {
+                for (TerminalRow sourceRow : segment.source) {
+                    if (lineStarts.length == oldRows.size()) lineStarts = Arrays.copyOf(lineStarts, 2 * oldRows.size());
+                    lineStarts[oldRows.size()] = TerminalReflow.startOfLogicalLine(oldRows, lineStarts);
+                    oldRows.add(sourceRow);
                 }
+                previousSegment = segment;
+            }
+        }
+        final TerminalRow[] source = oldRows.toArray(new TerminalRow[0]);
+        final int cursorIndex = source.length - screenRows + cursor[1];
 
-                int currentOldCol = 0;
-                long styleAtCol = 0;
-                for (int i = 0; i < lastNonSpaceIndex; i++) {
-                    // Note that looping over java character, not cells.
-                    char c = oldLine.text[i];
-                    int codePoint = (Character.isHighSurrogate(c)) ? Character.toCodePoint(c, oldLine.text[++i]) : c;
-                    int displayWidth = WcWidth.width(codePoint);
-                    // Use the last style if this is a zero-width character:
-                    if (displayWidth > 0) styleAtCol = oldLine.getStyle(currentOldCol);
-
-                    // Line wrap as necessary:
-                    if (currentOutputExternalColumn + displayWidth > columns) {
-                        setLineWrap(currentOutputExternalRow);
-                        if (currentOutputExternalRow == screenRows - 1) {
-                            if (newCursorPlaced) newCursorRow--;
-                            scrollDownOneLine(0, screenRows, currentStyle);
-                        } else {
-                            currentOutputExternalRow++;
-                        }
-                        currentOutputExternalColumn = 0;
-                    }
+        // Rewrap from the start of a logical line early enough to fill the new screen, which as a whole then comes
+        // from text rewrapped now:
+        int eagerStart = cursorIndex;
+        for (int rowsBeforeCursor = 0; eagerStart > 0 && rowsBeforeCursor < newRows; ) {
+            int lineStart = TerminalReflow.startOfLogicalLineBefore(source, lineStarts, eagerStart);
+            rowsBeforeCursor += TerminalReflow.countRows(source, lineStart, eagerStart, newColumns);
+            eagerStart = lineStart;
+        }
+        TerminalReflow eager = new TerminalReflow(newColumns, currentStyle, true);
+        for (int i = eagerStart; i < source.length; i++)
+            eager.addRow(source[i], i == source.length - 1, i == cursorIndex ? cursor[0] : -1);
+        final int eagerRows = eager.currentRow + 1;
 
-                    int offsetDueToCombiningChar = ((displayWidth <= 0 && currentOutputExternalColumn > 0) ? 1 : 0);
-                    int outputColumn = currentOutputExternalColumn - offsetDueToCombiningChar;
-                    setChar(outputColumn, currentOutputExternalRow, codePoint, styleAtCol);
-
-                    if (displayWidth > 0) {
-                        if (oldCursorRow == externalOldRow && oldCursorColumn == currentOldCol) {
-                            newCursorColumn = currentOutputExternalColumn;
-                            newCursorRow = currentOutputExternalRow;
-                            newCursorPlaced = true;
-                        }
-                        currentOldCol += displayWidth;
-                        currentOutputExternalColumn += displayWidth;
-                        if (justToCursor && newCursorPlaced) break;
-                    }
-                }
-                // Old row has been copied. Check if we need to insert newline if old line was not wrapping:
-                if (externalOldRow != (oldScreenRows - 1) && !oldLine.lineWrap) {
-                    if (currentOutputExternalRow == screenRows - 1) {
-                        if (newCursorPlaced) newCursorRow--;
-                        scrollDownOneLine(0, screenRows, currentStyle);
-                    } else {
-                        currentOutputExternalRow++;
-                    }
-                    currentOutputExternalColumn = 0;
+        // Split the history before that into segments, newest first, until enough rows to fill the new history:
+        ArrayList<TerminalReflow.Segment> segments = new ArrayList<>();
+        int historyRows = 0;
+        // Ends up as the start of the oldest segment:
+        int end = eagerStart;
+        while (end > 0 && historyRows < newTotalRows - eagerRows) {
+            int start = end;
+            int segmentRows = 0;
+            do {
+                int lineStart = TerminalReflow.startOfLogicalLineBefore(source, lineStarts, start);
+                segmentRows += TerminalReflow.countRows(source, lineStart, start, newColumns);
+                start = lineStart;
+            } while (start > 0 && segmentRows < TerminalReflow.SEGMENT_ROWS);
+            TerminalReflow.Segment segment = new TerminalReflow.Segment(source, start, end, segmentRows, currentStyle);
+            unshareSegmentEnds(segment, start == 0 ? null : source[start - 1], source[end]);
+            segments.add(segment);
+            historyRows += segmentRows;
+            end = start;
+        }
+
+        // Lay out the output, with the oldest kept row first in the new circular buffer:
+        final int outputRows = historyRows + eagerRows;
+        final int firstScreenRow = Math.max(0, outputRows - newRows);
+        final int newActiveTranscriptRows = Math.max(0, Math.min(firstScreenRow, newTotalRows - newRows));
+        final int firstKeptRow = firstScreenRow - newActiveTranscriptRows;
+
+        // Rows outside of the active ones, such as rows left below a screen made shorter, are dropped with their links:
+        for (int row = screenRows; row < totalRows - activeTranscriptRows; row++) {
+            TerminalRow unused = rows[(screenFirstRow + row) % totalRows];
+            if (unused != null) unused.releaseLinks();
+        }
+        rows = new TerminalRow[newTotalRows];
+        lineIndex = new int[newTotalRows];
+        historyBytes = 0;
+        pendingReflow = null;
+        pendingReflowSegments = 0;
+        columns = newColumns;
+        totalRows = newTotalRows;
+        screenRows = newRows;
+        activeTranscriptRows = newActiveTranscriptRows;
+        screenFirstRow = newActiveTranscriptRows % newTotalRows;
+
+        for (int i = Math.max(0, firstKeptRow - historyRows); i < eagerRows; i++) {
+            TerminalRow row = eager.outputRow(i);
+            row.useStyleTable(styleTable);
+            row.useLinkTable(linkTable);
+            rows[(historyRows + i - firstKeptRow) % newTotalRows] = row;
+        }
+        for (int i = outputRows - firstKeptRow; i < newActiveTranscriptRows + newRows; i++)
+            rows[i % newTotalRows] = obtainRow(currentStyle);
+
+        int segmentStart = historyRows;
+        for (TerminalReflow.Segment segment : segments) {
+            segmentStart -= segment.rowCount;
+            segment.skip = Math.max(0, firstKeptRow - segmentStart);
+            if (segment.skip >= segment.rowCount) {
+                releaseLinks(segment.source, 0, segment.source.length);
+                continue;
+            }
+            segment.firstSlot = segmentStart + segment.skip - firstKeptRow;
+            if (pendingReflow == null) pendingReflow = new TerminalReflow.Segment[newTotalRows];
+            for (int i = segment.skip; i < segment.rowCount; i++)
+                pendingReflow[segment.firstSlot + i - segment.skip] = segment;
+            pendingReflowSegments++;
+            historyBytes += segment.sourceBytes;
+        }
+        // The source rows of kept segments hold on to their hyperlinks until rewrapped, unlike the rest:
+        releaseLinks(source, 0, end);
+        releaseLinks(source, eagerStart, source.length);
+        for (int row = Math.max(-newActiveTranscriptRows, historyRows - firstScreenRow); row < 0; row++) {
+            indexHistoryRow(row);
+            countHistoryRow(row);
+        }
+
+        if (archive != null) {
+            // Archive what does not fit, oldest first. Rows before the segments are kept as they are, since rewrapping
+            // all of those could take long, while rows dropped from segments and the screen are kept rewrapped:
+            for (int i = 0; i < end; i++)
+                archiveRow(source[i]);
+            segmentStart = 0;
+            for (int i = segments.size() - 1; i >= 0; i--) {
+                TerminalReflow.Segment segment = segments.get(i);
+                int skip = Math.max(0, firstKeptRow - segmentStart);
+                if (skip >= segment.rowCount) {
+                    for (TerminalRow row : segment.source)
+                        archiveRow(row);
+                } else if (skip > 0) {
+                    TerminalRow[] rewrapped = segment.rewrap(newColumns);
+                    for (int j = 0; j < skip; j++)
+                        archiveRow(rewrapped[j]);
+                    placeSegment(segment, rewrapped);
                 }
+                segmentStart += segment.rowCount;
             }
+            for (int i = 0; i < firstKeptRow - historyRows; i++)
+                archiveRow(eager.outputRow(i));
+        }
 
-            cursor[0] = newCursorColumn;
-            cursor[1] = newCursorRow;
+        if (eager.cursorRow >= 0) {
+            cursor[0] = eager.cursorColumn;
+            cursor[1] = historyRows + eager.cursorRow - firstScreenRow;
+        } else {
+            cursor[0] = cursor[1] = -1;
         }
+        trimHistoryToBudget();
+        return eagerRows;
+    }
 
-        // Handle cursor scrolling off screen:
-        if (cursor[0] < 0 || cursor[1] < 0) cursor[0] = cursor[1] = 0;
+    /**
+     * Rewrap all history not yet rewrapped after the number of columns changed, as is best done before accessing all of
+     * it. Logical lines, and so segments, are independent of each other, so many segments are rewrapped in parallel on
+     * the common {@link ForkJoinPool} and then placed in the circular buffer.
+     */
+    public void rewrapHistory() {
+        if (pendingReflow == null) return;
+        ArrayList<TerminalReflow.Segment> segments = new ArrayList<>(pendingReflowSegments);
+        for (int row = -activeTranscriptRows; row < screenRows; row++) {
+            TerminalReflow.Segment segment = pendingReflow[slotOf(row)];
+            if (segment != null && (segments.isEmpty() || segments.get(segments.size() - 1) != segment)) segments.add(segment);
+        }
+        TerminalRow[][] rewrapped = new TerminalRow[segments.size()][];
+        if (segments.size() < PARALLEL_REWRAP_SEGMENTS) {
+            for (int i = 0; i < rewrapped.length; i++)
+                rewrapped[i] = segments.get(i).rewrap(columns);
+        } else {
+            ForkJoinPool.commonPool().invoke(new TerminalReflow.RewrapTask(segments, rewrapped, columns, 0, rewrapped.length));
+        }
+        // Place the segments oldest first, as the line index of a row refers to the rows before it:
+        for (int i = 0; i < rewrapped.length; i++)
+            placeSegment(segments.get(i), rewrapped[i]);
+    }
+
+    /** Rewrap a segment of history left by {@link #reflow(int, int, int, int[], long)} into its slots. */
+    private void rewrapSegment(TerminalReflow.Segment segment) {
+        placeSegment(segment, segment.rewrap(columns));
+    }
+
+    /** Place the rows of a rewrapped segment into its slots. */
+    private void placeSegment(TerminalReflow.Segment segment, TerminalRow[] newRows) {
+        for (int i = segment.skip; i < segment.rowCount; i++) {
+            int slot = (segment.firstSlot + i - segment.skip) % totalRows;
+            newRows[i].useStyleTable(styleTable);
+            newRows[i].useLinkTable(linkTable);
+            rows[slot] = newRows[i];
+            pendingReflow[slot] = null;
+        }
+        releaseLinks(segment.source, 0, segment.source.length);
+        for (int i = segment.skip; i < segment.rowCount; i++) {
+            // Index the rows which are in the history, which is all of them unless revealed by the screen growing:
+            int row = (segment.firstSlot + i - segment.skip - screenFirstRow + totalRows) % totalRows;
+            if (row >= screenRows) {
+                indexHistoryRow(row - totalRows);
+                countHistoryRow(row - totalRows);
+            }
+        }
+        historyBytes -= segment.sourceBytes;
+        if (--pendingReflowSegments == 0) pendingReflow = null;
+    }
+
+    /** Give up the hyperlinks of rows in a range which are leaving the buffer. */
+    private static void releaseLinks(TerminalRow[] rows, int from, int to) {
+        for (int i = from; i < to; i++)
+            if (rows[i] != null) rows[i].releaseLinks();
+    }
+
+    /**
+     * Give the rows at the ends of a segment which are shared by deduplication with the rows around it copies of their
+     * own if they have hyperlinks, so that the segment can give up the hyperlinks of its source rows on its own.
+     */
+    private void unshareSegmentEnds(TerminalReflow.Segment segment, TerminalRow before, TerminalRow after) {
+        TerminalRow[] source = segment.source;
+        for (int end = 0; end < 2; end++) {
+            TerminalRow neighbour = (end == 0) ? before : after;
+            if (neighbour == null || !neighbour.hasLinks()) continue;
+            TerminalRow copy = null;
+            for (int i = 0; i < source.length; i++) {
+                int index = (end == 0) ? i : source.length - 1 - i;
+                if (source[index] != neighbour) break;
+                if (copy == null) {
+                    copy = new TerminalRow(neighbour.getColumns(), TextStyle.NORMAL, styleTable);
+                    copy.useLinkTable(linkTable);
+                    copy.copyFrom(neighbour);
+                }
+                source[index] = copy;
+            }
+        }
+    }
+
+    /** Drop the oldest history row, which is about to be reused, from a segment not yet rewrapped. */
+    private void evictFromSegment(int slot) {
+        TerminalReflow.Segment segment = pendingReflow[slot];
+        pendingReflow[slot] = null;
+        segment.skip++;
+        segment.firstSlot = (segment.firstSlot + 1) % totalRows;
+        if (segment.skip == segment.rowCount) {
+            releaseLinks(segment.source, 0, segment.source.length);
+            historyBytes -= segment.sourceBytes;
+            if (--pendingReflowSegments == 0) pendingReflow = null;
+        }
     }
 
     /**
@@ -323,6 +889,9 @@ public final class TerminalBuffer {
         if (topMargin > bottomMargin - 1 || topMargin < 0 || bottomMargin > screenRows)
             throw new IllegalArgumentException("topMargin=" + topMargin + ", bottomMargin=" + bottomMargin + ", screenRows=" + screenRows);
 
+        // The oldest history row is reused below if the history is full, no need to rewrap it if not yet done:
+        if (activeTranscriptRows > 0 && activeTranscriptRows == totalRows - screenRows) evictOldestHistoryRow(false);
+
         // Copy the fixed topMargin rows one line down so that they remain on screen in same position:
         blockCopyLinesDown(screenFirstRow, topMargin);
         // Copy the fixed screenRows-bottomMargin rows one line down so that they remain on screen in same
@@ -334,13 +903,22 @@ public final class TerminalBuffer {
         // Note that the history has grown if not already full:
         if (activeTranscriptRows < totalRows - screenRows) activeTranscriptRows++;
 
+        if (activeTranscriptRows > 0) {
+            indexHistoryRow(-1);
+            countHistoryRow(-1);
+            // Before blanking the new row, which can then reuse a row evicted to stay within the budget:
+            trimHistoryToBudget();
+        }
+
         // Blank the newly revealed line above the bottom margin:
         int blankRow = externalToInternalRow(bottomMargin - 1);
         if (rows[blankRow] == null) {
-            rows[blankRow] = new TerminalRow(columns, style);
+            rows[blankRow] = obtainRow(style);
         } else {
             rows[blankRow].clear(style);
         }
+        rowsSinceStyleCompaction++;
+        compactStyleTable(false);
     }
 
     /**
@@ -377,26 +955,113 @@ public final class TerminalBuffer {
             throw new IllegalArgumentException(
                 "Illegal arguments! blockSet(" + sx + ", " + sy + ", " + w + ", " + h + ", " + val + ", " + columns + ", " + screenRows + ")");
         }
+        if (sx == 0 && w == columns && val == ' ') {
+            // Clearing whole rows, as when erasing the screen:
+            for (int y = sy; y < sy + h; y++) {
+                int row = externalToInternalRow(y);
+                if (rows[row] == null) {
+                    rows[row] = obtainRow(style);
+                } else {
+                    rows[row].clear(style);
+                }
+            }
+            rowsSinceStyleCompaction += h;
+            compactStyleTable(false);
+            return;
+        }
         for (int y = 0; y < h; y++)
             for (int x = 0; x < w; x++)
                 setChar(sx + x, sy + y, val, style);
     }
 
     public TerminalRow allocateFullLineIfNecessary(int row) {
-        return (rows[row] == null) ? (rows[row] = new TerminalRow(columns, 0)) : rows[row];
+        return (rows[row] == null) ? (rows[row] = obtainRow(0)) : rows[row];
+    }
+
+    /** Get a cleared row, reusing a released one if possible. */
+    private TerminalRow obtainRow(long style) {
+        TerminalRow row;
+        while ((row = rowPool.poll()) != null) {
+            if (row.getColumns() == columns) {
+                row.clear(style);
+                return row;
+            }
+        }
+        row = new TerminalRow(columns, style, styleTable);
+        row.useLinkTable(linkTable);
+        return row;
+    }
+
+    /**
+     * Replace the style table, if full, with one holding only the styles of the rows in the buffer, so that styles no
+     * longer shown anywhere stop taking up room and rows store indices again instead of full styles. The screen rows
+     * are moved first and then the history, newest first. Rows not moved, such as the source rows of segments not yet
+     * rewrapped, keep using the old table until placed in the buffer. Unless forced, as on resize, this is done at most
+     * once per {@link #totalRows} rows scrolled in or cleared, so that rows actually using that many styles are not
+     * moved over and over.
+     */
+    private void compactStyleTable(boolean force) {
+        if (styleTable.size() < StyleTable.MAX_STYLES || (!force && rowsSinceStyleCompaction < totalRows)) return;
+        rowsSinceStyleCompaction = 0;
+        styleTable = new StyleTable();
+        for (int externalRow = screenRows - 1; externalRow >= -activeTranscriptRows; externalRow--) {
+            TerminalRow row = rows[slotOf(externalRow)];
+            if (row != null) row.useStyleTable(styleTable);
+        }
+        // Released rows would otherwise be cleared into the old table:
+        rowPool.clear();
+    }
+
+    /** Keep a row no longer used for {@link #obtainRow(long)}, if there is room for it, giving up its hyperlinks. */
+    private void releaseRow(TerminalRow row) {
+        row.releaseLinks();
+        if (rowPool.size() < ROW_POOL_SIZE && row.getColumns() == columns) rowPool.push(row);
     }
 
     public void setChar(int column, int row, int codePoint, long style) {
+        setChar(column, row, codePoint, style, 0);
+    }
+
+    /** Set a cell as part of the hyperlink with an id from {@link #obtainHyperlink(String, String)}, or none if 0. */
+    void setChar(int column, int row, int codePoint, long style, int link) {
         if (row >= screenRows || column >= columns)
             throw new IllegalArgumentException("row=" + row + ", column=" + column + ", screenRows=" + screenRows + ", columns=" + columns);
         row = externalToInternalRow(row);
-        allocateFullLineIfNecessary(row).setChar(column, codePoint, style);
+        allocateFullLineIfNecessary(row).setChar(column, codePoint, style, link);
     }
 
     public long getStyleAt(int externalRow, int column) {
         return allocateFullLineIfNecessary(externalToInternalRow(externalRow)).getStyle(column);
     }
 
+    /** The URI of the OSC 8 hyperlink of a cell, or null if it has none. */
+    public String getHyperlinkAt(int externalRow, int column) {
+        TerminalRow row = rows[externalToInternalRow(externalRow)];
+        return (row == null) ? null : linkTable.getUri(row.getLink(column));
+    }
+
+    /** The text of an OSC 8 sequence starting a hyperlink, see {@link HyperlinkTable#getSequenceText(int)}. */
+    String getHyperlinkSequenceText(int id) {
+        return linkTable.getSequenceText(id);
+    }
+
+    /**
+     * Get the id of a hyperlink for {@link #setChar(int, int, int, long, int)}, holding a reference to it until
+     * {@link #releaseHyperlink(int) released}.
+     */
+    int obtainHyperlink(String idParameter, String uri) {
+        return linkTable.obtain(idParameter, uri);
+    }
+
+    void releaseHyperlink(int id) {
+        linkTable.release(id);
+    }
+
+    /** The number of distinct hyperlinks in use. */
+    int getHyperlinkCount() {
+        return linkTable.size();
+    }
+
     /** Support for http://vt100.net/docs/vt510-rm/DECCARA and http://vt100.net/docs/vt510-rm/DECCARA */
     public void setOrClearEffect(int bits, boolean setOrClear, boolean reverse, boolean rectangular, int leftMargin, int rightMargin, int top, int left,
                                  int bottom, int right) {
@@ -417,9 +1082,82 @@ public final class TerminalBuffer {
                 } else {
                     effect &= ~bits;
                 }
-                line.style[x] = TextStyle.encode(foreColor, backColor, effect);
+                line.setStyle(x, TextStyle.encode(foreColor, backColor, effect));
             }
         }
     }
 
+    /**
+     * Write the geometry, the hyperlinks and all active rows, oldest first, to a snapshot. See {@link TerminalSnapshot}.
+     */
+    void writeSnapshot(TerminalSnapshot.Output out) throws IOException {
+        rewrapHistory();
+        out.writeInt(columns);
+        out.writeInt(totalRows);
+        out.writeInt(screenRows);
+        out.writeInt(activeTranscriptRows);
+        linkTable.writeSnapshot(out);
+        for (int row = -activeTranscriptRows; row < screenRows; row++) {
+            TerminalRow line = rows[externalToInternalRow(row)];
+            out.writeBoolean(line != null);
+            if (line != null) {
+                line.writeSnapshot(out);
+                line.writeLinksSnapshot(out);
+            }
+        }
+    }
+
+    /**
+     * Replace the contents of this buffer with a snapshot written by {@link #writeSnapshot(TerminalSnapshot.Output)}.
+     * The rows are laid out from the start of the circular buffer, so that the screen starts at the row after the
+     * transcript.
+     *
+     * @param version the {@link TerminalSnapshot#VERSION} the snapshot was written with. Hyperlinks are read from
+     *                version 3 on.
+     */
+    void readSnapshot(TerminalSnapshot.Input in, int version) throws IOException {
+        int newColumns = in.readInt();
+        int newTotalRows = in.readInt();
+        int newScreenRows = in.readInt();
+        int newActiveTranscriptRows = in.readInt();
+        if (newColumns < 1 || newScreenRows < 1 || newActiveTranscriptRows < 0 || newActiveTranscriptRows + newScreenRows > newTotalRows)
+            throw new IOException("Invalid buffer geometry: columns=" + newColumns + ", totalRows=" + newTotalRows + ", screenRows="
+                + newScreenRows + ", activeTranscriptRows=" + newActiveTranscriptRows);
+
+        // The current rows are replaced, so the styles and links can be too. The new links are held until the rows hold them:
+        styleTable = new StyleTable();
+        rowsSinceStyleCompaction = 0;
+        rowPool.clear();
+        linkTable.clear();
+        int[] linkIds = (version >= 3) ? linkTable.readSnapshot(in) : new int[1];
+        TerminalRow[] newRows = new TerminalRow[newTotalRows];
+        for (int i = 0; i < newActiveTranscriptRows + newScreenRows; i++)
+            if (in.readBoolean()) {
+                newRows[i] = TerminalRow.readSnapshot(in, newColumns);
+                if (version >= 3) newRows[i].readLinksSnapshot(in, linkIds);
+                newRows[i].useStyleTable(styleTable);
+                newRows[i].useLinkTable(linkTable);
+            }
+        for (int id : linkIds)
+            linkTable.release(id);
+
+        rows = newRows;
+        lineIndex = new int[newTotalRows];
+        historyBytes = 0;
+        epoch++;
+        if (archive != null) archive.clear();
+        pendingReflow = null;
+        pendingReflowSegments = 0;
+        columns = newColumns;
+        totalRows = newTotalRows;
+        screenRows = newScreenRows;
+        activeTranscriptRows = newActiveTranscriptRows;
+        screenFirstRow = newActiveTranscriptRows % newTotalRows;
+        for (int row = -activeTranscriptRows; row < 0; row++) {
+            indexHistoryRow(row);
+            countHistoryRow(row);
+        }
+        trimHistoryToBudget();
+    }
+
 }
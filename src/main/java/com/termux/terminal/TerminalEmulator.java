@@ -1,8 +1,11 @@
 package com.termux.terminal;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An abstract terminal emulator which aims to be xterm compatible where it makes sense (for features used by modern
@@ -23,9 +26,6 @@ import java.util.*;
  */
 public final class TerminalEmulator {
 
-    /** Log unknown or unimplemented escape sequences received from the shell process. */
-    private static final boolean LOG_ESCAPE_SEQUENCES = false;
-
     /** Parameter to {@link #sendMouseEvent(int, int, int, boolean)} for when the left mouse button has been pressed. */
     public static final int MOUSE_LEFT_BUTTON_PRESSED = 0;
 
@@ -74,6 +74,32 @@ public final class TerminalEmulator {
     /** Escape processing: CSI ! */
     private static final int ESC_CSI_EXCLAMATION = 19;
 
+    /** A name for an escape processing state, as shown by {@link TerminalTrace#dump(Appendable)}. */
+    static String escapeStateName(int state) {
+        switch (state) {
+            case ESC_NONE: return "NONE";
+            case ESC: return "ESC";
+            case ESC_POUND: return "ESC_POUND";
+            case ESC_SELECT_LEFT_PAREN: return "ESC_SELECT_LEFT_PAREN";
+            case ESC_SELECT_RIGHT_PAREN: return "ESC_SELECT_RIGHT_PAREN";
+            case ESC_CSI: return "CSI";
+            case ESC_CSI_QUESTIONMARK: return "CSI_QUESTIONMARK";
+            case ESC_CSI_DOLLAR: return "CSI_DOLLAR";
+            case ESC_PERCENT: return "ESC_PERCENT";
+            case ESC_OSC: return "OSC";
+            case ESC_OSC_ESC: return "OSC_ESC";
+            case ESC_CSI_BIGGERTHAN: return "CSI_BIGGERTHAN";
+            case ESC_P: return "DCS";
+            case ESC_CSI_QUESTIONMARK_ARG_DOLLAR: return "CSI_QUESTIONMARK_ARG_DOLLAR";
+            case ESC_CSI_ARGS_SPACE: return "CSI_ARGS_SPACE";
+            case ESC_CSI_ARGS_ASTERIX: return "CSI_ARGS_ASTERIX";
+            case ESC_CSI_DOUBLE_QUOTE: return "CSI_DOUBLE_QUOTE";
+            case ESC_CSI_SINGLE_QUOTE: return "CSI_SINGLE_QUOTE";
+            case ESC_CSI_EXCLAMATION: return "CSI_EXCLAMATION";
+            default: return "STATE_" + state;
+        }
+    }
+
     /** The number of parameter arguments. This name comes from the ANSI standard for terminal escape codes. */
     private static final int MAX_ESCAPE_PARAMETERS = 16;
 
@@ -139,8 +165,15 @@ public final class TerminalEmulator {
      * the alternate screen buffer is active, you cannot scroll back to view saved rows).
      * <p>
      * See http://www.xfree86.org/current/ctlseqs.html#The%20Alternate%20Screen%20Buffer
+     * <p>
+     * Only allocated while in use, as most sessions never use it, and kept for
+     * {@link #setAltBufferReleaseDelay(long)} after leaving it. Null otherwise.
      */
-    final TerminalBuffer altBuffer;
+    TerminalBuffer altBuffer;
+    /** How long to keep {@link #altBuffer} after leaving it, in nanoseconds. */
+    private long altBufferReleaseDelay;
+    /** When {@link #altBuffer} was left, from {@link System#nanoTime()}. */
+    private long altBufferLeftTime;
 
     /** The current screen buffer, pointing at either {@link #mainBuffer} or {@link #altBuffer}. */
     private TerminalBuffer screen;
@@ -210,6 +243,12 @@ public final class TerminalEmulator {
     /** Current {@link TextStyle} effect. */
     private int effect;
 
+    /** The id parameter and URI of the current OSC 8 hyperlink, the URI being null if there is none. */
+    private String hyperlinkParameter = "", hyperlinkUri;
+    /** The id of the current hyperlink in the buffer it was obtained in, which is null until first written with. */
+    private int hyperlinkId;
+    private TerminalBuffer hyperlinkBuffer;
+
     /**
      * The number of scrolled rows since last calling {@link #clearScrollCounter()}. Used for moving selection up along
      * with the scrolling text.
@@ -221,9 +260,21 @@ public final class TerminalEmulator {
     private int lastEmittedCodePoint = -1;
 
     public final TerminalColors colors = new TerminalColors();
+    private final ResolvedStyleCache resolvedStyles = new ResolvedStyleCache(this);
 
     private final PrintStream logger;
 
+    /** If non-null, receives all input and resizes. See {@link #setRecorder(TerminalRecorder)}. */
+    private TerminalRecorder recorder;
+    /** If non-null, counts what this emulator does. See {@link #setMetrics(TerminalMetrics)}. */
+    private TerminalMetrics metrics;
+    /** The number of escape sequences started, for {@link TerminalEvents#commitAppend}. */
+    private int escapeSequenceCount;
+    /** If non-null, records completed escape sequences. See {@link #setTrace(TerminalTrace)}. */
+    private TerminalTrace trace;
+    /** The outcome of the current escape sequence, one of the TerminalTrace.RESULT_* constants. */
+    private int traceResult;
+
     private boolean isDecsetInternalBitSet(int bit) {
         return (currentDecSetFlags & bit) != 0;
     }
@@ -279,7 +330,6 @@ public final class TerminalEmulator {
         this.logger = logger;
         this.session = session;
         screen = mainBuffer = new TerminalBuffer(columns, transcriptRows, rows);
-        altBuffer = new TerminalBuffer(columns, rows, rows);
         this.rows = rows;
         this.columns = columns;
         tabStop = new boolean[this.columns];
@@ -294,6 +344,86 @@ public final class TerminalEmulator {
         return screen == altBuffer;
     }
 
+    /** The transcriptRows this emulator was created with, that is the total number of rows of the main buffer. */
+    int getTranscriptRows() {
+        return mainBuffer.totalRows;
+    }
+
+    /** Limit the heap bytes used by the history of the main buffer. See {@link TerminalBuffer#setHistoryBudget(long)}. */
+    public void setHistoryBudget(long bytes) {
+        mainBuffer.setHistoryBudget(bytes);
+    }
+
+    /** Store repeated rows in the main buffer history once. See {@link TerminalBuffer#setHistoryDeduplication(boolean)}. */
+    public void setHistoryDeduplication(boolean enabled) {
+        mainBuffer.setHistoryDeduplication(enabled);
+    }
+
+    /** Estimate the heap bytes used by the rows of both screen buffers. See {@link TerminalBuffer#getHeapBytes()}. */
+    public long getHeapBytes() {
+        return mainBuffer.getHeapBytes() + (altBuffer == null ? 0 : altBuffer.getHeapBytes());
+    }
+
+    /**
+     * Keep the alternate screen buffer for the specified time after leaving it, so that programs switching back and
+     * forth do not allocate it again each time. By default it is released right away. An idle buffer is released by
+     * {@link #append(byte[], int)} or {@link #releaseIdleAltBuffer()} once the time has passed.
+     */
+    public void setAltBufferReleaseDelay(long millis) {
+        if (millis < 0) throw new IllegalArgumentException("Negative delay: " + millis);
+        altBufferReleaseDelay = TimeUnit.MILLISECONDS.toNanos(millis);
+        releaseIdleAltBuffer();
+    }
+
+    /** Release the alternate screen buffer if it is not in use and has been left for longer than the release delay. */
+    public void releaseIdleAltBuffer() {
+        if (altBuffer != null && screen != altBuffer && System.nanoTime() - altBufferLeftTime >= altBufferReleaseDelay) {
+            // Not to keep the buffer reachable through the current hyperlink:
+            if (hyperlinkBuffer == altBuffer) releaseHyperlinkReference();
+            altBuffer = null;
+        }
+    }
+
+    /** The bytes of archived history moved to disk. See {@link TerminalBuffer#enableArchive(long, File)}. */
+    public long getDiskBytes() {
+        return mainBuffer.getArchiveDiskBytes();
+    }
+
+    /** Evict the oldest rows of the main buffer history. See {@link TerminalBuffer#trimHistory(long)}. */
+    public long trimHistory(long maxBytes) {
+        return mainBuffer.trimHistory(maxBytes);
+    }
+
+    /** The estimated heap bytes used by the history of the main buffer. */
+    public long getHistoryBytes() {
+        return mainBuffer.getHistoryBytes();
+    }
+
+    /** Keep rows evicted from the main buffer history in an archive. See {@link TerminalBuffer#enableArchive(long, File)}. */
+    public void enableArchive(long heapBytes, File directory) {
+        mainBuffer.enableArchive(heapBytes, directory);
+    }
+
+    /** Stop archiving rows, deleting any archived. See {@link TerminalBuffer#closeArchive()}. */
+    public void closeArchive() {
+        mainBuffer.closeArchive();
+    }
+
+    /** Start counting what this emulator does in the specified metrics, or stop counting if null. */
+    public void setMetrics(TerminalMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /** Start recording completed escape sequences to the specified trace, or stop recording if null. */
+    public void setTrace(TerminalTrace trace) {
+        this.trace = trace;
+    }
+
+    /** Start recording all input and resizes to the specified recorder, or stop recording if null. */
+    public void setRecorder(TerminalRecorder recorder) {
+        this.recorder = recorder;
+    }
+
     /**
      * @param mouseButton one of the MOUSE_* constants of this class.
      */
@@ -324,6 +454,8 @@ public final class TerminalEmulator {
         } else if (columns < 2 || rows < 2) {
             throw new IllegalArgumentException("rows=" + rows + ", columns=" + columns);
         }
+        if (recorder != null) recorder.onResize(columns, rows);
+        if (metrics != null) metrics.increment(TerminalMetrics.Counter.RESIZES);
 
         if (this.rows != rows) {
             this.rows = rows;
@@ -365,6 +497,17 @@ public final class TerminalEmulator {
         return cursorStyle;
     }
 
+    /** The cache for resolving the styles of cells to colors, see {@link ResolvedStyleCache}. */
+    public ResolvedStyleCache getResolvedStyles() {
+        return resolvedStyles;
+    }
+
+    /** Invalidate {@link #resolvedStyles} and notify the client after {@link #colors} have changed. */
+    private void onColorsChanged() {
+        resolvedStyles.invalidate();
+        session.onColorsChanged();
+    }
+
     public boolean isReverseVideo() {
         return isDecsetInternalBitSet(DECSET_BIT_REVERSE_VIDEO);
     }
@@ -398,8 +541,20 @@ public final class TerminalEmulator {
      * @param length the number of bytes in the array to process
      */
     public void append(byte[] buffer, int length) {
+        if (recorder != null) recorder.onAppend(buffer, length);
+        TerminalMetrics metrics = this.metrics;
+        long startNanos = (metrics == null) ? 0 : System.nanoTime();
+        Object event = TerminalEvents.beginAppend();
+        int escapeSequencesBefore = escapeSequenceCount;
         for (int i = 0; i < length; i++)
             processByte(buffer[i]);
+        if (altBuffer != null && screen != altBuffer) releaseIdleAltBuffer();
+        TerminalEvents.commitAppend(event, length, escapeSequenceCount - escapeSequencesBefore);
+        if (metrics != null) {
+            metrics.add(TerminalMetrics.Counter.APPEND_NANOS, System.nanoTime() - startNanos);
+            metrics.add(TerminalMetrics.Counter.BYTES, length);
+            metrics.increment(TerminalMetrics.Counter.APPENDS);
+        }
     }
 
     private void processByte(byte byteToProcess) {
@@ -472,10 +627,12 @@ public final class TerminalEmulator {
             case 0: // Null character (NUL, ^@). Do nothing.
                 break;
             case 7: // Bell (BEL, ^G, \a). If in an OSC sequence, BEL may terminate a string; otherwise signal bell.
-                if (escapeState == ESC_OSC)
+                if (escapeState == ESC_OSC) {
                     doOsc(b);
-                else
+                    if (trace != null) traceSequence(ESC_OSC, b);
+                } else {
                     session.onBell();
+                }
                 break;
             case 8: // Backspace (BS, ^H).
                 if (leftMargin == cursorCol) {
@@ -533,6 +690,7 @@ public final class TerminalEmulator {
                 break;
             default:
                 continueSequence = false;
+                final int stateBefore = escapeState;
                 switch (escapeState) {
                     case ESC_NONE:
                         if (b >= 32) emitCodePoint(b);
@@ -807,15 +965,25 @@ public final class TerminalEmulator {
                         break;
                 }
                 if (!continueSequence) escapeState = ESC_NONE;
+                if (trace != null && stateBefore != ESC_NONE && escapeState == ESC_NONE) traceSequence(stateBefore, b);
                 break;
         }
     }
 
+    /** Record a completed escape sequence to {@link #trace}. */
+    private void traceSequence(int state, int finalChar) {
+        // An OSC ended by ESC \ is still an OSC:
+        if (state == ESC_OSC_ESC) state = ESC_OSC;
+        int argCount = (argIndex == 0 && currentArgs[0] < 0) ? 0 : Math.min(argIndex + 1, MAX_ESCAPE_PARAMETERS);
+        trace.record(state, finalChar, traceResult, cursorRow, cursorCol, currentArgs, argCount);
+    }
+
     /** When in {@link #ESC_P} ("device control") sequence. */
     private void doDeviceControl(int b) {
         switch (b) {
             case (byte) '\\': // End of ESC \ string Terminator
             {
+                Object event = TerminalEvents.beginStringSequence();
                 String dcs = oscOrDeviceControlArgs.toString();
                 // DCS $ q P t ST. Request Status String (DECRQSS)
                 if (dcs.startsWith("$q")) {
@@ -824,7 +992,7 @@ public final class TerminalEmulator {
                         String csiString = "64;1\"p";
                         session.write("\033P1$r" + csiString + "\033\\");
                     } else {
-                        finishSequenceAndLogError("Unrecognized DECRQSS string: '" + dcs + "'");
+                        finishSequenceWithError(TerminalTrace.RESULT_UNKNOWN);
                     }
                 } else if (dcs.startsWith("+q")) {
                     // Request Termcap/Terminfo String. The string following the "q" is a list of names encoded in
@@ -909,9 +1077,10 @@ public final class TerminalEmulator {
                         }
                     }
                 } else {
-                    if (LOG_ESCAPE_SEQUENCES)
-                        logger.println("Unrecognized device control string: " + dcs);
+                    if (metrics != null) metrics.increment(TerminalMetrics.Counter.UNKNOWN_SEQUENCES);
+                    traceResult = TerminalTrace.RESULT_UNKNOWN;
                 }
+                TerminalEvents.commitStringSequence(event, "DCS", dcs);
                 finishSequence();
             }
             break;
@@ -1083,26 +1252,31 @@ public final class TerminalEmulator {
             case 1049: {
                 // Set: Save cursor as in DECSC and use Alternate Screen Buffer, clearing it first.
                 // Reset: Use Normal Screen Buffer and restore cursor as in DECRC.
-                TerminalBuffer newScreen = setting ? altBuffer : mainBuffer;
-                if (newScreen != screen) {
-                    boolean resized = !(newScreen.columns == columns && newScreen.screenRows == rows);
-                    if (setting) saveCursor();
-                    screen = newScreen;
-                    if (!setting) {
-                        int col = savedStateMain.savedCursorCol;
-                        int row = savedStateMain.savedCursorRow;
-                        restoreCursor();
-                        if (resized) {
-                            // Restore cursor position _not_ clipped to current screen (let resizeScreen() handle that):
-                            cursorCol = col;
-                            cursorRow = row;
-                        }
+                if (setting == isAlternateBufferActive()) break;
+                if (setting) {
+                    saveCursor();
+                    if (altBuffer != null && altBuffer.columns == columns && altBuffer.screenRows == rows) {
+                        // Reuse the buffer kept after last leaving it, clearing it:
+                        altBuffer.blockSet(0, 0, columns, rows, ' ', getStyle());
+                    } else {
+                        // A new buffer is already clear:
+                        altBuffer = new TerminalBuffer(columns, rows, rows, getStyle());
+                    }
+                    screen = altBuffer;
+                } else {
+                    boolean resized = !(mainBuffer.columns == columns && mainBuffer.screenRows == rows);
+                    screen = mainBuffer;
+                    int col = savedStateMain.savedCursorCol;
+                    int row = savedStateMain.savedCursorRow;
+                    restoreCursor();
+                    if (resized) {
+                        // Restore cursor position _not_ clipped to current screen (let resizeScreen() handle that):
+                        cursorCol = col;
+                        cursorRow = row;
+                        resizeScreen();
                     }
-                    // Check if buffer size needs to be updated:
-                    if (resized) resizeScreen();
-                    // Clear new screen if alt buffer:
-                    if (newScreen == altBuffer)
-                        newScreen.blockSet(0, 0, columns, rows, ' ', getStyle());
+                    altBufferLeftTime = System.nanoTime();
+                    releaseIdleAltBuffer();
                 }
                 break;
             }
@@ -1197,6 +1371,7 @@ public final class TerminalEmulator {
 
     private void startEscapeSequence() {
         escapeState = ESC;
+        traceResult = TerminalTrace.RESULT_OK;
         argIndex = 0;
         Arrays.fill(currentArgs, -1);
     }
@@ -1236,6 +1411,8 @@ public final class TerminalEmulator {
 
     /** Encountering a character in the {@link #ESC} state. */
     private void doEsc(int b) {
+        escapeSequenceCount++;
+        if (metrics != null) metrics.countEscapeSequence(b);
         switch (b) {
             case '#':
                 continueSequence(ESC_POUND);
@@ -1294,6 +1471,7 @@ public final class TerminalEmulator {
                 if (cursorRow <= topMargin) {
                     screen.blockCopy(0, topMargin, columns, bottomMargin - (topMargin + 1), 0, topMargin + 1);
                     blockClear(0, topMargin, columns);
+                    countScrolledRows(1);
                 } else {
                     cursorRow--;
                 }
@@ -1454,6 +1632,7 @@ public final class TerminalEmulator {
                 int linesToMove = linesAfterCursor - linesToInsert;
                 screen.blockCopy(0, cursorRow, columns, linesToMove, 0, cursorRow + linesToInsert);
                 blockClear(0, cursorRow, columns, linesToInsert);
+                countScrolledRows(linesToInsert);
             }
             break;
             case 'M': // "${CSI}${N}M" - delete N rows (DL).
@@ -1464,6 +1643,7 @@ public final class TerminalEmulator {
                 int linesToMove = linesAfterCursor - linesToDelete;
                 screen.blockCopy(0, cursorRow + linesToDelete, columns, linesToMove, 0, cursorRow);
                 blockClear(0, cursorRow + linesToMove, columns, linesToDelete);
+                countScrolledRows(linesToDelete);
             }
             break;
             case 'P': // "${CSI}{N}P" - delete ${N} characters (DCH).
@@ -1482,9 +1662,11 @@ public final class TerminalEmulator {
             }
             break;
             case 'S': { // "${CSI}${N}S" - scroll up ${N} rows (default = 1) (SU).
+                Object event = TerminalEvents.beginScroll();
                 final int linesToScroll = getArg0(1);
                 for (int i = 0; i < linesToScroll; i++)
                     scrollDownOneLine();
+                TerminalEvents.commitScroll(event, linesToScroll);
                 break;
             }
             case 'T':
@@ -1493,11 +1675,14 @@ public final class TerminalEmulator {
                     // http://vt100.net/docs/vt510-rm/SD: "N is the number of rows to move the user window up in page
                     // memory. N new rows appear at the top of the display. N old rows disappear at the bottom of the
                     // display. You cannot pan past the top margin of the current page".
+                    Object event = TerminalEvents.beginScroll();
                     final int linesToScrollArg = getArg0(1);
                     final int linesBetweenTopAndBottomMargins = bottomMargin - topMargin;
                     final int linesToScroll = Math.min(linesBetweenTopAndBottomMargins, linesToScrollArg);
                     screen.blockCopy(0, topMargin, columns, linesBetweenTopAndBottomMargins - linesToScroll, 0, topMargin + linesToScroll);
                     blockClear(0, topMargin, columns, linesToScroll);
+                    countScrolledRows(linesToScroll);
+                    TerminalEvents.commitScroll(event, -linesToScroll);
                 } else {
                     // "${CSI}${func};${startx};${starty};${firstrow};${lastrow}T" - initiate highlight mouse tracking.
                     unimplementedSequence(b);
@@ -1735,7 +1920,7 @@ public final class TerminalEmulator {
                         } else {
                             int red = currentArgs[i + 2], green = currentArgs[i + 3], blue = currentArgs[i + 4];
                             if (red < 0 || green < 0 || blue < 0 || red > 255 || green > 255 || blue > 255) {
-                                finishSequenceAndLogError("Invalid RGB: " + red + "," + green + "," + blue);
+                                finishSequenceWithError(TerminalTrace.RESULT_INVALID);
                             } else {
                                 int argbColor = 0xff000000 | (red << 16) | (green << 8) | blue;
                                 if (code == 38) {
@@ -1758,11 +1943,11 @@ public final class TerminalEmulator {
                                 backColor = color;
                             }
                         } else {
-                            if (LOG_ESCAPE_SEQUENCES) logger.println("Invalid color index: " + color);
+                            traceResult = TerminalTrace.RESULT_INVALID;
                         }
                         break;
                     default:
-                        finishSequenceAndLogError("Invalid ISO-8613-3 SGR first argument: " + firstArg);
+                        finishSequenceWithError(TerminalTrace.RESULT_INVALID);
                         break;
                 }
             } else if (code == 39) { // Set default foreground color.
@@ -1776,8 +1961,8 @@ public final class TerminalEmulator {
             } else if (code >= 100 && code <= 107) { // Bright background color (aixterm codes).
                 backColor = code - 100 + 8;
             } else {
-                if (LOG_ESCAPE_SEQUENCES)
-                    logger.println(String.format("SGR unknown code %d", code));
+                if (metrics != null) metrics.increment(TerminalMetrics.Counter.UNKNOWN_SEQUENCES);
+                traceResult = TerminalTrace.RESULT_UNKNOWN;
             }
         }
     }
@@ -1785,7 +1970,7 @@ public final class TerminalEmulator {
     private void doOsc(int b) {
         switch (b) {
             case 7: // Bell.
-                doOscSetTextParameters("\007");
+                endOsc("\007");
                 break;
             case 27: // Escape.
                 continueSequence(ESC_OSC_ESC);
@@ -1799,7 +1984,7 @@ public final class TerminalEmulator {
     private void doOscEsc(int b) {
         switch (b) {
             case '\\':
-                doOscSetTextParameters("\033\\");
+                endOsc("\033\\");
                 break;
             default:
                 // The ESC character was not followed by a \, so insert the ESC and
@@ -1811,6 +1996,13 @@ public final class TerminalEmulator {
         }
     }
 
+    /** Handle a complete OSC, reported as a {@link TerminalEvents#beginStringSequence() string sequence event}. */
+    private void endOsc(String bellOrStringTerminator) {
+        Object event = TerminalEvents.beginStringSequence();
+        doOscSetTextParameters(bellOrStringTerminator);
+        TerminalEvents.commitStringSequence(event, "OSC", oscOrDeviceControlArgs);
+    }
+
     /** An Operating System Controls (OSC) Set Text Parameters. May come here from BEL or ST. */
     private void doOscSetTextParameters(String bellOrStringTerminator) {
         int value = -1;
@@ -1835,6 +2027,21 @@ public final class TerminalEmulator {
             case 2: // Change window title to T.
                 setTitle(textParameter);
                 break;
+            case 8:
+                // "8;params;URI" → Hyperlink the following text to URI, or end the hyperlink if URI is empty. The
+                // params are key=value pairs separated by ':', where an "id" makes separate runs of text with the same
+                // URI one link.
+                int uriStart = textParameter.indexOf(';');
+                if (uriStart < 0) {
+                    logger.println("OSC 8 without URI: '" + textParameter + "'");
+                    break;
+                }
+                String idParameter = "";
+                for (String keyValue : textParameter.substring(0, uriStart).split(":"))
+                    if (keyValue.startsWith("id=")) idParameter = keyValue.substring(3);
+                String uri = textParameter.substring(uriStart + 1);
+                setHyperlink(idParameter, uri.isEmpty() ? null : uri);
+                break;
             case 4:
                 // P s = 4 ; c ; spec → Change Color Number c to the color specified by spec. This can be a name or RGB
                 // specification as per XParseColor. Any number of c name pairs may be given. The color numbers correspond
@@ -1857,7 +2064,7 @@ public final class TerminalEmulator {
                                 return;
                             } else {
                                 colors.tryParseColor(colorIndex, textParameter.substring(parsingPairStart, i));
-                                session.onColorsChanged();
+                                onColorsChanged();
                                 colorIndex = -1;
                                 parsingPairStart = -1;
                             }
@@ -1893,7 +2100,7 @@ public final class TerminalEmulator {
                                     + String.format(Locale.US, "%04x", b) + bellOrStringTerminator);
                             } else {
                                 colors.tryParseColor(specialIndex, colorSpec);
-                                session.onColorsChanged();
+                                onColorsChanged();
                             }
                             specialIndex++;
                             if (endOfInput || (specialIndex > TextStyle.COLOR_INDEX_CURSOR) || ++charIndex >= textParameter.length())
@@ -1921,7 +2128,7 @@ public final class TerminalEmulator {
                 // parameters are given, the entire table will be reset.
                 if (textParameter.isEmpty()) {
                     colors.reset();
-                    session.onColorsChanged();
+                    onColorsChanged();
                 } else {
                     int lastIndex = 0;
                     for (int charIndex = 0; ; charIndex++) {
@@ -1930,7 +2137,7 @@ public final class TerminalEmulator {
                             try {
                                 int colorToReset = Integer.parseInt(textParameter.substring(lastIndex, charIndex));
                                 colors.reset(colorToReset);
-                                session.onColorsChanged();
+                                onColorsChanged();
                                 if (endOfInput) break;
                                 charIndex++;
                                 lastIndex = charIndex;
@@ -1945,7 +2152,7 @@ public final class TerminalEmulator {
             case 111: // Reset background color.
             case 112: // Reset cursor color.
                 colors.reset(TextStyle.COLOR_INDEX_FOREGROUND + (value - 110));
-                session.onColorsChanged();
+                onColorsChanged();
                 break;
             case 119: // Reset highlight color.
                 break;
@@ -1968,6 +2175,36 @@ public final class TerminalEmulator {
         return TextStyle.encode(foreColor, backColor, effect);
     }
 
+    /** Set the current hyperlink, or none if the URI is null, giving up the reference held to the previous one. */
+    private void setHyperlink(String idParameter, String uri) {
+        releaseHyperlinkReference();
+        hyperlinkParameter = idParameter;
+        hyperlinkUri = uri;
+    }
+
+    /** The id of the current hyperlink in the current buffer, obtained when first written with there, or 0 if none. */
+    private int getHyperlink() {
+        if (hyperlinkUri == null) return 0;
+        if (hyperlinkBuffer != screen) {
+            releaseHyperlinkReference();
+            hyperlinkId = screen.obtainHyperlink(hyperlinkParameter, hyperlinkUri);
+            hyperlinkBuffer = screen;
+        }
+        return hyperlinkId;
+    }
+
+    /** Give up the reference to the current hyperlink held in the buffer it was obtained in, if any. */
+    private void releaseHyperlinkReference() {
+        if (hyperlinkBuffer != null) hyperlinkBuffer.releaseHyperlink(hyperlinkId);
+        hyperlinkBuffer = null;
+        hyperlinkId = 0;
+    }
+
+    /** The URI of the current OSC 8 hyperlink, which output text is part of, or null if none. */
+    public String getHyperlinkUri() {
+        return hyperlinkUri;
+    }
+
     /** "CSI P_m h" for set or "CSI P_m l" for reset ANSI mode. */
     private void doSetMode(boolean newValue) {
         int modeBit = getArg0(0);
@@ -2004,8 +2241,14 @@ public final class TerminalEmulator {
         setCursorRowCol(newRow, newCol);
     }
 
+    /** Count rows scrolled other than by {@link #scrollDownOneLine()}, if counting. */
+    private void countScrolledRows(int rows) {
+        if (metrics != null) metrics.add(TerminalMetrics.Counter.SCROLLED_ROWS, rows);
+    }
+
     private void scrollDownOneLine() {
         scrollCounter++;
+        if (metrics != null) metrics.increment(TerminalMetrics.Counter.SCROLLED_ROWS);
         if (leftMargin != 0 || rightMargin != columns) {
             // Horizontal margin: Do not put anything into scroll history, just non-margin part of screen up.
             screen.blockCopy(leftMargin, topMargin + 1, rightMargin - leftMargin, bottomMargin - topMargin - 1, leftMargin, topMargin);
@@ -2067,47 +2310,23 @@ public final class TerminalEmulator {
     }
 
     private void unimplementedSequence(int b) {
-        logError("Unimplemented sequence char '" + (char) b + "' (U+" + String.format("%04x", b) + ")");
-        finishSequence();
+        if (metrics != null) metrics.increment(TerminalMetrics.Counter.UNIMPLEMENTED_SEQUENCES);
+        finishSequenceWithError(TerminalTrace.RESULT_UNIMPLEMENTED);
     }
 
     private void unknownSequence(int b) {
-        logError("Unknown sequence char '" + (char) b + "' (numeric value=" + b + ")");
-        finishSequence();
+        if (metrics != null) metrics.increment(TerminalMetrics.Counter.UNKNOWN_SEQUENCES);
+        finishSequenceWithError(TerminalTrace.RESULT_UNKNOWN);
     }
 
     private void unknownParameter(int parameter) {
-        logError("Unknown parameter: " + parameter);
-        finishSequence();
-    }
-
-    private void logError(String errorType) {
-        if (LOG_ESCAPE_SEQUENCES) {
-            StringBuilder buf = new StringBuilder();
-            buf.append(errorType);
-            buf.append(", escapeState=");
-            buf.append(escapeState);
-            boolean firstArg = true;
-            if (argIndex >= currentArgs.length) argIndex = currentArgs.length - 1;
-            for (int i = 0; i <= argIndex; i++) {
-                int value = currentArgs[i];
-                if (value >= 0) {
-                    if (firstArg) {
-                        firstArg = false;
-                        buf.append(", args={");
-                    } else {
-                        buf.append(',');
-                    }
-                    buf.append(value);
-                }
-            }
-            if (!firstArg) buf.append('}');
-            finishSequenceAndLogError(buf.toString());
-        }
+        if (metrics != null) metrics.increment(TerminalMetrics.Counter.UNKNOWN_SEQUENCES);
+        finishSequenceWithError(TerminalTrace.RESULT_UNKNOWN);
     }
 
-    private void finishSequenceAndLogError(String error) {
-        if (LOG_ESCAPE_SEQUENCES) logger.println(error);
+    /** Finish the current sequence, recording the outcome as one of the TerminalTrace.RESULT_* constants. */
+    private void finishSequenceWithError(int result) {
+        traceResult = result;
         finishSequence();
     }
 
@@ -2122,6 +2341,7 @@ public final class TerminalEmulator {
      */
     private void emitCodePoint(int codePoint) {
         lastEmittedCodePoint = codePoint;
+        if (metrics != null) metrics.increment(TerminalMetrics.Counter.CODE_POINTS);
         if (useLineDrawingUsesG0 ? useLineDrawingG0 : useLineDrawingG1) {
             // http://www.vt100.net/docs/vt102-ug/table5-15.html.
             switch (codePoint) {
@@ -2255,7 +2475,7 @@ public final class TerminalEmulator {
         }
 
         int offsetDueToCombiningChar = ((displayWidth <= 0 && cursorCol > 0 && !aboutToAutoWrap) ? 1 : 0);
-        screen.setChar(cursorCol - offsetDueToCombiningChar, cursorRow, codePoint, getStyle());
+        screen.setChar(cursorCol - offsetDueToCombiningChar, cursorRow, codePoint, getStyle(), getHyperlink());
 
         if (autoWrap && displayWidth > 0)
             aboutToAutoWrap = (cursorCol == rightMargin - displayWidth);
@@ -2306,6 +2526,7 @@ public final class TerminalEmulator {
         aboutToAutoWrap = false;
         foreColor = savedStateMain.savedForeColor = savedStateAlt.savedForeColor = TextStyle.COLOR_INDEX_FOREGROUND;
         backColor = savedStateMain.savedBackColor = savedStateAlt.savedBackColor = TextStyle.COLOR_INDEX_BACKGROUND;
+        setHyperlink("", null);
         setDefaultTabStops();
 
         useLineDrawingG0 = useLineDrawingG1 = false;
@@ -2323,7 +2544,7 @@ public final class TerminalEmulator {
         utf8Index = utf8ToFollow = 0;
 
         colors.reset();
-        session.onColorsChanged();
+        onColorsChanged();
     }
 
     public String getSelectedText(int x1, int y1, int x2, int y2) {
@@ -2355,6 +2576,133 @@ public final class TerminalEmulator {
         if (bracketed) session.write("\033[201~");
     }
 
+    /** Write the complete emulator state, including the alternate screen buffer if active, to a snapshot. See {@link TerminalSnapshot}. */
+    void writeSnapshot(TerminalSnapshot.Output out) throws IOException {
+        out.writeInt(columns);
+        out.writeInt(rows);
+        out.writeInt(mainBuffer.totalRows);
+
+        out.writeInt(cursorRow);
+        out.writeInt(cursorCol);
+        out.writeByte(cursorStyle.ordinal());
+        out.writeInt(topMargin);
+        out.writeInt(bottomMargin);
+        out.writeInt(leftMargin);
+        out.writeInt(rightMargin);
+        out.writeInt(currentDecSetFlags);
+        out.writeInt(savedDecSetFlags);
+        out.writeBoolean(insertMode);
+        out.writeBoolean(aboutToAutoWrap);
+        out.writeInt(foreColor);
+        out.writeInt(backColor);
+        out.writeInt(effect);
+        out.writeUTF(hyperlinkParameter);
+        out.writeNullableString(hyperlinkUri);
+        out.writeBoolean(useLineDrawingG0);
+        out.writeBoolean(useLineDrawingG1);
+        out.writeBoolean(useLineDrawingUsesG0);
+        out.writeInt(lastEmittedCodePoint);
+        out.writeInt(scrollCounter);
+
+        out.writeNullableString(title);
+        out.writeInt(titleStack.size());
+        for (String stackedTitle : titleStack)
+            out.writeNullableString(stackedTitle);
+
+        for (int i = 0; i < columns; i++)
+            out.writeBoolean(tabStop[i]);
+        savedStateMain.writeSnapshot(out);
+        savedStateAlt.writeSnapshot(out);
+        out.writeInts(colors.currentColors, 0, TextStyle.NUM_INDEXED_COLORS);
+
+        // Parser state, so that a snapshot taken in the middle of an escape sequence or UTF-8 character continues it:
+        out.writeInt(escapeState);
+        out.writeBoolean(continueSequence);
+        out.writeInt(argIndex);
+        out.writeInts(currentArgs, 0, MAX_ESCAPE_PARAMETERS);
+        out.writeUTF(oscOrDeviceControlArgs.toString());
+        out.writeByte(utf8ToFollow);
+        out.writeByte(utf8Index);
+        out.write(utf8InputBuffer);
+
+        out.writeBoolean(isAlternateBufferActive());
+        mainBuffer.writeSnapshot(out);
+        if (isAlternateBufferActive()) altBuffer.writeSnapshot(out);
+    }
+
+    /**
+     * Create an emulator from a snapshot written by {@link #writeSnapshot(TerminalSnapshot.Output)}.
+     *
+     * @param version the {@link TerminalSnapshot#VERSION} the snapshot was written with.
+     */
+    static TerminalEmulator readSnapshot(TerminalSnapshot.Input in, int version, TerminalClient session, PrintStream logger) throws IOException {
+        int columns = in.readInt();
+        int rows = in.readInt();
+        int transcriptRows = in.readInt();
+        if (columns < 2 || rows < 2 || transcriptRows < rows)
+            throw new IOException("Invalid snapshot size: columns=" + columns + ", rows=" + rows + ", transcriptRows=" + transcriptRows);
+        TerminalEmulator emulator = new TerminalEmulator(session, columns, rows, transcriptRows, logger);
+
+        emulator.cursorRow = in.readInt();
+        emulator.cursorCol = in.readInt();
+        int cursorStyleOrdinal = in.readByte();
+        if (cursorStyleOrdinal < 0 || cursorStyleOrdinal >= CursorStyle.values().length)
+            throw new IOException("Invalid cursor style: " + cursorStyleOrdinal);
+        emulator.cursorStyle = CursorStyle.values()[cursorStyleOrdinal];
+        emulator.topMargin = in.readInt();
+        emulator.bottomMargin = in.readInt();
+        emulator.leftMargin = in.readInt();
+        emulator.rightMargin = in.readInt();
+        emulator.currentDecSetFlags = in.readInt();
+        emulator.savedDecSetFlags = in.readInt();
+        emulator.insertMode = in.readBoolean();
+        emulator.aboutToAutoWrap = in.readBoolean();
+        emulator.foreColor = in.readInt();
+        emulator.backColor = in.readInt();
+        emulator.effect = in.readInt();
+        if (version >= 3) emulator.setHyperlink(in.readUTF(), in.readNullableString());
+        emulator.useLineDrawingG0 = in.readBoolean();
+        emulator.useLineDrawingG1 = in.readBoolean();
+        emulator.useLineDrawingUsesG0 = in.readBoolean();
+        emulator.lastEmittedCodePoint = in.readInt();
+        emulator.scrollCounter = in.readInt();
+
+        emulator.title = in.readNullableString();
+        int titleStackSize = in.readInt();
+        for (int i = 0; i < titleStackSize; i++)
+            emulator.titleStack.push(in.readNullableString());
+
+        for (int i = 0; i < columns; i++)
+            emulator.tabStop[i] = in.readBoolean();
+        emulator.savedStateMain.readSnapshot(in);
+        emulator.savedStateAlt.readSnapshot(in);
+        in.readInts(emulator.colors.currentColors, 0, TextStyle.NUM_INDEXED_COLORS);
+
+        emulator.escapeState = in.readInt();
+        emulator.continueSequence = in.readBoolean();
+        emulator.argIndex = in.readInt();
+        in.readInts(emulator.currentArgs, 0, MAX_ESCAPE_PARAMETERS);
+        emulator.oscOrDeviceControlArgs.append(in.readUTF());
+        emulator.utf8ToFollow = in.readByte();
+        emulator.utf8Index = in.readByte();
+        in.readFully(emulator.utf8InputBuffer);
+
+        boolean alternateBufferActive = in.readBoolean();
+        emulator.mainBuffer.readSnapshot(in, version);
+        if (alternateBufferActive || version < 2) {
+            // Version 1 always contained the alternate buffer, which is dropped if not in use:
+            TerminalBuffer altBuffer = new TerminalBuffer(columns, rows, rows);
+            altBuffer.readSnapshot(in, version);
+            if (alternateBufferActive) emulator.altBuffer = altBuffer;
+        }
+        emulator.screen = alternateBufferActive ? emulator.altBuffer : emulator.mainBuffer;
+        if (emulator.screen.columns != columns || emulator.screen.screenRows != rows)
+            throw new IOException("Active screen buffer does not match terminal size");
+
+        emulator.onColorsChanged();
+        return emulator;
+    }
+
     /** http://www.vt100.net/docs/vt510-rm/DECSC */
     static final class SavedScreenState {
         /** Saved state of the cursor position, Used to implement the save/restore cursor position escape sequences. */
@@ -2362,6 +2710,30 @@ public final class TerminalEmulator {
         int savedEffect, savedForeColor, savedBackColor;
         int savedDecFlags;
         boolean useLineDrawingG0, useLineDrawingG1, useLineDrawingUsesG0 = true;
+
+        void writeSnapshot(TerminalSnapshot.Output out) throws IOException {
+            out.writeInt(savedCursorRow);
+            out.writeInt(savedCursorCol);
+            out.writeInt(savedEffect);
+            out.writeInt(savedForeColor);
+            out.writeInt(savedBackColor);
+            out.writeInt(savedDecFlags);
+            out.writeBoolean(useLineDrawingG0);
+            out.writeBoolean(useLineDrawingG1);
+            out.writeBoolean(useLineDrawingUsesG0);
+        }
+
+        void readSnapshot(TerminalSnapshot.Input in) throws IOException {
+            savedCursorRow = in.readInt();
+            savedCursorCol = in.readInt();
+            savedEffect = in.readInt();
+            savedForeColor = in.readInt();
+            savedBackColor = in.readInt();
+            savedDecFlags = in.readInt();
+            useLineDrawingG0 = in.readBoolean();
+            useLineDrawingG1 = in.readBoolean();
+            useLineDrawingUsesG0 = in.readBoolean();
+        }
     }
 
     @Override
@@ -0,0 +1,70 @@
+package com.termux.terminal;
+
+/**
+ * Java Flight Recorder events for the operations of {@link TerminalEmulator} which may take long, so that latency spikes
+ * in a recording can be traced to what the terminal was doing.
+ * <p>
+ * An event is begun before the operation and committed after it with the values to record, which are only stored if
+ * recording. The events themselves are in {@link TerminalJfrEvents}, which is only loaded if the jdk.jfr module is
+ * present, as it is not on Android or on a JRE built without it. There every event is a no-op null instead.
+ */
+final class TerminalEvents {
+
+    /** If events are created, which they are if the jdk.jfr module is present. */
+    private static final boolean ENABLED = isClassPresent("jdk.jfr.Event");
+
+    private TerminalEvents() {
+    }
+
+    /** If a class can be loaded, without initializing it. */
+    static boolean isClassPresent(String name) {
+        try {
+            Class.forName(name, false, TerminalEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /** Begin an event for input processed by {@link TerminalEmulator#append(byte[], int)}. */
+    static Object beginAppend() {
+        return ENABLED ? TerminalJfrEvents.beginAppend() : null;
+    }
+
+    static void commitAppend(Object event, int bytes, int escapeSequences) {
+        if (event != null) TerminalJfrEvents.commitAppend(event, bytes, escapeSequences);
+    }
+
+    /** Begin an event for the resize of a {@link TerminalBuffer}. */
+    static Object beginResize() {
+        return ENABLED ? TerminalJfrEvents.beginResize() : null;
+    }
+
+    static void commitResize(Object event, int oldColumns, int oldRows, int newColumns, int newRows, int reflowedRows) {
+        if (event != null) TerminalJfrEvents.commitResize(event, oldColumns, oldRows, newColumns, newRows, reflowedRows);
+    }
+
+    /** Begin an event for scrolling several rows at once. */
+    static Object beginScroll() {
+        return ENABLED ? TerminalJfrEvents.beginScroll() : null;
+    }
+
+    /** @param rows the number of rows scrolled, negative when scrolling down. */
+    static void commitScroll(Object event, int rows) {
+        if (event != null) TerminalJfrEvents.commitScroll(event, rows);
+    }
+
+    /** Begin an event for the handling of an OSC or DCS. */
+    static Object beginStringSequence() {
+        return ENABLED ? TerminalJfrEvents.beginStringSequence() : null;
+    }
+
+    /**
+     * @param type   "OSC" or "DCS".
+     * @param string the string of the sequence, from which the number starting an OSC is taken.
+     */
+    static void commitStringSequence(Object event, String type, CharSequence string) {
+        if (event != null) TerminalJfrEvents.commitStringSequence(event, type, string);
+    }
+
+}
@@ -0,0 +1,157 @@
+package com.termux.terminal;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The Java Flight Recorder events of {@link TerminalEvents}, which is the only class referring to this one, and only
+ * after checking that the jdk.jfr module is present, so that nothing else links to jdk.jfr types.
+ * <p>
+ * Fields are only filled in if {@link Event#shouldCommit()}. When not recording, the JIT then removes the event objects
+ * entirely, so that they cost next to nothing.
+ */
+final class TerminalJfrEvents {
+
+    static final String CATEGORY = "Terminal";
+
+    private TerminalJfrEvents() {
+    }
+
+    static Object beginAppend() {
+        Append event = new Append();
+        event.begin();
+        return event;
+    }
+
+    static void commitAppend(Object begun, int bytes, int escapeSequences) {
+        Append event = (Append) begun;
+        if (event.shouldCommit()) {
+            event.bytes = bytes;
+            event.escapeSequences = escapeSequences;
+            event.commit();
+        }
+    }
+
+    static Object beginResize() {
+        Resize event = new Resize();
+        event.begin();
+        return event;
+    }
+
+    static void commitResize(Object begun, int oldColumns, int oldRows, int newColumns, int newRows, int reflowedRows) {
+        Resize event = (Resize) begun;
+        if (event.shouldCommit()) {
+            event.oldColumns = oldColumns;
+            event.oldRows = oldRows;
+            event.newColumns = newColumns;
+            event.newRows = newRows;
+            event.reflowedRows = reflowedRows;
+            event.commit();
+        }
+    }
+
+    static Object beginScroll() {
+        Scroll event = new Scroll();
+        event.begin();
+        return event;
+    }
+
+    static void commitScroll(Object begun, int rows) {
+        Scroll event = (Scroll) begun;
+        if (event.shouldCommit()) {
+            event.rows = rows;
+            event.commit();
+        }
+    }
+
+    static Object beginStringSequence() {
+        StringSequence event = new StringSequence();
+        event.begin();
+        return event;
+    }
+
+    static void commitStringSequence(Object begun, String type, CharSequence string) {
+        StringSequence event = (StringSequence) begun;
+        if (event.shouldCommit()) {
+            event.type = type;
+            int command = -1;
+            if (type.equals("OSC")) {
+                for (int i = 0; i < string.length(); i++) {
+                    char c = string.charAt(i);
+                    if (c < '0' || c > '9' || command > 100000) break;
+                    command = ((command < 0) ? 0 : command * 10) + (c - '0');
+                }
+            }
+            event.command = command;
+            event.length = string.length();
+            event.commit();
+        }
+    }
+
+    @Name("com.termux.terminal.Append")
+    @Label("Terminal Append")
+    @Category(CATEGORY)
+    @Description("Input processed by TerminalEmulator.append()")
+    static final class Append extends Event {
+        @Label("Bytes")
+        @DataAmount
+        int bytes;
+
+        @Label("Escape Sequences")
+        int escapeSequences;
+    }
+
+    @Name("com.termux.terminal.Resize")
+    @Label("Terminal Resize")
+    @Category(CATEGORY)
+    @Description("Resize of a TerminalBuffer, rewrapping the rows on the screen if the number of columns changed")
+    static final class Resize extends Event {
+        @Label("Old Columns")
+        int oldColumns;
+
+        @Label("Old Rows")
+        int oldRows;
+
+        @Label("New Columns")
+        int newColumns;
+
+        @Label("New Rows")
+        int newRows;
+
+        @Label("Rows Reflowed")
+        @Description("Rows rewrapped right away, not counting history rewrapped later")
+        int reflowedRows;
+    }
+
+    @Name("com.termux.terminal.Scroll")
+    @Label("Terminal Scroll")
+    @Category(CATEGORY)
+    @Description("Scrolling of several rows at once by a Scroll Up (SU) or Scroll Down (SD) sequence")
+    static final class Scroll extends Event {
+        @Label("Rows")
+        @Description("The number of rows scrolled, negative when scrolling down")
+        int rows;
+    }
+
+    @Name("com.termux.terminal.StringSequence")
+    @Label("Terminal String Sequence")
+    @Category(CATEGORY)
+    @Description("Handling of an Operating System Command (OSC) or Device Control String (DCS)")
+    static final class StringSequence extends Event {
+        @Label("Type")
+        String type;
+
+        @Label("Command")
+        @Description("The number starting an OSC, -1 if none or for a DCS")
+        int command;
+
+        @Label("Length")
+        @Description("The number of characters of the string")
+        int length;
+    }
+
+}
@@ -0,0 +1,241 @@
+package com.termux.terminal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds URLs and file paths in the rows of a {@link TerminalBuffer}, for a client to underline and open.
+ * <p>
+ * The text is matched a logical line at a time, so that a link wrapped over several rows is found, and the links are
+ * cached per logical line together with the {@link TerminalRow#getVersion() versions} of its rows. Asking for the
+ * links of the same rows again, as when drawing each frame, then only matches the lines which have changed since.
+ * Lines least recently asked for are dropped from the cache once it holds more than its maximum. Lines starting with
+ * the same row object, as repeated history rows do when deduplicated, are cached side by side under that row.
+ * <p>
+ * Use on the thread using the emulator, like the buffer itself.
+ */
+public final class TerminalLinkDetector {
+
+    /** URLs with a scheme, and paths starting with /, ./, ../ or ~/ and optionally followed by :line or :line:column. */
+    public static final Pattern DEFAULT_PATTERN = Pattern.compile(
+        "\\b(?:https?|ftp|file)://[^\\s<>\"'`]+"
+            + "|(?<![\\p{L}\\p{N}_/.~-])(?:~|\\.{1,2})?/[\\p{L}\\p{N}_.+-]+(?:/[\\p{L}\\p{N}_.+-]+)*/?(?::\\d+(?::\\d+)?)?");
+
+    /** The default maximum number of logical lines cached, enough for a few screens. */
+    public static final int DEFAULT_CACHED_LINES = 256;
+
+    /** The most lines starting with the same row object which are cached, newest first. */
+    private static final int MAX_LINES_PER_FIRST_ROW = 8;
+
+    /** Characters not taken as the end of a link, being more likely punctuation of the text around it. */
+    private static final String TRAILING_PUNCTUATION = ".,;:!?'\")]}>";
+
+    /** A link, or the part of it on one row. */
+    public static final class Link {
+        /** The first column of the link on the row. */
+        public final int startColumn;
+        /** The column after the link on the row. */
+        public final int endColumn;
+        /** The whole text of the link, also if it continues on other rows. */
+        public final String text;
+
+        Link(int startColumn, int endColumn, String text) {
+            this.startColumn = startColumn;
+            this.endColumn = endColumn;
+            this.text = text;
+        }
+
+        @Override
+        public String toString() {
+            return "Link[" + startColumn + "-" + endColumn + ": " + text + "]";
+        }
+    }
+
+    /** The links of a logical line and the rows they were found in. */
+    private static final class Line {
+        /** The rows of the line, null for rows not allocated in the buffer. */
+        final TerminalRow[] rows;
+        final long[] versions;
+        /** The links on each row of the line. */
+        final List<List<Link>> links;
+        /** An older line starting with the same row object, or null. */
+        Line next;
+
+        Line(TerminalRow[] rows) {
+            this.rows = rows;
+            this.versions = new long[rows.length];
+            for (int i = 0; i < rows.length; i++)
+                if (rows[i] != null) versions[i] = rows[i].getVersion();
+            links = new ArrayList<>(rows.length);
+        }
+
+        /** If the rows from a buffer are still the same rows, unchanged. */
+        boolean isCurrent(TerminalBuffer buffer, int start, int end) {
+            if (end - start + 1 != rows.length) return false;
+            for (int i = 0; i < rows.length; i++) {
+                TerminalRow row = buffer.rows[buffer.externalToInternalRow(start + i)];
+                if (row != rows[i] || (row != null && row.getVersion() != versions[i])) return false;
+            }
+            return true;
+        }
+    }
+
+    private final Pattern pattern;
+    /** The cached lines by their first row, least recently used first, each followed by others starting with it. */
+    private final LinkedHashMap<TerminalRow, Line> lines;
+
+    /** The text of the line being matched. */
+    private final StringBuilder text = new StringBuilder();
+    /** The cell, counted from the first row of the line, of each char of {@link #text}. */
+    private int[] cellOfChar = new int[256];
+
+    /** The number of logical lines matched, to see how much caching saves. */
+    int scannedLines;
+
+    /** Create a detector with the {@link #DEFAULT_PATTERN} and {@link #DEFAULT_CACHED_LINES}. */
+    public TerminalLinkDetector() {
+        this(DEFAULT_PATTERN, DEFAULT_CACHED_LINES);
+    }
+
+    /**
+     * @param pattern        what to take as a link in the text of a logical line.
+     * @param maxCachedLines the most logical lines to keep the links of.
+     */
+    public TerminalLinkDetector(Pattern pattern, final int maxCachedLines) {
+        if (maxCachedLines < 1) throw new IllegalArgumentException("maxCachedLines=" + maxCachedLines);
+        this.pattern = pattern;
+        this.lines = new LinkedHashMap<TerminalRow, Line>(2 * maxCachedLines, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<TerminalRow, Line> eldest) {
+                return size() > maxCachedLines;
+            }
+        };
+    }
+
+    /**
+     * Get the links on a row of the screen or history, ordered by column.
+     *
+     * @param row the external row, from -{@link TerminalBuffer#getActiveTranscriptRows()} to the last row of the screen.
+     */
+    public List<Link> getLinks(TerminalBuffer buffer, int row) {
+        int start = buffer.getLogicalLineStart(row);
+        int end = buffer.getLogicalLineEnd(row);
+        TerminalRow first = buffer.rows[buffer.externalToInternalRow(start)];
+        if (first == null) return Collections.emptyList();
+        Line newest = lines.get(first);
+        Line line = newest;
+        while (line != null && !line.isCurrent(buffer, start, end))
+            line = line.next;
+        if (line == null) {
+            line = scan(buffer, start, end);
+            line.next = newest;
+            Line kept = line;
+            for (int i = 1; i < MAX_LINES_PER_FIRST_ROW && kept.next != null; i++)
+                kept = kept.next;
+            kept.next = null;
+            lines.put(first, line);
+        }
+        return line.links.get(row - start);
+    }
+
+    /** Get the link at a cell, or null if there is none. */
+    public Link getLinkAt(TerminalBuffer buffer, int row, int column) {
+        for (Link link : getLinks(buffer, row))
+            if (column >= link.startColumn && column < link.endColumn) return link;
+        return null;
+    }
+
+    /** Forget all cached links. */
+    public void clear() {
+        lines.clear();
+    }
+
+    private Line scan(TerminalBuffer buffer, int start, int end) {
+        scannedLines++;
+        int columns = buffer.columns;
+        TerminalRow[] lineRows = new TerminalRow[end - start + 1];
+        text.setLength(0);
+        TerminalRow blank = null;
+        for (int i = 0; i < lineRows.length; i++) {
+            TerminalRow row = buffer.rows[buffer.externalToInternalRow(start + i)];
+            lineRows[i] = row;
+            if (row == null && blank == null) blank = new TerminalRow(columns, TextStyle.NORMAL);
+            appendRow(row == null ? blank : row, i * columns);
+        }
+
+        Line line = new Line(lineRows);
+        List<List<Link>> links = line.links;
+        for (int i = 0; i < lineRows.length; i++)
+            links.add(null);
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            int matchStart = matcher.start(), matchEnd = trimPunctuation(matcher.start(), matcher.end());
+            if (matchEnd <= matchStart) continue;
+            String linkText = text.substring(matchStart, matchEnd);
+            int firstCell = cellOfChar[matchStart];
+            int lastCell = cellOfChar[matchEnd - 1];
+            int endCell = (matchEnd < text.length()) ? Math.max(cellOfChar[matchEnd], lastCell + 1) : lineRows.length * columns;
+            for (int rowIndex = firstCell / columns; rowIndex <= (endCell - 1) / columns; rowIndex++) {
+                int rowStart = rowIndex * columns;
+                int startColumn = Math.max(firstCell, rowStart) - rowStart;
+                int endColumn = Math.min(endCell, rowStart + columns) - rowStart;
+                if (links.get(rowIndex) == null) links.set(rowIndex, new ArrayList<Link>(2));
+                links.get(rowIndex).add(new Link(startColumn, endColumn, linkText));
+            }
+        }
+        for (int i = 0; i < links.size(); i++)
+            links.set(i, (links.get(i) == null) ? Collections.<Link>emptyList() : Collections.unmodifiableList(links.get(i)));
+        return line;
+    }
+
+    /** Append the text of a row to {@link #text}, recording the cell of each char from the first cell of the row. */
+    private void appendRow(TerminalRow row, int firstCell) {
+        char[] rowText = row.text;
+        int spaceUsed = row.getSpaceUsed();
+        int column = 0, cellColumn = 0;
+        for (int i = 0; i < spaceUsed; ) {
+            char c = rowText[i];
+            int charCount = (Character.isHighSurrogate(c) && i + 1 < spaceUsed) ? 2 : 1;
+            int width = WcWidth.width(charCount == 2 ? Character.toCodePoint(c, rowText[i + 1]) : c);
+            // Combining characters belong to the cell before them:
+            if (width > 0) {
+                cellColumn = column;
+                column += width;
+            }
+            for (int j = 0; j < charCount; j++) {
+                if (text.length() == cellOfChar.length) {
+                    int[] grown = new int[2 * cellOfChar.length];
+                    System.arraycopy(cellOfChar, 0, grown, 0, cellOfChar.length);
+                    cellOfChar = grown;
+                }
+                cellOfChar[text.length()] = firstCell + cellColumn;
+                text.append(rowText[i + j]);
+            }
+            i += charCount;
+        }
+    }
+
+    /** Leave out trailing punctuation from a match, except closing parentheses which match opening ones in it. */
+    private int trimPunctuation(int start, int end) {
+        while (end > start) {
+            char last = text.charAt(end - 1);
+            if (TRAILING_PUNCTUATION.indexOf(last) < 0) break;
+            if (last == ')' && count(start, end, '(') >= count(start, end, ')')) break;
+            end--;
+        }
+        return end;
+    }
+
+    private int count(int start, int end, char c) {
+        int count = 0;
+        for (int i = start; i < end; i++)
+            if (text.charAt(i) == c) count++;
+        return count;
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.termux.terminal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the memory used by the rows of many {@link TerminalEmulator}:s under a common limit, for hosts running many
+ * sessions at once.
+ * <p>
+ * Sessions are registered with a name and marked as viewed with {@link #viewed(TerminalEmulator)} when shown. When
+ * {@link #checkUsage()} finds that the sessions together use more than the limit, history is trimmed from the least
+ * recently viewed sessions first, see {@link TerminalEmulator#trimHistory(long)}. Sessions with an archive enabled move
+ * the trimmed rows to it, where they are compressed, instead of losing them.
+ * <p>
+ * Like {@link TerminalEmulator} this class is not thread safe, and should be used from the thread using the emulators.
+ */
+public final class TerminalMemoryManager {
+
+    /** Notified about sessions being trimmed. */
+    public interface Listener {
+        /** History has been trimmed from a session because the sessions used more than the limit. */
+        void onSessionTrimmed(TerminalEmulator emulator, String name, long freedBytes);
+
+        /** The sessions still use more than the limit after trimming all their history, so the host should close some. */
+        void onLimitExceeded(long usedBytes, long limitBytes);
+    }
+
+    /** The memory used by a session, see {@link #getUsage()}. */
+    public static final class SessionUsage {
+        public final String name;
+        /** The estimated heap bytes, see {@link TerminalEmulator#getHeapBytes()}. */
+        public final long heapBytes;
+        /** The bytes of archived history on disk, see {@link TerminalEmulator#getDiskBytes()}. */
+        public final long diskBytes;
+
+        SessionUsage(String name, long heapBytes, long diskBytes) {
+            this.name = name;
+            this.heapBytes = heapBytes;
+            this.diskBytes = diskBytes;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + heapBytes + " bytes on heap, " + diskBytes + " bytes on disk";
+        }
+    }
+
+    /** The registered sessions and their names, least recently viewed first. */
+    private final LinkedHashMap<TerminalEmulator, String> sessions = new LinkedHashMap<>(16, 0.75f, true);
+    private long limitBytes;
+    private Listener listener;
+
+    /** @param limitBytes the most heap bytes all registered sessions together should use. */
+    public TerminalMemoryManager(long limitBytes) {
+        setLimit(limitBytes);
+    }
+
+    public void setLimit(long limitBytes) {
+        if (limitBytes < 0) throw new IllegalArgumentException("Negative limit: " + limitBytes);
+        this.limitBytes = limitBytes;
+    }
+
+    public long getLimit() {
+        return limitBytes;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Register a session, as the most recently viewed. */
+    public void register(TerminalEmulator emulator, String name) {
+        sessions.put(emulator, name);
+    }
+
+    public void unregister(TerminalEmulator emulator) {
+        sessions.remove(emulator);
+    }
+
+    /** Note that a session has been viewed, which makes it the last to be trimmed. */
+    public void viewed(TerminalEmulator emulator) {
+        if (sessions.get(emulator) == null) throw new IllegalArgumentException("Session not registered");
+    }
+
+    /** The estimated heap bytes used by all registered sessions. */
+    public long getTotalUsage() {
+        long bytes = 0;
+        for (TerminalEmulator emulator : sessions.keySet())
+            bytes += emulator.getHeapBytes();
+        return bytes;
+    }
+
+    /** The memory used by each registered session, least recently viewed first. */
+    public List<SessionUsage> getUsage() {
+        List<SessionUsage> usage = new ArrayList<>(sessions.size());
+        for (Map.Entry<TerminalEmulator, String> entry : sessions.entrySet())
+            usage.add(new SessionUsage(entry.getValue(), entry.getKey().getHeapBytes(), entry.getKey().getDiskBytes()));
+        return usage;
+    }
+
+    /**
+     * Trim history from the least recently viewed sessions first if all sessions together use more than the limit.
+     * Should be called regularly, such as after output has been processed.
+     *
+     * @return the number of bytes freed.
+     */
+    public long checkUsage() {
+        long used = getTotalUsage();
+        long excess = used - limitBytes;
+        if (excess <= 0) return 0;
+        long freed = 0;
+        for (Map.Entry<TerminalEmulator, String> entry : sessions.entrySet()) {
+            TerminalEmulator emulator = entry.getKey();
+            // Measured as a whole, as rows trimmed to an archive are still on the heap until compressed:
+            long before = emulator.getHeapBytes();
+            emulator.trimHistory(Math.max(0, emulator.getHistoryBytes() - (excess - freed)));
+            long sessionFreed = before - emulator.getHeapBytes();
+            if (sessionFreed > 0) {
+                freed += sessionFreed;
+                if (listener != null) listener.onSessionTrimmed(emulator, entry.getValue(), sessionFreed);
+            }
+            if (freed >= excess) return freed;
+        }
+        if (listener != null) listener.onLimitExceeded(used - freed, limitBytes);
+        return freed;
+    }
+
+}
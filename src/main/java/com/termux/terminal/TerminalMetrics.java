@@ -0,0 +1,106 @@
+package com.termux.terminal;
+
+import java.util.EnumMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what {@link TerminalEmulator}:s are doing, for monitoring hosts running many sessions.
+ * <p>
+ * Attach with {@link TerminalEmulator#setMetrics(TerminalMetrics)}. Without metrics attached the emulator only pays a
+ * null check at each counted point. The same instance may be attached to any number of emulators, also running on
+ * different threads, in which case it counts them all together. Read the counters at any time with {@link #get(Counter)}
+ * or {@link #snapshot()}.
+ */
+public final class TerminalMetrics {
+
+    /** What is counted. */
+    public enum Counter {
+        /** Bytes passed to {@link TerminalEmulator#append(byte[], int)}. */
+        BYTES,
+        /** Calls to {@link TerminalEmulator#append(byte[], int)}. */
+        APPENDS,
+        /** Nanoseconds spent in {@link TerminalEmulator#append(byte[], int)}. */
+        APPEND_NANOS,
+        /** Code points written to the screen. */
+        CODE_POINTS,
+        /** Control Sequence Introducer sequences started, "ESC [". */
+        CSI_SEQUENCES,
+        /** Operating System Command sequences started, "ESC ]". */
+        OSC_SEQUENCES,
+        /** Device Control String sequences started, "ESC P". */
+        DCS_SEQUENCES,
+        /** Other escape sequences started, such as "ESC 7" or "ESC (". */
+        ESC_SEQUENCES,
+        /** Sequences, or parameters to them, which were not recognized. */
+        UNKNOWN_SEQUENCES,
+        /** Sequences which were recognized but are not implemented. */
+        UNIMPLEMENTED_SEQUENCES,
+        /**
+         * Rows scrolled up or down within the scroll region: by line feeds at its bottom, reverse index at its top, scroll
+         * up and down (SU and SD), and inserting or deleting lines (IL and DL).
+         */
+        SCROLLED_ROWS,
+        /** Changes of the terminal size. */
+        RESIZES
+    }
+
+    private static final Counter[] COUNTERS = Counter.values();
+
+    private final LongAdder[] counters = new LongAdder[COUNTERS.length];
+
+    public TerminalMetrics() {
+        for (int i = 0; i < counters.length; i++)
+            counters[i] = new LongAdder();
+    }
+
+    void increment(Counter counter) {
+        counters[counter.ordinal()].increment();
+    }
+
+    void add(Counter counter, long value) {
+        counters[counter.ordinal()].add(value);
+    }
+
+    /** Count the escape sequence started by the specified character following ESC. */
+    void countEscapeSequence(int b) {
+        switch (b) {
+            case '[':
+                increment(Counter.CSI_SEQUENCES);
+                break;
+            case ']':
+                increment(Counter.OSC_SEQUENCES);
+                break;
+            case 'P':
+                increment(Counter.DCS_SEQUENCES);
+                break;
+            default:
+                increment(Counter.ESC_SEQUENCES);
+                break;
+        }
+    }
+
+    /** The current value of a counter. */
+    public long get(Counter counter) {
+        return counters[counter.ordinal()].sum();
+    }
+
+    /** The current value of all counters. Counters updated concurrently are not read at exactly the same moment. */
+    public EnumMap<Counter, Long> snapshot() {
+        EnumMap<Counter, Long> values = new EnumMap<>(Counter.class);
+        for (Counter counter : COUNTERS)
+            values.put(counter, get(counter));
+        return values;
+    }
+
+    /** Set all counters to zero. */
+    public void reset() {
+        for (LongAdder counter : counters)
+            counter.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "TerminalMetrics" + snapshot();
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.termux.terminal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records every chunk passed to {@link TerminalEmulator#append(byte[], int)} and every
+ * {@link TerminalEmulator#resize(int, int)}, together with monotonic timestamps, to a file which can be played back by
+ * {@link TerminalReplayer}.
+ * <p>
+ * Attach with {@link TerminalEmulator#setRecorder(TerminalRecorder)}. The file is only ever appended to. Failures to
+ * write do not disturb the emulator, but stop the recording and are thrown from {@link #flush()} or {@link #close()}.
+ * <p>
+ * The file starts with a header ({@link #MAGIC}, {@link #VERSION}, columns, rows and transcript rows of the recorded
+ * emulator) followed by records, each starting with a type byte and a timestamp in nanoseconds since the start of the
+ * recording:
+ *
+ * <pre>
+ * {@link #RECORD_APPEND}: timestamp (long), length (int), bytes
+ * {@link #RECORD_RESIZE}: timestamp (long), columns (int), rows (int)
+ * </pre>
+ */
+public final class TerminalRecorder implements Closeable {
+
+    /** The first four bytes of every recording, "TMXR". */
+    static final int MAGIC = 0x544d5852;
+    static final int VERSION = 1;
+
+    static final byte RECORD_APPEND = 1;
+    static final byte RECORD_RESIZE = 2;
+
+    /** Size of the type byte, timestamp and length or geometry of a record. */
+    static final int RECORD_HEADER_SIZE = 1 + 8 + 4;
+    static final int RESIZE_RECORD_SIZE = 1 + 8 + 4 + 4;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final long startNanos;
+    private IOException failure;
+    private boolean closed;
+
+    /**
+     * Start a new recording, replacing any existing file. The geometry of the emulator is written to the header so that
+     * {@link TerminalReplayer#createEmulator(TerminalClient, java.io.PrintStream)} can recreate it.
+     */
+    public TerminalRecorder(File file, TerminalEmulator emulator) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        startNanos = System.nanoTime();
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(emulator.columns);
+        buffer.putInt(emulator.rows);
+        buffer.putInt(emulator.getTranscriptRows());
+    }
+
+    /** Called by the emulator before processing a chunk of input. */
+    synchronized void onAppend(byte[] data, int length) {
+        if (failure != null || closed) return;
+        try {
+            if (buffer.remaining() < RECORD_HEADER_SIZE) drain();
+            buffer.put(RECORD_APPEND);
+            buffer.putLong(System.nanoTime() - startNanos);
+            buffer.putInt(length);
+            int offset = 0;
+            while (offset < length) {
+                if (!buffer.hasRemaining()) drain();
+                int count = Math.min(buffer.remaining(), length - offset);
+                buffer.put(data, offset, count);
+                offset += count;
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /** Called by the emulator when resized. */
+    synchronized void onResize(int columns, int rows) {
+        if (failure != null || closed) return;
+        try {
+            if (buffer.remaining() < RESIZE_RECORD_SIZE) drain();
+            buffer.put(RECORD_RESIZE);
+            buffer.putLong(System.nanoTime() - startNanos);
+            buffer.putInt(columns);
+            buffer.putInt(rows);
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /** Write buffered records to the file. Throws the first failure which stopped the recording, if any. */
+    public synchronized void flush() throws IOException {
+        if (failure != null) throw failure;
+        if (closed) return;
+        try {
+            drain();
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        }
+    }
+
+    /** Flush and close the recording. Records passed to the recorder after this are ignored. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        try {
+            flush();
+        } finally {
+            closed = true;
+            channel.close();
+        }
+    }
+
+}
@@ -0,0 +1,232 @@
+package com.termux.terminal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Rewraps rows of text to a new number of columns, as done by {@link TerminalBuffer#resize} when the number of columns
+ * changes.
+ * <p>
+ * Rows are fed oldest first with {@link #addRow(TerminalRow, boolean, int)}. Each logical line (a sequence of rows
+ * joined by {@link TerminalRow#lineWrap}) starts on a new output row, so a sequence of rows starting right after a
+ * non-blank row without line wrap can be rewrapped independently of the rows before it. This is what allows history to
+ * be rewrapped lazily in {@link Segment}:s.
+ */
+final class TerminalReflow {
+
+    /** The number of output rows to aim for in a {@link Segment}, to keep the cost of rewrapping one on demand small. */
+    static final int SEGMENT_ROWS = 64;
+
+    /**
+     * A part of the history which has not been rewrapped yet, consisting of a sequence of logical lines in their
+     * source rows, together with the slots in {@link TerminalBuffer#rows} it will be rewrapped into.
+     */
+    static final class Segment {
+        /** The rows to rewrap. */
+        final TerminalRow[] source;
+        /** The estimated heap bytes of {@link #source}, which is kept until the segment is rewrapped or evicted. */
+        final long sourceBytes;
+        /** The number of rows the source rows produce when rewrapped. */
+        final int rowCount;
+        /** The style of blank rows. */
+        final long style;
+        /** The number of leading output rows which are not kept, since they have been scrolled out of the history. */
+        int skip;
+        /** The slot in {@link TerminalBuffer#rows} of the first kept output row. */
+        int firstSlot;
+
+        /** Create a segment of the rows in the specified range, which are copied to not hold on to the rest. */
+        Segment(TerminalRow[] rows, int from, int to, int rowCount, long style) {
+            this.source = Arrays.copyOfRange(rows, from, to);
+            this.rowCount = rowCount;
+            this.style = style;
+            long bytes = TerminalRow.arrayBytes(4L * source.length);
+            for (int i = 0; i < source.length; i++)
+                // Repeated rows shared by deduplication are counted once, as in the history:
+                if (source[i] != null && (i == 0 || source[i] != source[i - 1])) bytes += source[i].estimateHeapBytes();
+            this.sourceBytes = bytes;
+        }
+
+        /** Rewrap the source rows. The returned array has {@link #rowCount} rows. */
+        TerminalRow[] rewrap(int columns) {
+            TerminalReflow reflow = new TerminalReflow(columns, style, true);
+            for (TerminalRow row : source)
+                reflow.addRow(row, false, -1);
+            TerminalRow[] result = new TerminalRow[reflow.currentRow];
+            for (int i = 0; i < result.length; i++)
+                result[i] = reflow.outputRow(i);
+            if (result.length != rowCount) throw new IllegalStateException("Expected " + rowCount + " rows, got " + result.length);
+            return result;
+        }
+    }
+
+    /**
+     * Rewraps a range of independent {@link Segment}:s, splitting it to run in parallel on a
+     * {@link java.util.concurrent.ForkJoinPool}. The rewrapped rows are stored by index for the caller to place them.
+     */
+    static final class RewrapTask extends RecursiveAction {
+        /** Ranges of at most this many segments are rewrapped by a single task. */
+        static final int SEGMENTS_PER_TASK = 8;
+        private static final long serialVersionUID = 1L;
+
+        private final List<Segment> segments;
+        private final TerminalRow[][] result;
+        private final int columns, from, to;
+
+        RewrapTask(List<Segment> segments, TerminalRow[][] result, int columns, int from, int to) {
+            this.segments = segments;
+            this.result = result;
+            this.columns = columns;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEGMENTS_PER_TASK) {
+                for (int i = from; i < to; i++)
+                    result[i] = segments.get(i).rewrap(columns);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RewrapTask(segments, result, columns, from, middle), new RewrapTask(segments, result, columns, middle, to));
+            }
+        }
+    }
+
+    private final int columns;
+    private final long style;
+    /** If to create the output rows, or to just count them. */
+    private final boolean write;
+    private final ArrayList<TerminalRow> output = new ArrayList<>();
+
+    /** The output row and column currently written to. */
+    int currentRow, currentColumn;
+    /** Blank rows are skipped unless followed by a non-blank one, so that trailing blank rows are dropped. */
+    private int skippedBlankLines;
+    /** The new position of the cursor, or -1 if it has not been placed. */
+    int cursorRow = -1, cursorColumn = -1;
+
+    TerminalReflow(int columns, long style, boolean write) {
+        this.columns = columns;
+        this.style = style;
+        this.write = write;
+    }
+
+    /** Get an output row, creating blank rows up to it if necessary. */
+    TerminalRow outputRow(int index) {
+        while (output.size() <= index)
+            output.add(new TerminalRow(columns, style));
+        return output.get(index);
+    }
+
+    /**
+     * Rewrap a row.
+     *
+     * @param oldLine      the row, or null for a blank row.
+     * @param lastRow      if this is the last row of the screen, after which no new line is started.
+     * @param cursorColumn the column of the cursor if it is on this row, -1 otherwise. Text after the cursor on its row
+     *                     is dropped, as it is normally stale output from before the cursor was moved back.
+     */
+    void addRow(TerminalRow oldLine, boolean lastRow, int cursorColumn) {
+        boolean cursorAtThisRow = cursorColumn >= 0;
+        if (oldLine == null || (!cursorAtThisRow && oldLine.isBlank())) {
+            skippedBlankLines++;
+            return;
+        } else if (skippedBlankLines > 0) {
+            // After skipping some blank rows we encounter a non-blank line. Insert the skipped blank rows.
+            currentRow += skippedBlankLines;
+            currentColumn = 0;
+            skippedBlankLines = 0;
+        }
+
+        int lastNonSpaceIndex = 0;
+        if (cursorAtThisRow || oldLine.lineWrap) {
+            // Take the whole line, either because of cursor on it, or if line wrapping.
+            lastNonSpaceIndex = oldLine.getSpaceUsed();
+        } else {
+            for (int i = oldLine.getSpaceUsed() - 1; i >= 0; i--) {
+                if (oldLine.text[i] != ' ') {
+                    lastNonSpaceIndex = i + 1;
+                    break;
+                }
+            }
+        }
+
+        int currentOldCol = 0;
+        long styleAtCol = 0;
+        int linkAtCol = 0;
+        for (int i = 0; i < lastNonSpaceIndex; i++) {
+            // Note that looping over java character, not cells.
+            char c = oldLine.text[i];
+            int codePoint = (Character.isHighSurrogate(c)) ? Character.toCodePoint(c, oldLine.text[++i]) : c;
+            int displayWidth = WcWidth.width(codePoint);
+            // Use the last style and hyperlink if this is a zero-width character:
+            if (displayWidth > 0) {
+                styleAtCol = oldLine.getStyle(currentOldCol);
+                linkAtCol = oldLine.getLink(currentOldCol);
+            }
+
+            // Line wrap as necessary:
+            if (currentColumn + displayWidth > columns) {
+                if (write) outputRow(currentRow).setLineWrap(true);
+                currentRow++;
+                currentColumn = 0;
+            }
+
+            if (write) {
+                int offsetDueToCombiningChar = ((displayWidth <= 0 && currentColumn > 0) ? 1 : 0);
+                outputRow(currentRow).setChar(currentColumn - offsetDueToCombiningChar, codePoint, styleAtCol, linkAtCol);
+            }
+
+            if (displayWidth > 0) {
+                if (cursorAtThisRow && cursorColumn == currentOldCol) {
+                    this.cursorColumn = currentColumn;
+                    this.cursorRow = currentRow;
+                }
+                currentOldCol += displayWidth;
+                currentColumn += displayWidth;
+                if (cursorAtThisRow && this.cursorRow >= 0) break;
+            }
+        }
+        // Old row has been copied. Check if we need to insert newline if old line was not wrapping:
+        if (!lastRow && !oldLine.lineWrap) {
+            currentRow++;
+            currentColumn = 0;
+        }
+    }
+
+    /** If a logical line starts right after the specified row, so that the rows after it can be rewrapped on their own. */
+    static boolean endsLogicalLine(TerminalRow row) {
+        return row != null && !row.lineWrap && !row.isBlank();
+    }
+
+    /**
+     * Find the start of the last logical line ending before the specified index, which must be positive, or 0.
+     *
+     * @param lineStarts for each row the index of the first row of the line wrapped onto it, to skip over wrapped rows.
+     */
+    static int startOfLogicalLineBefore(TerminalRow[] rows, int[] lineStarts, int index) {
+        int start = lineStarts[index - 1];
+        while (start > 0 && !endsLogicalLine(rows[start - 1]))
+            start = lineStarts[start - 1];
+        return start;
+    }
+
+    /** The value of lineStarts for {@link #startOfLogicalLineBefore} for a row added after the specified rows. */
+    static int startOfLogicalLine(ArrayList<TerminalRow> rows, int[] lineStarts) {
+        int index = rows.size();
+        TerminalRow previous = (index == 0) ? null : rows.get(index - 1);
+        return (previous != null && previous.lineWrap) ? lineStarts[index - 1] : index;
+    }
+
+    /** Count the number of output rows the rows in the specified range produce, without creating them. */
+    static int countRows(TerminalRow[] rows, int from, int to, int columns) {
+        TerminalReflow reflow = new TerminalReflow(columns, 0, false);
+        for (int i = from; i < to; i++)
+            reflow.addRow(rows[i], false, -1);
+        return reflow.currentRow;
+    }
+
+}
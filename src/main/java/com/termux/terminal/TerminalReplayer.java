@@ -0,0 +1,163 @@
+package com.termux.terminal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays back a recording made by {@link TerminalRecorder} through a {@link TerminalEmulator}, either as fast as possible
+ * (to measure throughput on a real workload) or with the recorded timing (to reproduce latency problems).
+ * <p>
+ * The recording is read through a memory mapped window which is moved along the file, so recordings larger than the
+ * address space available for mapping can be replayed.
+ */
+public final class TerminalReplayer implements Closeable {
+
+    /** The size of the part of the file mapped at once. Records larger than this get a window of their own. */
+    private static final int WINDOW_SIZE = 16 * 1024 * 1024;
+    private static final int FILE_HEADER_SIZE = 5 * 4;
+
+    /** The statistics of one replay. */
+    public static final class Result {
+        /** The number of bytes passed to {@link TerminalEmulator#append(byte[], int)}. */
+        public long bytesAppended;
+        /** The number of append and resize records played back. */
+        public int appends, resizes;
+        /** The time the replay took, and the time between the first and last record when recorded. */
+        public long elapsedNanos, recordedNanos;
+        /** The total and the longest time spent processing a single record. */
+        public long processingNanos, maxRecordNanos;
+
+        /** Throughput in megabytes (10^6 bytes) per second of processing time. */
+        public double megabytesPerSecond() {
+            return processingNanos == 0 ? 0 : (bytesAppended / 1e6) / (processingNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return "Result[bytes=" + bytesAppended + ", appends=" + appends + ", resizes=" + resizes + ", elapsed=" + elapsedNanos / 1000000 + "ms, recorded="
+                + recordedNanos / 1000000 + "ms, maxRecord=" + maxRecordNanos / 1000 + "us, MB/s=" + String.format("%.1f", megabytesPerSecond()) + "]";
+        }
+    }
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int columns, rows, transcriptRows;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private byte[] chunk = new byte[4096];
+
+    /** Open a recording and read its header. */
+    public TerminalReplayer(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            fileSize = channel.size();
+            map(0, FILE_HEADER_SIZE);
+            if (window.getInt() != TerminalRecorder.MAGIC) throw new IOException("Not a terminal recording: " + file);
+            int version = window.getInt();
+            if (version != TerminalRecorder.VERSION) throw new IOException("Unsupported recording version: " + version);
+            columns = window.getInt();
+            rows = window.getInt();
+            transcriptRows = window.getInt();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /** Create an emulator with the geometry the recorded emulator had when the recording started. */
+    public TerminalEmulator createEmulator(TerminalClient client, PrintStream logger) {
+        return new TerminalEmulator(client, columns, rows, transcriptRows, logger);
+    }
+
+    /**
+     * Play back the whole recording.
+     *
+     * @param emulator the emulator to feed, normally from {@link #createEmulator(TerminalClient, PrintStream)}.
+     * @param realTime if to wait until each record is due according to its timestamp, instead of going as fast as
+     *                 possible.
+     */
+    public Result replay(TerminalEmulator emulator, boolean realTime) throws IOException {
+        Result result = new Result();
+        long position = FILE_HEADER_SIZE;
+        long replayStart = System.nanoTime();
+        long firstTimestamp = -1;
+        while (position < fileSize) {
+            map(position, TerminalRecorder.RECORD_HEADER_SIZE);
+            byte type = window.get();
+            long timestamp = window.getLong();
+            if (firstTimestamp < 0) firstTimestamp = timestamp;
+            result.recordedNanos = timestamp - firstTimestamp;
+
+            if (realTime) {
+                long due = replayStart + (timestamp - firstTimestamp);
+                for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime())
+                    LockSupport.parkNanos(wait);
+            }
+
+            long recordStart = System.nanoTime();
+            switch (type) {
+                case TerminalRecorder.RECORD_APPEND:
+                    int length = window.getInt();
+                    if (length < 0) throw new IOException("Invalid record length " + length + " at " + position);
+                    map(position, TerminalRecorder.RECORD_HEADER_SIZE + length);
+                    window.position(window.position() + TerminalRecorder.RECORD_HEADER_SIZE);
+                    if (chunk.length < length) chunk = new byte[length];
+                    window.get(chunk, 0, length);
+                    emulator.append(chunk, length);
+                    result.bytesAppended += length;
+                    result.appends++;
+                    position += TerminalRecorder.RECORD_HEADER_SIZE + length;
+                    break;
+                case TerminalRecorder.RECORD_RESIZE:
+                    map(position, TerminalRecorder.RESIZE_RECORD_SIZE);
+                    window.position(window.position() + 1 + 8);
+                    emulator.resize(window.getInt(), window.getInt());
+                    result.resizes++;
+                    position += TerminalRecorder.RESIZE_RECORD_SIZE;
+                    break;
+                default:
+                    throw new IOException("Invalid record type " + type + " at " + position);
+            }
+            long recordNanos = System.nanoTime() - recordStart;
+            result.processingNanos += recordNanos;
+            result.maxRecordNanos = Math.max(result.maxRecordNanos, recordNanos);
+        }
+        result.elapsedNanos = System.nanoTime() - replayStart;
+        return result;
+    }
+
+    /** Make sure that the window covers the specified range, and position it at the start of the range. */
+    private void map(long position, int length) throws IOException {
+        if (position + length > fileSize) throw new IOException("Truncated recording at " + position);
+        if (window == null || position < windowStart || position + length > windowStart + window.limit()) {
+            long size = Math.min(Math.max(WINDOW_SIZE, length), fileSize - position);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            window.order(ByteOrder.BIG_ENDIAN);
+            windowStart = position;
+        }
+        window.position((int) (position - windowStart));
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+}
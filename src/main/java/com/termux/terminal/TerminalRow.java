@@ -1,15 +1,31 @@
 package com.termux.terminal;
 
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A row in a terminal, composed of a fixed number of cells.
  * <p>
  * The text in the row is stored in a char[] array, {@link #text}, for quick access during rendering.
+ * <p>
+ * Each change to the text, styles or line wrapping of a row gives it a new {@link #getVersion() version}, unique among
+ * all rows, so that a consumer can tell whether the row at a position is still the one it saw with a single comparison.
+ * A {@link #getHash() hash} of the text and styles is computed when first asked for after a change.
+ * <p>
+ * Cells may refer to an OSC 8 hyperlink by an id into the {@link HyperlinkTable} of the buffer the row is in. A row in a
+ * buffer holds a reference in the table for each such cell, which it gives up when the cell changes or the row is
+ * {@link #releaseLinks() released}. Rows outside of a buffer, such as rows being rewrapped, hold no references.
  */
 public final class TerminalRow {
 
     private static final float SPARE_CAPACITY_FACTOR = 1.5f;
+    /** The heap bytes of a row object and of an array without its elements, with compressed object pointers. */
+    private static final int OBJECT_BYTES = 32, ARRAY_HEADER_BYTES = 16;
+    /** The last version given to a row. */
+    private static final AtomicLong LAST_VERSION = new AtomicLong();
+    /** The multiplier of {@link #mixHash(long, long)}, the FNV-1 64-bit prime. */
+    private static final long HASH_MULTIPLIER = 0x100000001b3L;
 
     /** The number of columns in this terminal row. */
     private final int columns;
@@ -19,14 +35,34 @@ public final class TerminalRow {
     private short spaceUsed;
     /** If this row has been line wrapped due to text output at the end of line. */
     boolean lineWrap;
-    /** The style bits of each cell in the row. See {@link TextStyle}. */
-    final long[] style;
+    /**
+     * The table {@link #styleIndices} index into, or null if the row always stores the styles of its cells in full in
+     * {@link #style}.
+     */
+    private StyleTable styleTable;
+    /** The index in {@link #styleTable} of the style of each cell, or null if they are stored in {@link #style}. */
+    private short[] styleIndices;
+    /** The style bits of each cell in the row if not stored in {@link #styleIndices}, or else null. See {@link TextStyle}. */
+    private long[] style;
+    /** The hyperlink id of each cell, or null if no cell has a hyperlink. */
+    private int[] links;
+    /** The table the ids in {@link #links} refer to and hold references in, or null if the row holds no references. */
+    private HyperlinkTable linkTable;
+    /** The version of this row, or 0 if it has changed since its version was last asked for. */
+    private long version;
+    /** The hash of the text and styles, valid if {@link #hashVersion} is the current version. */
+    private long hash, hashVersion;
 
     /** Construct a blank row (containing only whitespace, ' ') with a specified style. */
     public TerminalRow(int columns, long style) {
+        this(columns, style, null);
+    }
+
+    /** Construct a blank row storing the styles of its cells as indices into a table if possible. */
+    TerminalRow(int columns, long style, StyleTable styleTable) {
         this.columns = columns;
+        this.styleTable = styleTable;
         text = new char[(int) (SPARE_CAPACITY_FACTOR * columns)];
-        this.style = new long[columns];
         clear(style);
     }
 
@@ -36,6 +72,11 @@ public final class TerminalRow {
         final int x2 = line.findStartOfColumn(sourceX2);
         boolean startingFromSecondHalfOfWideChar = (sourceX1 > 0 && line.wideDisplayCharacterStartingAt(sourceX1 - 1));
         final char[] sourceChars = (this == line) ? Arrays.copyOf(line.text, line.text.length) : line.text;
+        final int[] sourceLinks = (this == line && links != null) ? links.clone() : line.links;
+        // Hold the links copied within this row, as the cells referring to them may be overwritten first:
+        if (this == line && sourceLinks != null && linkTable != null)
+            for (int link : sourceLinks)
+                linkTable.retain(link);
         int latestNonCombiningWidth = 0;
         for (int i = x1; i < x2; i++) {
             char sourceChar = sourceChars[i];
@@ -51,8 +92,96 @@ public final class TerminalRow {
                 sourceX1 += latestNonCombiningWidth;
                 latestNonCombiningWidth = w;
             }
-            setChar(destinationX, codePoint, line.getStyle(sourceX1));
+            setChar(destinationX, codePoint, line.getStyle(sourceX1), (sourceLinks == null) ? 0 : sourceLinks[sourceX1]);
         }
+        if (this == line && sourceLinks != null && linkTable != null)
+            for (int link : sourceLinks)
+                linkTable.release(link);
+    }
+
+    /**
+     * Estimate the heap bytes used by this row with its text and style arrays, as laid out by a 64-bit JVM with
+     * compressed object pointers.
+     */
+    long estimateHeapBytes() {
+        long bytes = OBJECT_BYTES + arrayBytes(2L * text.length) + arrayBytes(styleIndices != null ? 2L * columns : 8L * columns);
+        return (links == null) ? bytes : bytes + arrayBytes(4L * columns);
+    }
+
+    /**
+     * The version of the contents of this row, which is greater than that of any row which has not changed since and
+     * changes with each change to this row.
+     */
+    public long getVersion() {
+        if (version == 0) version = LAST_VERSION.incrementAndGet();
+        return version;
+    }
+
+    /** A 64-bit hash of the text, styles and hyperlinks of this row, computed once per {@link #getVersion() version}. */
+    public long getHash() {
+        long currentVersion = getVersion();
+        if (hashVersion != currentVersion) {
+            long h = 0;
+            for (int i = 0; i < spaceUsed; i++)
+                h = mixHash(h, text[i]);
+            if (styleIndices != null) {
+                for (int i = 0; i < columns; i++)
+                    h = mixHash(h, styleTable.styleAt(styleIndices[i]));
+            } else {
+                for (int i = 0; i < columns; i++)
+                    h = mixHash(h, style[i]);
+            }
+            if (links != null)
+                for (int i = 0; i < columns; i++)
+                    h = mixHash(h, links[i]);
+            hash = h;
+            hashVersion = currentVersion;
+        }
+        return hash;
+    }
+
+    private static long mixHash(long hash, long value) {
+        hash = (hash ^ value) * HASH_MULTIPLIER;
+        return hash ^ (hash >>> 32);
+    }
+
+    /** If this row has the same text, styles, hyperlinks and line wrapping as another row of the same number of columns. */
+    boolean contentEquals(TerminalRow other) {
+        if (getHash() != other.getHash() || lineWrap != other.lineWrap || spaceUsed != other.spaceUsed) return false;
+        for (int i = 0; i < spaceUsed; i++)
+            if (text[i] != other.text[i]) return false;
+        for (int i = 0; i < columns; i++)
+            if (getStyle(i) != other.getStyle(i) || getLink(i) != other.getLink(i)) return false;
+        return true;
+    }
+
+    /** Make this row a copy of another row of the same number of columns. */
+    void copyFrom(TerminalRow other) {
+        if (text.length < other.text.length) text = new char[other.text.length];
+        System.arraycopy(other.text, 0, text, 0, other.text.length);
+        spaceUsed = other.spaceUsed;
+        lineWrap = other.lineWrap;
+        for (int i = 0; i < columns; i++) {
+            setStyle(i, other.getStyle(i));
+            setLink(i, other.getLink(i));
+        }
+        version = 0;
+    }
+
+    /** Set or clear {@link #lineWrap}. */
+    void setLineWrap(boolean lineWrap) {
+        if (this.lineWrap == lineWrap) return;
+        this.lineWrap = lineWrap;
+        version = 0;
+    }
+
+    /** Estimate the heap bytes of an array with elements of the specified total size, rounded up to 8 bytes. */
+    static long arrayBytes(long elementBytes) {
+        return (ARRAY_HEADER_BYTES + elementBytes + 7) & ~7L;
+    }
+
+    public int getColumns() {
+        return columns;
     }
 
     public int getSpaceUsed() {
@@ -113,14 +242,36 @@ public final class TerminalRow {
     }
 
     public void clear(long style) {
+        releaseLinks();
         Arrays.fill(text, ' ');
-        Arrays.fill(this.style, style);
+        int index = (styleTable == null) ? -1 : styleTable.indexOf(style);
+        if (index >= 0) {
+            if (styleIndices == null) {
+                styleIndices = new short[columns];
+                this.style = null;
+            }
+            Arrays.fill(styleIndices, (short) index);
+        } else {
+            if (this.style == null) {
+                this.style = new long[columns];
+                styleIndices = null;
+            }
+            Arrays.fill(this.style, style);
+        }
         spaceUsed = (short) columns;
+        lineWrap = false;
+        version = 0;
     }
 
     // https://github.com/steven676/Android-Terminal-Emulator/commit/9a47042620bec87617f0b4f5d50568535668fe26
     public void setChar(int columnToSet, int codePoint, long style) {
-        this.style[columnToSet] = style;
+        setChar(columnToSet, codePoint, style, 0);
+    }
+
+    /** Set a cell as with {@link #setChar(int, int, long)}, making it part of the hyperlink with the specified id, or none if 0. */
+    void setChar(int columnToSet, int codePoint, long style, int link) {
+        setStyle(columnToSet, style);
+        setLink(columnToSet, link);
 
         final int newCodePointDisplayWidth = WcWidth.width(codePoint);
         final boolean newIsCombining = newCodePointDisplayWidth <= 0;
@@ -132,10 +283,10 @@ public final class TerminalRow {
             if (wasExtraColForWideChar) columnToSet--;
         } else {
             // Check if we are overwriting the second half of a wide character starting at the previous column:
-            if (wasExtraColForWideChar) setChar(columnToSet - 1, ' ', style);
+            if (wasExtraColForWideChar) setChar(columnToSet - 1, ' ', style, link);
             // Check if we are overwriting the first half of a wide character starting at the next column:
             boolean overwritingWideCharInNextColumn = newCodePointDisplayWidth == 2 && wideDisplayCharacterStartingAt(columnToSet + 1);
-            if (overwritingWideCharInNextColumn) setChar(columnToSet + 1, ' ', style);
+            if (overwritingWideCharInNextColumn) setChar(columnToSet + 1, ' ', style, link);
         }
 
         char[] text = this.text;
@@ -210,6 +361,13 @@ public final class TerminalRow {
                 // Overwrite the contents of the next column, which mean we actually remove java characters. Due to the
                 // check at the beginning of this method we know that we are not overwriting a wide char.
                 int newNextNextColumnIndex = newNextColumnIndex + (Character.isHighSurrogate(this.text[newNextColumnIndex]) ? 2 : 1);
+                // Along with any combining characters of it:
+                while (newNextNextColumnIndex < spaceUsed) {
+                    char c = text[newNextNextColumnIndex];
+                    boolean surrogatePair = Character.isHighSurrogate(c) && newNextNextColumnIndex + 1 < spaceUsed;
+                    if (WcWidth.width(surrogatePair ? Character.toCodePoint(c, text[newNextNextColumnIndex + 1]) : c) > 0) break;
+                    newNextNextColumnIndex += surrogatePair ? 2 : 1;
+                }
                 int nextLen = newNextNextColumnIndex - newNextColumnIndex;
 
                 // Shift the array leftwards.
@@ -226,7 +384,149 @@ public final class TerminalRow {
     }
 
     public final long getStyle(int column) {
-        return style[column];
+        return (styleIndices != null) ? styleTable.styleAt(styleIndices[column]) : style[column];
+    }
+
+    /** Set the style of a cell, storing the styles of all cells in full if the style table of this row is full. */
+    void setStyle(int column, long style) {
+        version = 0;
+        if (styleIndices != null) {
+            int index = styleTable.indexOf(style);
+            if (index >= 0) {
+                styleIndices[column] = (short) index;
+                return;
+            }
+            this.style = new long[columns];
+            for (int i = 0; i < columns; i++)
+                this.style[i] = styleTable.styleAt(styleIndices[i]);
+            styleIndices = null;
+        }
+        this.style[column] = style;
+    }
+
+    /** The id of the hyperlink of a cell in the {@link HyperlinkTable} of the buffer of this row, or 0 if none. */
+    public int getLink(int column) {
+        return (links == null) ? 0 : links[column];
+    }
+
+    /** If any cell has a hyperlink. */
+    boolean hasLinks() {
+        return links != null;
+    }
+
+    /** Set the hyperlink of a cell, moving the reference held to the new link if the row is in a buffer. */
+    private void setLink(int column, int link) {
+        int old = getLink(column);
+        if (old == link) return;
+        if (links == null) links = new int[columns];
+        if (linkTable != null) {
+            linkTable.retain(link);
+            linkTable.release(old);
+        }
+        links[column] = link;
+        version = 0;
+    }
+
+    /**
+     * Hold references in a table for the hyperlinks of the cells, as is done when a row created outside of a buffer,
+     * such as a rewrapped row, is placed in a buffer whose table its ids refer to. Does nothing if already using it.
+     */
+    void useLinkTable(HyperlinkTable table) {
+        if (table == linkTable) return;
+        linkTable = table;
+        if (links != null)
+            for (int link : links)
+                table.retain(link);
+    }
+
+    /**
+     * Remove the hyperlinks of all cells, giving up the references held for them, as is done when the row leaves the
+     * buffer. Calling this again, as for a row repeated in the history, does nothing.
+     */
+    void releaseLinks() {
+        if (links == null) return;
+        if (linkTable != null)
+            for (int link : links)
+                linkTable.release(link);
+        links = null;
+        version = 0;
+    }
+
+    /** If the styles of the cells are stored as indices into a {@link StyleTable}. */
+    boolean hasStyleIndices() {
+        return styleIndices != null;
+    }
+
+    /**
+     * Store the styles of the cells as indices into a table if they all fit in it, as is done for rows created without
+     * a table, such as rows rewrapped on another thread, when they are placed in a {@link TerminalBuffer}.
+     */
+    void useStyleTable(StyleTable table) {
+        if (table == styleTable) return;
+        long[] fullStyles = new long[columns];
+        for (int i = 0; i < columns; i++)
+            fullStyles[i] = getStyle(i);
+        styleTable = table;
+        short[] indices = new short[columns];
+        for (int i = 0; i < columns; i++) {
+            int index = table.indexOf(fullStyles[i]);
+            if (index < 0) {
+                style = fullStyles;
+                styleIndices = null;
+                return;
+            }
+            indices[i] = (short) index;
+        }
+        styleIndices = indices;
+        style = null;
+    }
+
+    /** Write the contents of this row to a snapshot. See {@link TerminalSnapshot}. */
+    void writeSnapshot(TerminalSnapshot.Output out) throws IOException {
+        out.writeBoolean(lineWrap);
+        out.writeShort(spaceUsed);
+        out.writeChars(text, 0, spaceUsed);
+        if (styleIndices == null) {
+            out.writeLongs(style, 0, columns);
+        } else {
+            for (int i = 0; i < columns; i++)
+                out.writeLong(styleTable.styleAt(styleIndices[i]));
+        }
+    }
+
+    /** Write the hyperlinks of the cells to a snapshot, as ids into the table written by the buffer. */
+    void writeLinksSnapshot(TerminalSnapshot.Output out) throws IOException {
+        out.writeBoolean(links != null);
+        if (links != null) out.writeInts(links, 0, columns);
+    }
+
+    /**
+     * Read the hyperlinks written by {@link #writeLinksSnapshot(TerminalSnapshot.Output)} into a row not in a buffer.
+     *
+     * @param ids the id in the new table of each id in the snapshot, or 0 for an id not in the snapshot table.
+     */
+    void readLinksSnapshot(TerminalSnapshot.Input in, int[] ids) throws IOException {
+        if (!in.readBoolean()) return;
+        links = new int[columns];
+        in.readInts(links, 0, columns);
+        for (int i = 0; i < columns; i++) {
+            int link = links[i];
+            if (link < 0 || link >= ids.length || (link != 0 && ids[link] == 0)) throw new IOException("Invalid hyperlink id: " + link);
+            links[i] = ids[link];
+        }
+    }
+
+    /** Read a row with the specified number of columns written by {@link #writeSnapshot(TerminalSnapshot.Output)}. */
+    static TerminalRow readSnapshot(TerminalSnapshot.Input in, int columns) throws IOException {
+        TerminalRow row = new TerminalRow(columns, TextStyle.NORMAL);
+        row.lineWrap = in.readBoolean();
+        int spaceUsed = in.readShort();
+        if (spaceUsed < 0) throw new IOException("Invalid row length: " + spaceUsed);
+        if (spaceUsed > row.text.length) row.text = new char[spaceUsed];
+        in.readChars(row.text, 0, spaceUsed);
+        row.spaceUsed = (short) spaceUsed;
+        in.readLongs(row.style, 0, columns);
+        return row;
     }
 
 }
@@ -0,0 +1,186 @@
+package com.termux.terminal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes rows of a {@link TerminalBuffer} as the UTF-8 text and escape sequences which recreate them when output to a
+ * terminal of the same number of columns, to hand a session over to another terminal or to export it.
+ * <p>
+ * Rows are separated by CR LF, except after a row with {@link TerminalRow#lineWrap} set, which is written out to its
+ * last column so that the terminal wraps it again. Styles are set with the shortest SGR sequence from the previous
+ * style, trailing blank cells of the normal style are left out and trailing spaces of another style erased with EL. The
+ * OSC 8 hyperlinks of the cells are started and ended with the runs of cells having them. The output starts by
+ * resetting the style, and ends with the normal style and no hyperlink.
+ * <p>
+ * The rows are encoded one at a time as the output is consumed, so that any number of rows can be written with little
+ * memory, either a part at a time into a {@link ByteBuffer} with {@link #write(ByteBuffer)} or all at once to a channel
+ * with {@link #writeTo(WritableByteChannel)}. The buffer must not change until the serializer is done, so serialize on
+ * the thread using the emulator, or into a {@link ByteBuffer} large enough to take it all.
+ */
+public final class TerminalSerializer {
+
+    /** The fewest trailing spaces of a style other than normal to erase with EL instead of writing them. */
+    private static final int MIN_ERASE_CELLS = 4;
+
+    private final TerminalBuffer buffer;
+    private final int endRow;
+    /** The next row to encode. */
+    private int row;
+    /** If no row has been encoded yet, and if the previous row wrapped, so that the next may follow without a line break. */
+    private boolean firstRow = true, previousWrapped;
+
+    private final AnsiOutput out = new AnsiOutput(4096);
+    /** The index in {@link #out} of the first byte not yet written to the target. */
+    private int outPosition;
+    private final StyleRunCursor runs = new StyleRunCursor();
+    private long style = TextStyle.NORMAL;
+    /** The id of the hyperlink of the text written, or 0 if none. */
+    private int link;
+
+    /**
+     * Serialize a range of rows of a buffer.
+     *
+     * @param firstRow the first row to write, from -{@link TerminalBuffer#getActiveTranscriptRows()} -
+     *                 {@link TerminalBuffer#getArchivedRows()} for the oldest row in the history.
+     * @param endRow   the row after the last row to write, which is at most the number of rows of the screen.
+     */
+    public TerminalSerializer(TerminalBuffer buffer, int firstRow, int endRow) {
+        int oldestRow = -buffer.getActiveTranscriptRows() - buffer.getArchivedRows();
+        if (firstRow < oldestRow || firstRow > endRow || endRow > buffer.screenRows)
+            throw new IllegalArgumentException("firstRow=" + firstRow + ", endRow=" + endRow + ", oldestRow=" + oldestRow + ", screenRows=" + buffer.screenRows);
+        this.buffer = buffer;
+        this.row = firstRow;
+        this.endRow = endRow;
+        out.writeCsi();
+        out.writeByte('m');
+    }
+
+    /** Serialize the whole history, including any archive, and the screen of a buffer. */
+    public static TerminalSerializer forTranscript(TerminalBuffer buffer) {
+        return new TerminalSerializer(buffer, -buffer.getActiveTranscriptRows() - buffer.getArchivedRows(), buffer.screenRows);
+    }
+
+    /**
+     * Write as much of the output as fits into a buffer.
+     *
+     * @return true if all of the output has been written, false if the target filled up first.
+     */
+    public boolean write(ByteBuffer target) {
+        while (true) {
+            int pending = out.length() - outPosition;
+            if (pending > 0) {
+                int count = Math.min(pending, target.remaining());
+                target.put(out.array(), outPosition, count);
+                outPosition += count;
+                if (count < pending) return false;
+            }
+            out.clear();
+            outPosition = 0;
+            if (row == endRow) return true;
+            encodeRow(buffer.getRowAt(row++));
+            if (row == endRow) {
+                out.writeStyleChange(style, TextStyle.NORMAL);
+                style = TextStyle.NORMAL;
+                setLink(0);
+            }
+        }
+    }
+
+    /** Write all of the output to a blocking channel. */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(8192);
+        boolean done;
+        do {
+            chunk.clear();
+            done = write(chunk);
+            chunk.flip();
+            while (chunk.hasRemaining())
+                channel.write(chunk);
+        } while (!done);
+    }
+
+    private void encodeRow(TerminalRow line) {
+        int columns = (line == null) ? 0 : line.getColumns();
+        int endColumn = columns, eraseColumn = columns;
+        if (line != null && !line.lineWrap) {
+            // The trailing spaces map to the last columns one to one:
+            int trailingSpaces = 0;
+            for (int i = line.getSpaceUsed() - 1; i >= 0 && line.text[i] == ' ' && trailingSpaces < columns; i--) {
+                // Spaces with a hyperlink have to be written:
+                if (line.getLink(columns - 1 - trailingSpaces) != 0) break;
+                trailingSpaces++;
+            }
+            int firstSpace = columns - trailingSpaces;
+            if (trailingSpaces > 0) {
+                long trailingStyle = line.getStyle(columns - 1);
+                int runStart = columns - 1;
+                while (runStart > firstSpace && line.getStyle(runStart - 1) == trailingStyle)
+                    runStart--;
+                if (trailingStyle == TextStyle.NORMAL) {
+                    endColumn = eraseColumn = runStart;
+                } else if (columns - runStart >= MIN_ERASE_CELLS) {
+                    endColumn = runStart;
+                }
+            }
+        }
+
+        // After a wrapped row the terminal only moves to the next row when text follows:
+        if (!firstRow && (!previousWrapped || endColumn == 0)) {
+            // Scrolling blanks the new row with the current style:
+            out.writeStyleChange(style, TextStyle.NORMAL);
+            style = TextStyle.NORMAL;
+            out.writeByte('\r');
+            out.writeByte('\n');
+        }
+        firstRow = false;
+        previousWrapped = line != null && line.lineWrap;
+
+        if (endColumn > 0) {
+            runs.reset(line, 0, endColumn);
+            while (runs.next()) {
+                out.writeStyleChange(style, runs.getStyle());
+                style = runs.getStyle();
+                if (line.hasLinks()) {
+                    writeRunWithLinks(line);
+                } else {
+                    setLink(0);
+                    out.writeChars(line.text, runs.getCharStart(), runs.getCharEnd());
+                }
+            }
+        }
+        if (endColumn < eraseColumn) {
+            long trailingStyle = line.getStyle(columns - 1);
+            out.writeStyleChange(style, trailingStyle);
+            style = trailingStyle;
+            out.writeCsi();
+            out.writeByte('K');
+        }
+    }
+
+    /** Write the text of the current style run, split into the runs of cells with the same hyperlink. */
+    private void writeRunWithLinks(TerminalRow line) {
+        int cellWidth = runs.isWide() ? 2 : 1;
+        int charStart = runs.getCharStart();
+        for (int column = runs.getColumnStart(); column < runs.getColumnEnd(); ) {
+            int runLink = line.getLink(column);
+            int end = column + cellWidth;
+            while (end < runs.getColumnEnd() && line.getLink(end) == runLink)
+                end += cellWidth;
+            int charEnd = (end < runs.getColumnEnd()) ? line.findStartOfColumn(end) : runs.getCharEnd();
+            setLink(runLink);
+            out.writeChars(line.text, charStart, charEnd);
+            charStart = charEnd;
+            column = end;
+        }
+    }
+
+    /** Start the hyperlink of the text written next, or end it if 0. */
+    private void setLink(int newLink) {
+        if (newLink == link) return;
+        out.writeHyperlink(buffer.getHyperlinkSequenceText(newLink));
+        link = newLink;
+    }
+
+}
@@ -0,0 +1,362 @@
+package com.termux.terminal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shares one {@link TerminalEmulator} with any number of viewers connecting over local sockets, like attaching to a tmux
+ * session.
+ * <p>
+ * Each viewer is sent what the screen shows, encoded by a {@link ScreenDiffEncoder} of its own: the whole screen when
+ * it connects and then the changes. A viewer is only sent the next changes once it has received the previous ones, at
+ * which point they cover everything since, so a slow viewer gets fewer and larger updates instead of a growing backlog.
+ * What viewers with {@link Access#READ_WRITE} access send is passed to {@link TerminalClient#write(byte[], int, int)}
+ * of the session, one read at a time, while input from other viewers is dropped. Since the emulator writes to the same
+ * client, as when replying to a device status report, the input is handed to the thread using the emulator through
+ * an executor given to the server, so that writes from both never interleave. A viewer is not read from again until
+ * its input has been written, so input waiting for the emulator thread is at most one read per viewer.
+ * <p>
+ * A viewer or server channel failing is closed on its own. Only if the selector itself fails does the server stop,
+ * disconnecting all viewers.
+ * <p>
+ * Create the server and call {@link #onScreenUpdated()} on the thread using the emulator, the latter after each
+ * {@link TerminalEmulator#append(byte[], int)} or resize. A copy of the screen is then taken for the server thread,
+ * which does everything else. Listen on any number of bound server channels with {@link #listen(ServerSocketChannel,
+ * Access)}, which must be on a loopback address or a Unix domain socket since viewers are not authenticated.
+ */
+public final class TerminalServer implements Closeable {
+
+    /** What a viewer may do. */
+    public enum Access {
+        /** Only see the screen. */
+        READ_ONLY,
+        /** See the screen and send input to the session. */
+        READ_WRITE
+    }
+
+    private static final int READ_BUFFER_SIZE = 4096;
+    /** How long to wait before accepting again after accepting failed, as when out of file descriptors. */
+    private static final long ACCEPT_RETRY_MILLIS = 100;
+
+    /** A connected viewer. */
+    private static final class Viewer {
+        final SocketChannel channel;
+        final Access access;
+        final ScreenDiffEncoder encoder = new ScreenDiffEncoder();
+        /** The encoded update being written, or null if the last one has been written. */
+        ByteBuffer pending;
+        /** The {@link #frameVersion} last encoded for this viewer, 0 if none. */
+        long sentVersion;
+        /** If input read from this viewer has not been written to the session yet, so it is not read from meanwhile. */
+        boolean inputPending;
+
+        Viewer(SocketChannel channel, Access access) {
+            this.channel = channel;
+            this.access = access;
+        }
+    }
+
+    /** A server channel to start accepting viewers on. */
+    private static final class Listen {
+        final ServerSocketChannel channel;
+        final Access access;
+
+        Listen(ServerSocketChannel channel, Access access) {
+            this.channel = channel;
+            this.access = access;
+        }
+    }
+
+    private final TerminalEmulator emulator;
+    private final TerminalClient session;
+    private final Selector selector;
+    private final Executor emulatorExecutor;
+    private final ConcurrentLinkedQueue<Listen> pendingListens = new ConcurrentLinkedQueue<>();
+    /** Input read from viewers and not yet written to the session. */
+    private final ConcurrentLinkedQueue<byte[]> pendingInput = new ConcurrentLinkedQueue<>();
+    /** If writing the pending input has been handed to the emulator executor and not yet started. */
+    private final AtomicBoolean inputWritePending = new AtomicBoolean();
+    /** Server channels not accepted on until {@link #retryAcceptNanos} after accepting on them failed. */
+    private final ArrayList<SelectionKey> pausedListens = new ArrayList<>();
+    private long retryAcceptNanos;
+    /** If the selector has been woken up for a new frame, to wake it only once however often the screen changes. */
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+    /** The latest copy of the screen, guarded by itself together with {@link #latestVersion}. */
+    private final ScreenFrame latest = new ScreenFrame();
+    private long latestVersion;
+
+    /** A copy of {@link #latest} used by the server thread to encode updates from. */
+    private final ScreenFrame frame = new ScreenFrame();
+    private long frameVersion;
+
+    private final ArrayList<Viewer> viewers = new ArrayList<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * Create a server sharing an emulator, passing input from viewers to the client of the session.
+     *
+     * @param emulatorExecutor runs tasks on the thread using the emulator, as a {@code Handler} of its looper would, to
+     *                         write input from viewers to the session there.
+     */
+    public TerminalServer(TerminalEmulator emulator, TerminalClient session, Executor emulatorExecutor) throws IOException {
+        this.emulator = emulator;
+        this.session = session;
+        this.emulatorExecutor = emulatorExecutor;
+        this.selector = Selector.open();
+        onScreenUpdated();
+    }
+
+    /**
+     * Accept viewers on a bound server channel, which must be on a loopback address or a Unix domain socket. The
+     * channel is closed with the server.
+     */
+    public void listen(ServerSocketChannel channel, Access access) throws IOException {
+        SocketAddress address = channel.getLocalAddress();
+        if (address == null) throw new IllegalArgumentException("Server channel not bound");
+        if (address instanceof InetSocketAddress && !((InetSocketAddress) address).getAddress().isLoopbackAddress())
+            throw new IllegalArgumentException("Not a loopback address: " + address);
+        channel.configureBlocking(false);
+        pendingListens.add(new Listen(channel, access));
+        selector.wakeup();
+    }
+
+    /** Start the server thread. */
+    public synchronized void start() {
+        if (thread != null) throw new IllegalStateException("Already started");
+        thread = new Thread(this::run, "TerminalServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Copy the screen for the viewers. Call on the thread using the emulator after it has changed. */
+    public void onScreenUpdated() {
+        synchronized (latest) {
+            latest.capture(emulator);
+            latestVersion++;
+        }
+        if (wakeupPending.compareAndSet(false, true)) selector.wakeup();
+    }
+
+    /** The number of connected viewers. */
+    public synchronized int getViewerCount() {
+        return viewers.size();
+    }
+
+    /** Disconnect all viewers, close the channels listened on and stop the server thread. */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        Thread serverThread;
+        synchronized (this) {
+            serverThread = thread;
+        }
+        if (serverThread != null && serverThread != Thread.currentThread()) {
+            try {
+                serverThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (SelectionKey key : selector.keys())
+            key.channel().close();
+        for (Listen listen : pendingListens)
+            listen.channel.close();
+        selector.close();
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                if (pausedListens.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.select(Math.max(1, (retryAcceptNanos - System.nanoTime()) / 1_000_000));
+                    if (System.nanoTime() - retryAcceptNanos >= 0) resumeAccepting();
+                }
+                wakeupPending.set(false);
+                Listen listen;
+                while ((listen = pendingListens.poll()) != null) {
+                    try {
+                        listen.channel.register(selector, SelectionKey.OP_ACCEPT, listen);
+                    } catch (IOException e) {
+                        // Closed by the caller before being listened on.
+                        closeQuietly(listen.channel);
+                    }
+                }
+                if (pendingInput.isEmpty()) resumeReading();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.attachment() instanceof Listen) {
+                        accept(key);
+                    } else {
+                        Viewer viewer = (Viewer) key.attachment();
+                        if (key.isReadable()) read(viewer);
+                        if (key.isValid() && key.isWritable()) flush(viewer);
+                    }
+                }
+                sendUpdates();
+            }
+        } catch (ClosedSelectorException e) {
+            // Closed while selecting.
+        } catch (IOException e) {
+            // The selector itself failed, so there is nothing left to serve.
+            closed = true;
+            for (int i = viewers.size() - 1; i >= 0; i--)
+                disconnect(viewers.get(i));
+        }
+    }
+
+    private void accept(SelectionKey key) {
+        Listen listen = (Listen) key.attachment();
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = listen.channel.accept();
+            } catch (IOException e) {
+                if (!listen.channel.isOpen()) {
+                    // Closed by the caller, so stop listening on it:
+                    key.cancel();
+                } else {
+                    // As when out of file descriptors, which may be freed later:
+                    key.interestOps(0);
+                    if (pausedListens.isEmpty()) retryAcceptNanos = System.nanoTime() + ACCEPT_RETRY_MILLIS * 1_000_000;
+                    pausedListens.add(key);
+                }
+                return;
+            }
+            if (channel == null) return;
+            try {
+                channel.configureBlocking(false);
+                Viewer viewer = new Viewer(channel, listen.access);
+                channel.register(selector, SelectionKey.OP_READ, viewer);
+                synchronized (this) {
+                    viewers.add(viewer);
+                }
+            } catch (IOException e) {
+                // The viewer went away before it could be served.
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    private void resumeAccepting() {
+        for (SelectionKey key : pausedListens)
+            if (key.isValid()) key.interestOps(SelectionKey.OP_ACCEPT);
+        pausedListens.clear();
+    }
+
+    /** Read again from the viewers whose input has all been written to the session. */
+    private void resumeReading() {
+        for (Viewer viewer : viewers) {
+            if (viewer.inputPending) {
+                viewer.inputPending = false;
+                updateInterest(viewer);
+            }
+        }
+    }
+
+    private void read(Viewer viewer) {
+        int read;
+        try {
+            readBuffer.clear();
+            read = viewer.channel.read(readBuffer);
+        } catch (IOException e) {
+            read = -1;
+        }
+        if (read < 0) {
+            disconnect(viewer);
+        } else if (read > 0 && viewer.access == Access.READ_WRITE) {
+            pendingInput.add(Arrays.copyOf(readBuffer.array(), read));
+            viewer.inputPending = true;
+            updateInterest(viewer);
+            if (inputWritePending.compareAndSet(false, true)) emulatorExecutor.execute(this::writeInput);
+        }
+    }
+
+    /**
+     * Write the pending input from viewers to the session, on the thread using the emulator, and wake up the server
+     * thread to read more.
+     */
+    private void writeInput() {
+        inputWritePending.set(false);
+        byte[] input;
+        while ((input = pendingInput.poll()) != null)
+            session.write(input, 0, input.length);
+        if (!closed && wakeupPending.compareAndSet(false, true)) selector.wakeup();
+    }
+
+    /** Encode the latest frame for each viewer which is done receiving the previous update and has not seen it. */
+    private void sendUpdates() {
+        synchronized (latest) {
+            if (latestVersion != frameVersion) {
+                frame.copyFrom(latest);
+                frameVersion = latestVersion;
+            }
+        }
+        for (int i = viewers.size() - 1; i >= 0; i--) {
+            Viewer viewer = viewers.get(i);
+            if (viewer.pending == null && viewer.sentVersion != frameVersion) {
+                viewer.pending = ByteBuffer.wrap(viewer.encoder.encode(frame));
+                viewer.sentVersion = frameVersion;
+                flush(viewer);
+            }
+        }
+    }
+
+    /** Write as much as possible of the pending update of a viewer, waiting to be able to write more if needed. */
+    private void flush(Viewer viewer) {
+        try {
+            viewer.channel.write(viewer.pending);
+        } catch (IOException e) {
+            disconnect(viewer);
+            return;
+        }
+        if (!viewer.pending.hasRemaining()) viewer.pending = null;
+        updateInterest(viewer);
+    }
+
+    /** Wait to read from a viewer unless its input is pending, and to write to it while an update is pending. */
+    private void updateInterest(Viewer viewer) {
+        SelectionKey key = viewer.channel.keyFor(selector);
+        if (key == null || !key.isValid()) return;
+        key.interestOps((viewer.inputPending ? 0 : SelectionKey.OP_READ) | (viewer.pending != null ? SelectionKey.OP_WRITE : 0));
+    }
+
+    private void disconnect(Viewer viewer) {
+        synchronized (this) {
+            viewers.remove(viewer);
+        }
+        closeQuietly(viewer.channel);
+    }
+
+    private static void closeQuietly(Closeable channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already gone.
+        }
+    }
+
+}
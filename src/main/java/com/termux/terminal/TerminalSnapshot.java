@@ -0,0 +1,159 @@
+package com.termux.terminal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Saves and restores the complete state of a {@link TerminalEmulator} using a compact versioned binary format, so that a
+ * session can be brought back after a process restart without replaying its whole output through
+ * {@link TerminalEmulator#append(byte[], int)}.
+ * <p>
+ * The snapshot is written one row at a time, so a large transcript never needs to be held in a byte array, and rows
+ * are read back with bulk copies into their char and style arrays.
+ * <p>
+ * The layout is a header ({@link #MAGIC}, {@link #VERSION}) followed by the emulator state (see
+ * {@link TerminalEmulator#writeSnapshot(Output)}), which in turn contains the main
+ * {@link TerminalBuffer} and the alternate one if active. Version 1 always contained the alternate buffer, and
+ * versions before 3 had no OSC 8 hyperlinks.
+ */
+public final class TerminalSnapshot {
+
+    /** The first four bytes of every snapshot, "TMXS". */
+    static final int MAGIC = 0x544d5853;
+    /** The current format version. Bump when changing what is written, and keep reading older versions if possible. */
+    static final int VERSION = 3;
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private TerminalSnapshot() {
+    }
+
+    /** Write the state of an emulator to a stream. The stream is flushed but not closed. */
+    public static void write(TerminalEmulator emulator, OutputStream out) throws IOException {
+        Output output = new Output(out);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        emulator.writeSnapshot(output);
+        output.flush();
+    }
+
+    /**
+     * Read a snapshot written by {@link #write(TerminalEmulator, OutputStream)} into a new emulator. The stream is not
+     * closed.
+     *
+     * @param client the client the restored emulator should be bound to.
+     * @param logger where the restored emulator should log.
+     */
+    public static TerminalEmulator read(InputStream in, TerminalClient client, PrintStream logger) throws IOException {
+        Input input = new Input(in);
+        if (input.readInt() != MAGIC) throw new IOException("Not a terminal snapshot");
+        int version = input.readInt();
+        if (version < 1 || version > VERSION) throw new IOException("Unsupported snapshot version: " + version);
+        return TerminalEmulator.readSnapshot(input, version, client, logger);
+    }
+
+    /** A buffered output stream with bulk writers for the arrays of a {@link TerminalRow}. */
+    static final class Output extends DataOutputStream {
+
+        private final ByteBuffer scratch = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+
+        Output(OutputStream out) {
+            super(new BufferedOutputStream(out, STREAM_BUFFER_SIZE));
+        }
+
+        void writeChars(char[] chars, int offset, int length) throws IOException {
+            while (length > 0) {
+                int count = Math.min(length, scratch.capacity() / 2);
+                scratch.clear();
+                scratch.asCharBuffer().put(chars, offset, count);
+                write(scratch.array(), 0, count * 2);
+                offset += count;
+                length -= count;
+            }
+        }
+
+        void writeLongs(long[] longs, int offset, int length) throws IOException {
+            while (length > 0) {
+                int count = Math.min(length, scratch.capacity() / 8);
+                scratch.clear();
+                scratch.asLongBuffer().put(longs, offset, count);
+                write(scratch.array(), 0, count * 8);
+                offset += count;
+                length -= count;
+            }
+        }
+
+        void writeInts(int[] ints, int offset, int length) throws IOException {
+            while (length > 0) {
+                int count = Math.min(length, scratch.capacity() / 4);
+                scratch.clear();
+                scratch.asIntBuffer().put(ints, offset, count);
+                write(scratch.array(), 0, count * 4);
+                offset += count;
+                length -= count;
+            }
+        }
+
+        /** Write a string which may be null. */
+        void writeNullableString(String s) throws IOException {
+            writeBoolean(s != null);
+            if (s != null) writeUTF(s);
+        }
+    }
+
+    /** A buffered input stream with bulk readers for the arrays of a {@link TerminalRow}. */
+    static final class Input extends DataInputStream {
+
+        private final ByteBuffer scratch = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+
+        Input(InputStream in) {
+            super(new BufferedInputStream(in, STREAM_BUFFER_SIZE));
+        }
+
+        void readChars(char[] chars, int offset, int length) throws IOException {
+            while (length > 0) {
+                int count = Math.min(length, scratch.capacity() / 2);
+                readFully(scratch.array(), 0, count * 2);
+                scratch.clear();
+                scratch.asCharBuffer().get(chars, offset, count);
+                offset += count;
+                length -= count;
+            }
+        }
+
+        void readLongs(long[] longs, int offset, int length) throws IOException {
+            while (length > 0) {
+                int count = Math.min(length, scratch.capacity() / 8);
+                readFully(scratch.array(), 0, count * 8);
+                scratch.clear();
+                scratch.asLongBuffer().get(longs, offset, count);
+                offset += count;
+                length -= count;
+            }
+        }
+
+        void readInts(int[] ints, int offset, int length) throws IOException {
+            while (length > 0) {
+                int count = Math.min(length, scratch.capacity() / 4);
+                readFully(scratch.array(), 0, count * 4);
+                scratch.clear();
+                scratch.asIntBuffer().get(ints, offset, count);
+                offset += count;
+                length -= count;
+            }
+        }
+
+        /** Read a string written by {@link Output#writeNullableString(String)}. */
+        String readNullableString() throws IOException {
+            return readBoolean() ? readUTF() : null;
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.termux.terminal;
+
+import java.io.IOException;
+
+/**
+ * A fixed-size ring buffer of the most recently completed escape sequences of a {@link TerminalEmulator}, to find out
+ * what a program sent when the screen ends up looking wrong.
+ * <p>
+ * Enable for a session with {@link TerminalEmulator#setTrace(TerminalTrace)}. Each sequence is stored as a fixed number
+ * of ints - the parser state, the final character, the outcome, the cursor position and the numeric arguments - so
+ * recording does not allocate and tracing can be left on under load. Write out what has been recorded with
+ * {@link #dump(Appendable)}.
+ * <p>
+ * Like {@link TerminalEmulator} this class is not thread safe, so dump from the thread using the emulator.
+ */
+public final class TerminalTrace {
+
+    /** The sequence was handled. */
+    static final int RESULT_OK = 0;
+    /** The sequence, or a parameter to it, was not recognized. */
+    static final int RESULT_UNKNOWN = 1;
+    /** The sequence was recognized but is not implemented. */
+    static final int RESULT_UNIMPLEMENTED = 2;
+    /** The sequence had invalid arguments. */
+    static final int RESULT_INVALID = 3;
+
+    /** The most numeric arguments kept for a sequence. */
+    static final int MAX_ARGS = 16;
+
+    private static final int STATE = 0, FINAL_CHAR = 1, RESULT = 2, CURSOR_ROW = 3, CURSOR_COL = 4, ARG_COUNT = 5, ARGS = 6;
+    private static final int ENTRY_INTS = ARGS + MAX_ARGS;
+
+    private final int capacity;
+    private final int[] entries;
+    /** The number of sequences recorded since created or cleared, of which the last {@link #capacity} are kept. */
+    private long recorded;
+
+    /** @param capacity the number of most recent sequences to keep. */
+    public TerminalTrace(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        this.capacity = capacity;
+        this.entries = new int[capacity * ENTRY_INTS];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** The number of sequences recorded since created or cleared, including those no longer kept. */
+    public long getRecordedCount() {
+        return recorded;
+    }
+
+    public void clear() {
+        recorded = 0;
+    }
+
+    /**
+     * Record a completed sequence.
+     *
+     * @param args     the numeric arguments, of which the first argCount are kept, with -1 for an omitted argument.
+     */
+    void record(int state, int finalChar, int result, int cursorRow, int cursorCol, int[] args, int argCount) {
+        int offset = (int) (recorded % capacity) * ENTRY_INTS;
+        argCount = Math.min(argCount, MAX_ARGS);
+        entries[offset + STATE] = state;
+        entries[offset + FINAL_CHAR] = finalChar;
+        entries[offset + RESULT] = result;
+        entries[offset + CURSOR_ROW] = cursorRow;
+        entries[offset + CURSOR_COL] = cursorCol;
+        entries[offset + ARG_COUNT] = argCount;
+        System.arraycopy(args, 0, entries, offset + ARGS, argCount);
+        recorded++;
+    }
+
+    /**
+     * Write the kept sequences, oldest first, one per line such as "#12 CSI 'm' 31;42 at 0,3", followed by the outcome
+     * if it was not handled.
+     */
+    public void dump(Appendable out) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (long index = Math.max(0, recorded - capacity); index < recorded; index++) {
+            int offset = (int) (index % capacity) * ENTRY_INTS;
+            line.setLength(0);
+            line.append('#').append(index).append(' ').append(TerminalEmulator.escapeStateName(entries[offset + STATE])).append(' ');
+            int finalChar = entries[offset + FINAL_CHAR];
+            if (finalChar > ' ' && finalChar < 127) {
+                line.append('\'').append((char) finalChar).append('\'');
+            } else {
+                line.append(String.format("U+%04X", finalChar));
+            }
+            int argCount = entries[offset + ARG_COUNT];
+            for (int i = 0; i < argCount; i++) {
+                line.append(i == 0 ? ' ' : ';');
+                int arg = entries[offset + ARGS + i];
+                if (arg >= 0) line.append(arg);
+            }
+            line.append(" at ").append(entries[offset + CURSOR_ROW]).append(',').append(entries[offset + CURSOR_COL]);
+            switch (entries[offset + RESULT]) {
+                case RESULT_UNKNOWN:
+                    line.append(" UNKNOWN");
+                    break;
+                case RESULT_UNIMPLEMENTED:
+                    line.append(" UNIMPLEMENTED");
+                    break;
+                case RESULT_INVALID:
+                    line.append(" INVALID");
+                    break;
+            }
+            out.append(line).append('\n');
+        }
+    }
+
+}
@@ -3,6 +3,12 @@ package com.termux.terminal;
 
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 public class HistoryTest extends TerminalTestCase {
 
 	@Test
@@ -34,4 +40,178 @@ public class HistoryTest extends TerminalTestCase {
 		enterString("LMN").assertLinesAre("111", "IJK", "LMN", "444").assertHistoryStartsWith("FGH", "CDE");
 	}
 
+	@Test
+	public void testLogicalLines() {
+		withTerminalSized(3, 3).enterString("abcdefg\r\nhi\r\njklmnop\r\nq");
+		assertLinesAre("mno", "p  ", "q  ");
+		TerminalBuffer screen = terminal.getScreen();
+		assertEquals(-1, screen.getLogicalLineStart(1));
+		assertEquals(1, screen.getLogicalLineEnd(-1));
+		// The start of the line of "abcdefg" has been scrolled out of the history:
+		assertEquals(-3, screen.getLogicalLineStart(-3));
+		assertEquals(-3, screen.getLogicalLineEnd(-3));
+		assertEquals(-2, screen.getLogicalLineEnd(-2));
+		assertEquals(2, screen.getLogicalLineStart(2));
+		assertEquals("jklmnop", screen.getSelectedText(0, screen.getLogicalLineStart(0), 3, screen.getLogicalLineEnd(0)));
+
+		enterString("\r\nr\r\ns");
+		assertEquals(-3, screen.getLogicalLineStart(-1));
+		assertEquals(-1, screen.getLogicalLineEnd(-3));
+		enterString("\r\nt");
+		assertEquals(-3, screen.getLogicalLineStart(-2));
+		assertEquals(-2, screen.getLogicalLineEnd(-3));
+	}
+
+	@Test
+	public void testLogicalLinesMatchLineWrap() {
+		Random random = new Random(1);
+		terminal = new TerminalEmulator(output, 7, 5, 40, System.out);
+		for (int step = 0; step < 600; step++) {
+			int action = random.nextInt(20);
+			if (action == 0) {
+				terminal.resize(3 + random.nextInt(10), 2 + random.nextInt(6));
+			} else if (action == 1) {
+				enterString(random.nextBoolean() ? "\033[2;4r\033[4;1H" : "\033[r");
+			} else {
+				StringBuilder text = new StringBuilder();
+				for (int i = random.nextInt(30); i > 0; i--)
+					text.append((char) ('a' + random.nextInt(26)));
+				enterString(text.append(random.nextInt(4) == 0 ? "" : "\r\n").toString());
+			}
+
+			TerminalBuffer screen = terminal.getScreen();
+			int firstRow = -screen.getActiveTranscriptRows();
+			for (int row = firstRow; row < screen.screenRows; row++) {
+				int start = row, end = row;
+				while (start > firstRow && screen.getLineWrap(start - 1))
+					start--;
+				while (end < screen.screenRows - 1 && screen.getLineWrap(end))
+					end++;
+				assertEquals("start of row " + row + " at step " + step, start, screen.getLogicalLineStart(row));
+				assertEquals("end of row " + row + " at step " + step, end, screen.getLogicalLineEnd(row));
+			}
+		}
+	}
+
+	@Test
+	public void testHistoryBudget() {
+		terminal = new TerminalEmulator(output, 10, 4, 1000, System.out);
+		long rowBytes = new TerminalRow(10, TextStyle.NORMAL, new StyleTable()).estimateHeapBytes();
+		terminal.setHistoryBudget(50 * rowBytes);
+		for (int i = 0; i < 200; i++)
+			enterString("line" + i + "\r\n");
+		TerminalBuffer screen = terminal.getScreen();
+		assertEquals(50, screen.getActiveTranscriptRows());
+		assertEquals(50 * rowBytes, screen.getHistoryBytes());
+		assertLineIs(-50, "line147   ");
+		assertEquals(screen.getHistoryBytes() + 4 * rowBytes + new StyleTable().estimateHeapBytes() + new HyperlinkTable().estimateHeapBytes(),
+			screen.getHeapBytes() - TerminalRow.arrayBytes(4 * 1000) * 2);
+
+		// Wider rows use more memory, so fewer of them fit:
+		terminal.resize(30, 4);
+		screen = terminal.getScreen();
+		screen.rewrapHistory();
+		assertEquals(sumHistoryBytes(screen), screen.getHistoryBytes());
+		assertTrue(screen.getHistoryBytes() <= 50 * rowBytes);
+		assertTrue(screen.getActiveTranscriptRows() < 50);
+		assertLineIs(-1, String.format("%-30s", "line196"));
+
+		// Lowering the budget evicts right away, and no budget lets the history grow to its number of rows:
+		terminal.setHistoryBudget(0);
+		assertEquals(0, screen.getActiveTranscriptRows());
+		assertEquals(0, screen.getHistoryBytes());
+		terminal.setHistoryBudget(Long.MAX_VALUE);
+		for (int i = 0; i < 2000; i++)
+			enterString("line" + i + "\r\n");
+		assertEquals(996, screen.getActiveTranscriptRows());
+		assertEquals(sumHistoryBytes(screen), screen.getHistoryBytes());
+	}
+
+	@Test
+	public void testHistoryDeduplication() {
+		terminal = new TerminalEmulator(output, 10, 4, 1000, System.out);
+		terminal.setHistoryDeduplication(true);
+		for (int i = 0; i < 500; i++)
+			enterString("same\r\n");
+		enterString("other\r\n");
+		for (int i = 0; i < 3; i++)
+			enterString("\033[31msame\033[m\r\n");
+		enterString("\r\n\r\n\r\n");
+		TerminalBuffer screen = terminal.getScreen();
+		assertEquals(504, screen.getActiveTranscriptRows());
+		assertLineIs(-504, "same      ");
+		assertLineIs(-5, "same      ");
+		assertLineIs(-4, "other     ");
+		assertLineIs(-1, "same      ");
+		assertEquals(-1, screen.getLogicalLineStart(-1));
+		assertEquals(-300, screen.getLogicalLineEnd(-300));
+
+		// The repeated rows are shared and counted once, while the red ones differ from the plain ones:
+		assertTrue(screen.rows[screen.externalToInternalRow(-504)] == screen.rows[screen.externalToInternalRow(-5)]);
+		assertTrue(screen.rows[screen.externalToInternalRow(-3)] != screen.rows[screen.externalToInternalRow(-5)]);
+		long rowBytes = new TerminalRow(10, TextStyle.NORMAL, new StyleTable()).estimateHeapBytes();
+		assertEquals(3 * rowBytes, screen.getHistoryBytes());
+		assertEquals(sumHistoryBytes(screen), screen.getHistoryBytes());
+		assertEquals(504, screen.getSelectedText(0, -504, 10, -1).split("\n").length);
+
+		// Evicting keeps the shared row until its last repetition goes:
+		terminal.setHistoryBudget(2 * rowBytes);
+		assertEquals(4, screen.getActiveTranscriptRows());
+		assertEquals(2 * rowBytes, screen.getHistoryBytes());
+		terminal.setHistoryBudget(Long.MAX_VALUE);
+		for (int i = 0; i < 20; i++)
+			enterString("same\r\n");
+
+		// Rows revealed on the screen by growing it get rows of their own, as they may change:
+		terminal.resize(10, 12);
+		assertEquals(sumHistoryBytes(screen), screen.getHistoryBytes());
+		for (int row = 1; row < 12; row++)
+			assertTrue(screen.rows[screen.externalToInternalRow(row)] != screen.rows[screen.externalToInternalRow(row - 1)]);
+		enterString("\033[Hchanged");
+		assertLineIs(0, "changed   ");
+		assertLineIs(-1, "same      ");
+		assertLineIs(1, "same      ");
+
+		// Shrinking it again moves rows back into the history, where they are shared again:
+		terminal.resize(10, 4);
+		assertEquals(sumHistoryBytes(screen), screen.getHistoryBytes());
+		assertTrue(screen.rows[screen.externalToInternalRow(-1)] == screen.rows[screen.externalToInternalRow(-2)]);
+	}
+
+	@Test
+	public void testHistoryDeduplicationMatchesPlainHistory() {
+		TerminalEmulator plain = new TerminalEmulator(new MockTerminalClient(), 8, 4, 60, System.out);
+		terminal = new TerminalEmulator(output, 8, 4, 60, System.out);
+		terminal.setHistoryDeduplication(true);
+		Random random = new Random(5);
+		String[] pieces = {"same\r\n", "same\r\n", "same\r\n", "\r\n", "\033[32msame\033[m\r\n", "a line wrapping around\r\n",
+			"\033[2J", "\033[H", "x"};
+		for (int step = 0; step < 3000; step++) {
+			if (random.nextInt(100) == 0) {
+				int columns = 6 + random.nextInt(4), rows = 3 + random.nextInt(4);
+				plain.resize(columns, rows);
+				terminal.resize(columns, rows);
+			} else {
+				byte[] piece = pieces[random.nextInt(pieces.length)].getBytes(StandardCharsets.UTF_8);
+				plain.append(piece, piece.length);
+				terminal.append(piece, piece.length);
+			}
+			TerminalBuffer screen = terminal.getScreen();
+			assertEquals("step " + step, plain.getScreen().getTranscriptText(), screen.getTranscriptText());
+			assertEquals("step " + step, sumHistoryBytes(screen), screen.getHistoryBytes());
+		}
+	}
+
+	/** Sum the heap bytes of the history rows, counting rows shared with the row before once. */
+	private static long sumHistoryBytes(TerminalBuffer screen) {
+		long bytes = 0;
+		TerminalRow previous = null;
+		for (int row = -screen.getActiveTranscriptRows(); row < 0; row++) {
+			TerminalRow line = screen.rows[screen.externalToInternalRow(row)];
+			if (line != previous) bytes += line.estimateHeapBytes();
+			previous = line;
+		}
+		return bytes;
+	}
+
 }
@@ -9,6 +9,7 @@ import java.util.List;
 import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 /** "ESC ]" is the Operating System Command. */
 public class OperatingSystemControlTest extends TerminalTestCase {
@@ -155,6 +156,82 @@ public class OperatingSystemControlTest extends TerminalTestCase {
 		assertEquals(text, output.clipboardPuts.get(0));
 	}
 
+	@Test
+	public void testHyperlinks() {
+		// "OSC 8 ; $PARAMS ; $URI ST" => Hyperlink the following text to $URI, or end the hyperlink if $URI is empty.
+		withTerminalSized(10, 3).enterString("a\033]8;;http://x.org/\033\\bc\033]8;id=1:k=v;file:///tmp\007d\033]8;;\007e");
+		TerminalBuffer screen = terminal.getScreen();
+		assertEquals(null, screen.getHyperlinkAt(0, 0));
+		assertEquals("http://x.org/", screen.getHyperlinkAt(0, 1));
+		assertEquals("http://x.org/", screen.getHyperlinkAt(0, 2));
+		assertEquals("file:///tmp", screen.getHyperlinkAt(0, 3));
+		assertEquals(null, screen.getHyperlinkAt(0, 4));
+		assertEquals(null, terminal.getHyperlinkUri());
+		assertEquals(2, screen.getHyperlinkCount());
+
+		// Overwritten and erased cells drop their links, which are removed when no longer used:
+		enterString("\033[1;2HX");
+		assertEquals(null, screen.getHyperlinkAt(0, 1));
+		assertEquals(2, screen.getHyperlinkCount());
+		enterString("\033[2K");
+		assertEquals(null, screen.getHyperlinkAt(0, 3));
+		assertEquals(0, screen.getHyperlinkCount());
+
+		// The current link is kept while set, and dropped by a reset:
+		enterString("\033]8;;http://y.org/\007");
+		assertEquals("http://y.org/", terminal.getHyperlinkUri());
+		enterString("y");
+		assertEquals(1, screen.getHyperlinkCount());
+		terminal.reset();
+		assertEquals(null, terminal.getHyperlinkUri());
+	}
+
+	@Test
+	public void testHyperlinkIsReleasedWithTheAlternateBuffer() {
+		withTerminalSized(10, 3).enterString("\033[?1049h\033]8;;http://x.org/\007x\033[2J");
+		TerminalBuffer altBuffer = terminal.altBuffer;
+		// Only the current link refers to it:
+		assertEquals(1, altBuffer.getHyperlinkCount());
+		enterString("\033[?1049l");
+		assertNull(terminal.altBuffer);
+		assertEquals(0, altBuffer.getHyperlinkCount());
+
+		// The link continues in the main buffer:
+		enterString("y");
+		assertEquals("http://x.org/", terminal.getScreen().getHyperlinkAt(0, 0));
+	}
+
+	@Test
+	public void testHyperlinksAreDroppedWithTheirRows() {
+		withTerminalSized(10, 3);
+		for (int i = 0; i < 100; i++)
+			enterString("\033]8;;http://x.org/" + i + "\007link\033]8;;\007\r\n");
+		TerminalBuffer screen = terminal.getScreen();
+		// Only the rows kept in the history and on the screen refer to links:
+		assertEquals(screen.getActiveTranscriptRows() + 2, screen.getHyperlinkCount());
+		assertEquals("http://x.org/99", screen.getHyperlinkAt(1, 0));
+		assertEquals("http://x.org/98", screen.getHyperlinkAt(0, 3));
+		assertEquals("http://x.org/95", screen.getHyperlinkAt(-3, 0));
+
+		// Rewrapping keeps the links of the rows kept:
+		resize(3, 3);
+		screen.rewrapHistory();
+		assertEquals("http://x.org/99", screen.getHyperlinkAt(0, 0));
+		assertEquals("http://x.org/99", screen.getHyperlinkAt(1, 0));
+		assertEquals("http://x.org/98", screen.getHyperlinkAt(-2, 0));
+		assertEquals(null, screen.getHyperlinkAt(-1, 1));
+		int linkedRows = 0;
+		for (int row = -screen.getActiveTranscriptRows(); row < 3; row++)
+			if (screen.getHyperlinkAt(row, 0) != null) linkedRows++;
+		assertEquals((linkedRows + 1) / 2, screen.getHyperlinkCount());
+
+		// Rows scrolled out of the history and cleared from the screen drop theirs:
+		for (int i = 0; i < 10; i++)
+			enterString("plain\r\n");
+		enterString("\033[2J");
+		assertEquals(0, screen.getHyperlinkCount());
+	}
+
 	@Test
 	public void testResettingTerminalResetsColor() {
 		// "OSC 4; $INDEX; $COLORSPEC BEL" => Change color $INDEX to the color specified by $COLORSPEC.
@@ -2,7 +2,10 @@ package com.termux.terminal;
 
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class ResizeTest extends TerminalTestCase {
 
@@ -14,6 +17,16 @@ public class ResizeTest extends TerminalTestCase {
 		resize(cols, 3).assertCursorAt(2, 2).assertLinesAre("777", "888", "999");
 	}
 
+	@Test
+	public void testEpoch() {
+		withTerminalSized(3, 3).enterString("111222333444");
+		long epoch = terminal.getScreen().getEpoch();
+		enterString("555");
+		assertEquals(epoch, terminal.getScreen().getEpoch());
+		resize(3, 5);
+		assertTrue(terminal.getScreen().getEpoch() != epoch);
+	}
+
 	@Test
 	public void testResizeWhenInAltBuffer() {
 		final int rows = 3, cols = 3;
@@ -226,4 +239,74 @@ public class ResizeTest extends TerminalTestCase {
 		resize(5, rows).assertLinesAre("ＱＲ ", "     ", "     ", "     ");
 	}
 
+	/** Write numbered lines of varying length, returning the expected transcript. */
+	private String enterNumberedLines(int count) {
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			StringBuilder line = new StringBuilder("line" + i);
+			for (int j = 0; j < i % 13; j++)
+				line.append((char) ('a' + j));
+			enterString(line + "\r\n");
+			expected.append(line).append('\n');
+		}
+		return expected.toString().trim();
+	}
+
+	@Test
+	public void testResizeColumnsWithLargeHistory() {
+		terminal = new TerminalEmulator(output, 10, 4, 2000, System.out);
+		String expected = enterNumberedLines(500);
+		assertEquals(expected, terminal.getScreen().getTranscriptText());
+
+		resize(7, 4);
+		assertLinesAre("abcd   ", "line499", "abcde  ", "       ").assertCursorAt(3, 0);
+		// Rows of history rewrapped when accessed, from the oldest and from the newest:
+		assertLineIs(-terminal.getScreen().getActiveTranscriptRows(), "line0  ");
+		assertLineIs(-1, "line498");
+		assertEquals(expected, terminal.getScreen().getTranscriptText());
+
+		// Repeated resizing before all history has been accessed:
+		resize(12, 4).resize(5, 4).resize(10, 4);
+		assertEquals(expected, terminal.getScreen().getTranscriptText());
+		assertLinesAre("d         ", "line499abc", "de        ", "          ").assertCursorAt(3, 0);
+	}
+
+	@Test
+	public void testRewrapHistoryInParallel() {
+		TerminalEmulator lazy = new TerminalEmulator(output, 10, 4, 5000, System.out);
+		terminal = new TerminalEmulator(output, 10, 4, 5000, System.out);
+		String expected = enterNumberedLines(2000);
+		byte[] input = (expected + "\n").replace("\n", "\r\n").getBytes(StandardCharsets.UTF_8);
+		lazy.append(input, input.length);
+		lazy.resize(7, 4);
+		resize(7, 4);
+
+		// Enough segments to be rewrapped in parallel, with the same result as rewrapping them one at a time:
+		terminal.getScreen().rewrapHistory();
+		TerminalBuffer screen = terminal.getScreen();
+		assertEquals(lazy.getScreen().getActiveTranscriptRows(), screen.getActiveTranscriptRows());
+		for (int row = -screen.getActiveTranscriptRows(); row < 4; row++) {
+			assertEquals(lazy.getScreen().getSelectedText(0, row, 7, row), screen.getSelectedText(0, row, 7, row));
+			assertEquals(lazy.getScreen().getLineWrap(row), screen.getLineWrap(row));
+		}
+		assertEquals(expected, screen.getTranscriptText());
+		assertEquals(lazy.getCursorRow(), terminal.getCursorRow());
+		assertEquals(lazy.getCursorCol(), terminal.getCursorCol());
+	}
+
+	@Test
+	public void testScrollingAfterResizeColumns() {
+		terminal = new TerminalEmulator(output, 10, 4, 60, System.out);
+		enterNumberedLines(30);
+		// Rewrapping makes the text need more rows than the history can hold:
+		resize(6, 4);
+		assertEquals(56, terminal.getScreen().getActiveTranscriptRows());
+		// Scroll rows not yet rewrapped out of the history:
+		enterString("new1\r\nnew2\r\nnew3\r\nnew4\r\nnew5");
+		assertLinesAre("new2  ", "new3  ", "new4  ", "new5  ");
+		String transcript = terminal.getScreen().getTranscriptText();
+		assertTrue(transcript, transcript.endsWith("line28ab\nline29abc\nnew1\nnew2\nnew3\nnew4\nnew5"));
+		assertEquals(56, terminal.getScreen().getActiveTranscriptRows());
+	}
+
 }
@@ -0,0 +1,79 @@
+package com.termux.terminal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ResolvedStyleCacheTest extends TerminalTestCase {
+
+	private int color(int index) {
+		return terminal.colors.currentColors[index];
+	}
+
+	@Test
+	public void testResolve() {
+		withTerminalSized(5, 3);
+		ResolvedStyleCache cache = terminal.getResolvedStyles();
+
+		cache.resolve(TextStyle.NORMAL);
+		assertEquals(color(TextStyle.COLOR_INDEX_FOREGROUND), cache.getForeColor());
+		assertEquals(color(TextStyle.COLOR_INDEX_BACKGROUND), cache.getBackColor());
+		assertEquals(0, cache.getEffect());
+
+		// Bold gives bright colors, and inverse swaps colors:
+		cache.resolve(TextStyle.encode(1, 0xff123456, TextStyle.CHARACTER_ATTRIBUTE_BOLD | TextStyle.CHARACTER_ATTRIBUTE_INVERSE));
+		assertEquals(0xff123456, cache.getForeColor());
+		assertEquals(color(9), cache.getBackColor());
+		assertEquals(TextStyle.CHARACTER_ATTRIBUTE_BOLD, cache.getEffect());
+		cache.setBoldAsBright(false);
+		cache.resolve(TextStyle.encode(1, 0xff123456, TextStyle.CHARACTER_ATTRIBUTE_BOLD | TextStyle.CHARACTER_ATTRIBUTE_INVERSE));
+		assertEquals(color(1), cache.getBackColor());
+
+		// Dim darkens the text:
+		cache.resolve(TextStyle.encode(0xff9060f0, 2, TextStyle.CHARACTER_ATTRIBUTE_DIM));
+		assertEquals(0xff6040a0, cache.getForeColor());
+		assertEquals(TextStyle.CHARACTER_ATTRIBUTE_DIM, cache.getEffect());
+	}
+
+	@Test
+	public void testInvalidation() {
+		withTerminalSized(5, 3);
+		ResolvedStyleCache cache = terminal.getResolvedStyles();
+		long style = TextStyle.encode(1, TextStyle.COLOR_INDEX_BACKGROUND, 0);
+		cache.resolve(style);
+		assertEquals(color(1), cache.getForeColor());
+		cache.resolve(style);
+		assertEquals(1, cache.getHits());
+
+		// Changing a color with OSC 4:
+		enterString("\033]4;1;#102030\007");
+		cache.resolve(style);
+		assertEquals(0xff102030, cache.getForeColor());
+
+		// Reverse video:
+		enterString("\033[?5h");
+		cache.resolve(style);
+		assertEquals(color(TextStyle.COLOR_INDEX_BACKGROUND), cache.getForeColor());
+		assertEquals(0xff102030, cache.getBackColor());
+		enterString("\033[?5l");
+		cache.resolve(style);
+		assertEquals(0xff102030, cache.getForeColor());
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void testManyStyles() {
+		withTerminalSized(5, 3);
+		ResolvedStyleCache cache = terminal.getResolvedStyles();
+		// More styles than fit, resolved twice, which should give the same colors:
+		for (int round = 0; round < 2; round++) {
+			for (int i = 0; i < 1000; i++) {
+				cache.resolve(TextStyle.encode(0xff000000 | i, i % 256, 0));
+				assertEquals(0xff000000 | i, cache.getForeColor());
+				assertEquals(color(i % 256), cache.getBackColor());
+			}
+		}
+		assertEquals(2000, cache.getHits() + cache.getMisses());
+	}
+
+}
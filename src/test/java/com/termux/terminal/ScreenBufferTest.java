@@ -3,6 +3,9 @@ package com.termux.terminal;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class ScreenBufferTest extends TerminalTestCase {
 
@@ -30,6 +33,74 @@ public class ScreenBufferTest extends TerminalTestCase {
 		assertEquals("XX\nXYY\n YY", screen.getTranscriptText());
 	}
 
+	@Test
+	public void testRowsAreReused() {
+		withTerminalSized(5, 3).enterString("\033[42mA\r\nB");
+		TerminalBuffer screen = terminal.getScreen();
+		TerminalRow row = screen.rows[screen.externalToInternalRow(1)];
+		// Erasing the screen clears the existing rows:
+		enterString("\033[2J").assertLinesAre("     ", "     ", "     ");
+		assertSame(row, screen.rows[screen.externalToInternalRow(1)]);
+		assertEquals(2, TextStyle.decodeBackColor(getStyleAt(1, 4)));
+
+		// Rows evicted from the history to stay within the budget are reused for new rows:
+		terminal.setHistoryBudget(0);
+		enterString("\r\n\r\n");
+		row = screen.rows[screen.externalToInternalRow(0)];
+		enterString("\r\n").assertLinesAre("     ", "     ", "     ");
+		assertEquals(0, screen.getActiveTranscriptRows());
+		assertSame(row, screen.rows[screen.externalToInternalRow(2)]);
+	}
+
+	/** Write a character in each column of a row, each with a truecolor foreground numbered from the first. */
+	private void enterTruecolorRow(int firstColor) {
+		for (int column = 0; column < terminal.columns; column++) {
+			int color = firstColor + column;
+			enterString("\033[38;2;" + (color >> 8) + ";" + (color & 0xff) + ";0mX");
+		}
+	}
+
+	private void assertRowsUseStyleIndices(boolean expected) {
+		TerminalBuffer screen = terminal.getScreen();
+		for (int row = -screen.getActiveTranscriptRows(); row < terminal.rows; row++)
+			assertEquals("Row " + row, expected, screen.rows[screen.externalToInternalRow(row)].hasStyleIndices());
+	}
+
+	@Test
+	public void testStyleTableIsCompactedWhenScrolling() {
+		withTerminalSized(8, 3);
+		// Far more styles than fit in the style table, most of which scroll out of the buffer:
+		int lines = 2 * StyleTable.MAX_STYLES / terminal.columns;
+		for (int line = 0; line < lines; line++) {
+			enterString("\r\n");
+			enterTruecolorRow(line * terminal.columns);
+		}
+		assertRowsUseStyleIndices(true);
+		int lastColor = (lines - 1) * terminal.columns + terminal.columns - 1;
+		assertEquals(0xff000000 | (lastColor << 8), TextStyle.decodeForeColor(getStyleAt(2, terminal.columns - 1)));
+	}
+
+	@Test
+	public void testStyleTableIsCompactedOnResize() {
+		withTerminalSized(64, 70);
+		for (int row = 0; row < terminal.rows; row++) {
+			if (row > 0) enterString("\r\n");
+			enterTruecolorRow(row * terminal.columns);
+		}
+		assertEquals(0, terminal.getScreen().getActiveTranscriptRows());
+		assertFalse(terminal.getScreen().rows[terminal.getScreen().externalToInternalRow(terminal.rows - 1)].hasStyleIndices());
+
+		// Once the styles are no longer shown, resizing leaves only those in use in the table:
+		enterString("\033[m\033[2J");
+		terminal.resize(64, 69);
+		assertRowsUseStyleIndices(true);
+		int newColor = terminal.rows * terminal.columns;
+		enterString("\033[H");
+		enterTruecolorRow(newColor);
+		assertRowsUseStyleIndices(true);
+		assertEquals(0xff000000 | ((newColor + 63) << 8), TextStyle.decodeForeColor(getStyleAt(0, 63)));
+	}
+
 	@Test
 	public void testGetSelectedText() {
 		withTerminalSized(5, 3).enterString("ABCDEFGHIJ").assertLinesAre("ABCDE", "FGHIJ", "     ");
@@ -43,6 +114,12 @@ public class ScreenBufferTest extends TerminalTestCase {
 		assertEquals("ABCDEFG", terminal.getSelectedText(0, 0, 1, 1));
 		withTerminalSized(5, 3).enterString("ABCDE\r\nFGHIJ").assertLinesAre("ABCDE", "FGHIJ", "     ");
 		assertEquals("ABCDE\nFG", terminal.getSelectedText(0, 0, 1, 1));
+
+		// Trailing spaces of a wrapped row are kept, also on the last row of the screen:
+		withTerminalSized(5, 3).enterString("\033[3;1HAB");
+		terminal.getScreen().setLineWrap(2);
+		assertEquals("AB   ", terminal.getSelectedText(0, 2, 4, 2));
+		assertEquals("AB", terminal.getSelectedText(0, 2, 3, 2));
 	}
 
 }
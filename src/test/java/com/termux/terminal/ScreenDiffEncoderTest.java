@@ -0,0 +1,175 @@
+package com.termux.terminal;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ScreenDiffEncoderTest extends TerminalTestCase {
+
+	private TerminalEmulator viewer;
+	private final ScreenDiffEncoder encoder = new ScreenDiffEncoder();
+	private final ScreenFrame frame = new ScreenFrame();
+
+	private void startMirroring(int columns, int rows) {
+		withTerminalSized(columns, rows);
+		viewer = new TerminalEmulator(new MockTerminalClient(), columns, rows, 100, System.out);
+	}
+
+	/** Send the current screen to the viewer, returning what was sent. */
+	private String mirror() {
+		frame.capture(terminal);
+		byte[] update = encoder.encode(frame);
+		viewer.append(update, update.length);
+		assertMirrored();
+		return new String(update, StandardCharsets.UTF_8);
+	}
+
+	private void assertMirrored() {
+		ScreenFrame viewed = new ScreenFrame();
+		viewed.capture(viewer);
+		for (int row = 0; row < frame.getRows(); row++) {
+			// Line wrapping is not mirrored, so compare the cells rather than the text:
+			for (int column = 0; column < frame.getColumns(); column++)
+				if (!frame.isWideContinuation(row, column))
+					assertTrue("cell at " + row + "," + column, frame.cellEquals(row, column, viewed, row, column));
+		}
+		assertEquals(frame.getCursorRow(), viewer.getCursorRow());
+		assertEquals(frame.getCursorColumn(), viewer.getCursorCol());
+		assertEquals(frame.isCursorVisible(), viewer.isShowingCursor());
+	}
+
+	@Test
+	public void testFullFrameAndDiff() {
+		startMirroring(10, 3);
+		enterString("\033[1;31mred\033[0m \033[44mblue\033[m\r\nnext");
+		String full = mirror();
+		assertTrue(full.startsWith("\033[m\033[r\033[H\033[2J"));
+
+		enterString("\033[1;3Hd");
+		assertEquals("\033[1;3Hd", mirror());
+		assertEquals("", mirror());
+
+		// Erasing a long run of cells with the same style:
+		enterString("\033[2;1H\033[43m\033[K\033[m");
+		assertEquals("\033[2H\033[43m\033[K", mirror());
+
+		// A joining viewer gets the whole screen again:
+		encoder.reset();
+		viewer = new TerminalEmulator(new MockTerminalClient(), 10, 3, 100, System.out);
+		assertTrue(mirror().startsWith("\033[m\033[r\033[H\033[2J"));
+	}
+
+	@Test
+	public void testHyperlinks() {
+		startMirroring(20, 3);
+		enterString("see \033]8;id=a;http://x.org\033\\link\033]8;;\033\\ end");
+		String full = mirror();
+		assertTrue(full, full.contains("see\033[C\033]8;id=a;http://x.org\033\\link\033[C\033]8;;\033\\end"));
+		assertEquals("http://x.org", viewer.getScreen().getHyperlinkAt(0, 4));
+		assertEquals(null, viewer.getScreen().getHyperlinkAt(0, 8));
+
+		// Cells only gaining or losing a link are sent again:
+		enterString("\033[1;1H\033]8;;http://y.org\033\\see\033]8;;\033\\\033[1;5Hlink");
+		assertEquals("\033[H\033]8;;http://y.org\033\\see\033[C\033]8;;\033\\link", mirror());
+		assertEquals("http://y.org", viewer.getScreen().getHyperlinkAt(0, 0));
+		assertEquals(null, viewer.getScreen().getHyperlinkAt(0, 4));
+	}
+
+	@Test
+	public void testScroll() {
+		startMirroring(20, 5);
+		for (int i = 0; i < 5; i++)
+			enterString("\r\nline " + i);
+		mirror();
+		enterString("\r\nline 5\r\nline 6");
+		String update = mirror();
+		assertTrue(update, update.contains("\033[2S"));
+		assertTrue(update, update.length() < 30);
+	}
+
+	@Test
+	public void testWideAndCombiningCharacters() {
+		startMirroring(6, 2);
+		enterString("a果b̈c");
+		mirror();
+		enterString("\033[1;1Hx枝");
+		mirror();
+		enterString("\033[1;5H果");
+		mirror();
+		enterString("\033[2;6Hz");
+		mirror();
+	}
+
+	@Test
+	public void testCursorVisibility() {
+		startMirroring(5, 2);
+		mirror();
+		enterString("\033[?25l");
+		assertEquals("\033[?25l", mirror());
+		enterString("\033[?25h");
+		assertEquals("\033[?25h", mirror());
+	}
+
+	@Test
+	public void testThrottledViewerGetsLatestFrame() {
+		startMirroring(8, 3);
+		mirror();
+		enterString("one\r\n");
+		frame.capture(terminal);
+		enterString("two\r\nthree");
+		// The frame with only "one" is skipped:
+		String update = mirror();
+		assertTrue(update.contains("one") && update.contains("two") && update.contains("three"));
+	}
+
+	@Test
+	public void testRandomUpdates() {
+		startMirroring(12, 6);
+		Random random = new Random(42);
+		String[] pieces = {"abc", " ", "\r\n", "\033[31m", "\033[1;44m", "\033[0m", "\033[38;2;1;2;3m", "\033[48;5;200m", "\033[7m",
+			"\033[2J", "\033[K", "\033[3X", "\033[H", "\033[3;4H", "\033[2L", "\033[M", "果", "é", "\033[S", "\033[T",
+			"\033[4m", "\033[24m", "\033[2m", "\033[22m", "\033[?25l", "\033[?25h", "                "};
+		for (int update = 0; update < 300; update++) {
+			int count = random.nextInt(8);
+			for (int i = 0; i < count; i++)
+				enterString(pieces[random.nextInt(pieces.length)]);
+			mirror();
+		}
+	}
+
+	@Test
+	public void testStyleChanges() {
+		AnsiOutput out = new AnsiOutput(16);
+		long bold = TextStyle.encode(TextStyle.COLOR_INDEX_FOREGROUND, TextStyle.COLOR_INDEX_BACKGROUND, TextStyle.CHARACTER_ATTRIBUTE_BOLD);
+		long boldDim = TextStyle.encode(TextStyle.COLOR_INDEX_FOREGROUND, TextStyle.COLOR_INDEX_BACKGROUND,
+			TextStyle.CHARACTER_ATTRIBUTE_BOLD | TextStyle.CHARACTER_ATTRIBUTE_DIM);
+		long dimRed = TextStyle.encode(1, TextStyle.COLOR_INDEX_BACKGROUND, TextStyle.CHARACTER_ATTRIBUTE_DIM);
+		long brightOnTrue = TextStyle.encode(9, 0xff102030, 0);
+		assertStyleChange(out, TextStyle.NORMAL, bold, "\033[1m");
+		assertStyleChange(out, bold, TextStyle.NORMAL, "\033[m");
+		assertStyleChange(out, boldDim, dimRed, "\033[0;2;31m");
+		assertStyleChange(out, dimRed, brightOnTrue, "\033[0;91;48;2;16;32;48m");
+		assertStyleChange(out, TextStyle.NORMAL, TextStyle.encode(100, TextStyle.COLOR_INDEX_BACKGROUND, 0), "\033[38;5;100m");
+		assertStyleChange(out, bold, bold | TextStyle.CHARACTER_ATTRIBUTE_PROTECTED, "");
+	}
+
+	private static void assertStyleChange(AnsiOutput out, long from, long to, String expected) {
+		out.clear();
+		out.writeStyleChange(from, to);
+		assertEquals(expected, new String(out.toByteArray(), StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	public void testUtf8() {
+		AnsiOutput out = new AnsiOutput(1);
+		char[] text = "aå果😀\uD800".toCharArray();
+		out.writeChars(text, 0, text.length);
+		assertArrayEquals("aå果😀�".getBytes(StandardCharsets.UTF_8), out.toByteArray());
+	}
+
+}
@@ -0,0 +1,97 @@
+package com.termux.terminal;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StyleRunCursorTest {
+
+	private static final long RED = TextStyle.encode(1, TextStyle.COLOR_INDEX_BACKGROUND, 0);
+	private static final long GREEN = TextStyle.encode(2, TextStyle.COLOR_INDEX_BACKGROUND, 0);
+
+	private final StyleRunCursor cursor = new StyleRunCursor();
+
+	private void assertRun(TerminalRow row, String text, int columnStart, int columnEnd, long style, boolean wide) {
+		assertTrue(cursor.next());
+		assertEquals(text, new String(row.text, cursor.getCharStart(), cursor.getCharEnd() - cursor.getCharStart()));
+		assertEquals(columnStart, cursor.getColumnStart());
+		assertEquals(columnEnd, cursor.getColumnEnd());
+		assertEquals(style, cursor.getStyle());
+		assertEquals(wide, cursor.isWide());
+	}
+
+	@Test
+	public void testRuns() {
+		TerminalRow row = new TerminalRow(10, TextStyle.NORMAL);
+		row.setChar(0, 'a', RED);
+		row.setChar(1, 'b', RED);
+		row.setChar(1, 0x0308, RED);
+		row.setChar(2, 0x679C, RED);
+		row.setChar(4, 0x1D11E, RED);
+		row.setChar(5, 'c', GREEN);
+
+		cursor.reset(row, 0, 10);
+		assertRun(row, "ab̈", 0, 2, RED, false);
+		assertRun(row, "果", 2, 4, RED, true);
+		assertRun(row, new String(Character.toChars(0x1D11E)), 4, 5, RED, false);
+		assertRun(row, "c", 5, 6, GREEN, false);
+		assertRun(row, "    ", 6, 10, TextStyle.NORMAL, false);
+		assertFalse(cursor.next());
+
+		// The wide character starting before the range is left out, while the one at its end is included:
+		cursor.reset(row, 3, 3);
+		assertFalse(cursor.next());
+		cursor.reset(row, 1, 3);
+		assertRun(row, "b̈", 1, 2, RED, false);
+		assertRun(row, "果", 2, 4, RED, true);
+		assertFalse(cursor.next());
+		cursor.reset(row, 3, 6);
+		assertRun(row, new String(Character.toChars(0x1D11E)), 4, 5, RED, false);
+		assertRun(row, "c", 5, 6, GREEN, false);
+		assertFalse(cursor.next());
+	}
+
+	@Test
+	public void testRunsMatchColumns() {
+		Random random = new Random(7);
+		int[] codePoints = {'a', 'b', 0x0308, 0x679C, 0x2070E, 0x1D11E};
+		long[] styles = {TextStyle.NORMAL, RED, GREEN};
+		TerminalRow row = new TerminalRow(20, TextStyle.NORMAL);
+		for (int step = 0; step < 2000; step++) {
+			int codePoint = codePoints[random.nextInt(codePoints.length)];
+			int width = WcWidth.width(codePoint);
+			row.setChar(random.nextInt(width == 2 ? 19 : 20), codePoint, styles[random.nextInt(styles.length)]);
+			int start = random.nextInt(21);
+			int end = start + random.nextInt(21 - start);
+
+			// The runs should cover the text of the columns in the range, with the style of each column:
+			cursor.reset(row, start, end);
+			int expectedCharIndex = -1, column = -1;
+			StringBuilder text = new StringBuilder();
+			while (cursor.next()) {
+				if (expectedCharIndex < 0) {
+					expectedCharIndex = cursor.getCharStart();
+					column = cursor.getColumnStart();
+					assertEquals(row.findStartOfColumn(column), cursor.getCharStart());
+					assertTrue(column == start || column == start + 1);
+				}
+				assertEquals(expectedCharIndex, cursor.getCharStart());
+				assertEquals(column, cursor.getColumnStart());
+				// Only the first column of a wide character has its style:
+				for (; column < cursor.getColumnEnd(); column += cursor.isWide() ? 2 : 1)
+					assertEquals(row.getStyle(column), cursor.getStyle());
+				text.append(row.text, cursor.getCharStart(), cursor.getCharEnd() - cursor.getCharStart());
+				expectedCharIndex = cursor.getCharEnd();
+			}
+			if (column >= 0) {
+				assertTrue(column >= end && column <= end + 1);
+				assertEquals(row.findStartOfColumn(Math.min(column, 20)), expectedCharIndex);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+package com.termux.terminal;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TerminalArchiveTest extends TerminalTestCase {
+
+	private String enterLines(int count) {
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			String line = "line" + i + (i % 7 == 0 ? " wrapping" : "");
+			enterString(line + "\r\n");
+			expected.append(line).append('\n');
+		}
+		return expected.toString().trim();
+	}
+
+	/** Like {@link #assertLineIs(int, String)}, but also for archived rows. */
+	private void assertRowIs(int row, String expected) {
+		TerminalRow line = terminal.getScreen().getRowAt(row);
+		assertEquals(expected, new String(line.text, 0, line.getSpaceUsed()));
+	}
+
+	@Test
+	public void testRowsEvictedFromHistoryAreArchived() {
+		terminal = new TerminalEmulator(output, 10, 4, 20, System.out);
+		// Small enough that most blocks are moved to disk:
+		terminal.enableArchive(2000, null);
+		String expected = enterLines(3000);
+		TerminalBuffer screen = terminal.getScreen();
+		assertEquals(16, screen.getActiveTranscriptRows());
+		assertTrue(screen.getArchivedRows() > 3000);
+		assertTrue(screen.getArchiveDiskBytes() > 0);
+
+		int oldest = -screen.getActiveTranscriptRows() - screen.getArchivedRows();
+		assertRowIs(oldest, "line0 wrap");
+		assertRowIs(oldest + 1, "ping      ");
+		assertTrue(screen.getRowAt(oldest).lineWrap);
+		assertEquals(expected, screen.getTranscriptText());
+		assertEquals("line1400 wrapping\nline1401", screen.getSelectedText(0, screen.findText("line1400", 3, true), 9, screen.findText("line1401", 3, true)));
+	}
+
+	@Test
+	public void testTemporaryFileIsNotLeftBehind() throws IOException {
+		File directory = Files.createTempDirectory("archive").toFile();
+		try {
+			terminal = new TerminalEmulator(output, 10, 4, 20, System.out);
+			terminal.enableArchive(2000, directory);
+			String expected = enterLines(3000);
+			assertTrue(terminal.getScreen().getArchiveDiskBytes() > 0);
+			// The file is unlinked as soon as it is opened, but still used:
+			assertArrayEquals(new String[0], directory.list());
+			assertEquals(expected, terminal.getScreen().getTranscriptText());
+			terminal.getScreen().closeArchive();
+			assertEquals(0, terminal.getScreen().getArchivedRows());
+		} finally {
+			assertTrue(directory.delete());
+		}
+	}
+
+	@Test
+	public void testFindText() {
+		terminal = new TerminalEmulator(output, 10, 4, 20, System.out);
+		terminal.enableArchive(Long.MAX_VALUE, null);
+		enterLines(1000);
+		TerminalBuffer screen = terminal.getScreen();
+		int oldest = -screen.getActiveTranscriptRows() - screen.getArchivedRows();
+
+		// Text spanning a line wrap is found, from either direction:
+		int row = screen.findText("7 wrapping", 3, true);
+		assertRowIs(row, "line987 wr");
+		assertEquals(row, screen.findText("7 wrapping", row + 2, true));
+		row = screen.findText("7 wrapping", row, true);
+		assertRowIs(row, "line917 wr");
+		assertEquals(oldest + 2, screen.findText("line1", oldest, false));
+		assertEquals(TerminalBuffer.NOT_FOUND, screen.findText("line1000", 0, true));
+		assertEquals(TerminalBuffer.NOT_FOUND, screen.findText("line0", oldest, true));
+	}
+
+	@Test
+	public void testArchiveAfterResize() {
+		terminal = new TerminalEmulator(output, 10, 4, 20, System.out);
+		terminal.enableArchive(Long.MAX_VALUE, null);
+		String expected = enterLines(300);
+		int rows = terminal.getScreen().getActiveRows() + terminal.getScreen().getArchivedRows();
+
+		// What no longer fits is archived, and archived rows keep their number of columns:
+		resize(5, 4);
+		TerminalBuffer screen = terminal.getScreen();
+		assertEquals(expected, screen.getTranscriptText());
+		int oldest = -screen.getActiveTranscriptRows() - screen.getArchivedRows();
+		assertEquals(10, screen.getRowAt(oldest).getColumns());
+		assertEquals(5, screen.getRowAt(-1).getColumns());
+		assertTrue(screen.getActiveRows() + screen.getArchivedRows() > rows);
+
+		terminal.closeArchive();
+		assertEquals(0, screen.getArchivedRows());
+		assertEquals(16, screen.getActiveTranscriptRows());
+	}
+
+}
@@ -0,0 +1,83 @@
+package com.termux.terminal;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TerminalEventsTest extends TerminalTestCase {
+
+	private static List<RecordedEvent> eventsOfType(List<RecordedEvent> events, String name) {
+		List<RecordedEvent> result = new ArrayList<>();
+		for (RecordedEvent event : events)
+			if (event.getEventType().getName().equals(name)) result.add(event);
+		return result;
+	}
+
+	@Test
+	public void testEventsAreRecorded() throws IOException {
+		withTerminalSized(5, 3).enterString("not recorded\033[2S");
+		File file = File.createTempFile("terminal", ".jfr");
+		file.deleteOnExit();
+		List<RecordedEvent> events;
+		try (Recording recording = new Recording()) {
+			for (String name : new String[]{"Append", "Resize", "Scroll", "StringSequence"})
+				recording.enable("com.termux.terminal." + name).withoutThreshold();
+			recording.start();
+			enterString("ab\033[31mc\033]2;title\007\033[3S");
+			enterString("\033[T\033P$qm\033\\");
+			resize(7, 4);
+			recording.stop();
+			recording.dump(file.toPath());
+			events = RecordingFile.readAllEvents(file.toPath());
+		}
+
+		List<RecordedEvent> appends = eventsOfType(events, "com.termux.terminal.Append");
+		assertEquals(2, appends.size());
+		assertEquals(22, appends.get(0).getInt("bytes"));
+		assertEquals(3, appends.get(0).getInt("escapeSequences"));
+
+		List<RecordedEvent> scrolls = eventsOfType(events, "com.termux.terminal.Scroll");
+		assertEquals(2, scrolls.size());
+		assertEquals(3, scrolls.get(0).getInt("rows"));
+		assertEquals(-1, scrolls.get(1).getInt("rows"));
+
+		List<RecordedEvent> strings = eventsOfType(events, "com.termux.terminal.StringSequence");
+		assertEquals(2, strings.size());
+		assertEquals("OSC", strings.get(0).getString("type"));
+		assertEquals(2, strings.get(0).getInt("command"));
+		assertEquals("DCS", strings.get(1).getString("type"));
+		assertEquals(3, strings.get(1).getInt("length"));
+
+		List<RecordedEvent> resizes = eventsOfType(events, "com.termux.terminal.Resize");
+		assertEquals(1, resizes.size());
+		assertEquals(5, resizes.get(0).getInt("oldColumns"));
+		assertEquals(3, resizes.get(0).getInt("oldRows"));
+		assertEquals(7, resizes.get(0).getInt("newColumns"));
+		assertEquals(4, resizes.get(0).getInt("newRows"));
+		assertEquals(6, resizes.get(0).getInt("reflowedRows"));
+	}
+
+	@Test
+	public void testWithoutFlightRecorder() {
+		// The check deciding if events are created, which is false on a runtime without the jdk.jfr module:
+		assertTrue(TerminalEvents.isClassPresent("jdk.jfr.Event"));
+		assertFalse(TerminalEvents.isClassPresent("jdk.jfr.NoSuchEvent"));
+		// Where the null events then begun commit as no-ops:
+		TerminalEvents.commitAppend(null, 3, 1);
+		TerminalEvents.commitResize(null, 5, 3, 3, 4, 6);
+		TerminalEvents.commitScroll(null, -2);
+		TerminalEvents.commitStringSequence(null, "OSC", "2;title");
+	}
+
+}
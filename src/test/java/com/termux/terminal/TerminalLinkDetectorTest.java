@@ -0,0 +1,107 @@
+package com.termux.terminal;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TerminalLinkDetectorTest extends TerminalTestCase {
+
+	private final TerminalLinkDetector detector = new TerminalLinkDetector();
+
+	private void assertLinks(int row, String... expected) {
+		List<TerminalLinkDetector.Link> links = detector.getLinks(terminal.getScreen(), row);
+		assertEquals("links on row " + row + ": " + links, expected.length, links.size());
+		for (int i = 0; i < expected.length; i++) {
+			TerminalLinkDetector.Link link = links.get(i);
+			assertEquals(expected[i], link.startColumn + "-" + link.endColumn + " " + link.text);
+		}
+	}
+
+	@Test
+	public void testUrlsAndPaths() {
+		withTerminalSized(60, 4);
+		enterString("see https://example.com/a?b=1, or (http://x.org/wiki/A_(b)).\r\n");
+		enterString("edit ./src/Main.java:12:3 and ~/notes.txt; not a/b or x/\r\n");
+		enterString("/usr/bin/env");
+		assertLinks(0, "4-29 https://example.com/a?b=1", "35-58 http://x.org/wiki/A_(b)");
+		assertLinks(1, "5-25 ./src/Main.java:12:3", "30-41 ~/notes.txt");
+		assertLinks(2, "0-12 /usr/bin/env");
+		assertLinks(3);
+		assertEquals("~/notes.txt", detector.getLinkAt(terminal.getScreen(), 1, 30).text);
+		assertNull(detector.getLinkAt(terminal.getScreen(), 1, 29));
+	}
+
+	@Test
+	public void testWrappedLink() {
+		withTerminalSized(10, 5);
+		enterString("go http://wrapped.example/x now");
+		String url = "http://wrapped.example/x";
+		assertLinks(0, "3-10 " + url);
+		assertLinks(1, "0-10 " + url);
+		assertLinks(2, "0-7 " + url);
+
+		// Wide characters take two columns:
+		enterString("\r\n果 /tmp/果");
+		assertLinks(4, "3-10 /tmp/果");
+	}
+
+	@Test
+	public void testOnlyChangedLinesAreScanned() {
+		withTerminalSized(20, 5);
+		enterString("http://a.example\r\nplain\r\n/tmp/b\r\n");
+		TerminalBuffer screen = terminal.getScreen();
+		for (int row = 0; row < 5; row++)
+			detector.getLinks(screen, row);
+		assertEquals(5, detector.scannedLines);
+		for (int row = 0; row < 5; row++)
+			detector.getLinks(screen, row);
+		assertEquals(5, detector.scannedLines);
+
+		// Changing a row rescans its line only:
+		enterString("\033[2;1H/tmp/c");
+		assertLinks(1, "0-6 /tmp/c");
+		for (int row = 0; row < 5; row++)
+			detector.getLinks(screen, row);
+		assertEquals(6, detector.scannedLines);
+
+		// Scrolling moves rows, whose links are kept, into the history:
+		enterString("\033[5;1H\r\n\r\n");
+		assertLinks(-2, "0-16 http://a.example");
+		assertLinks(-1, "0-6 /tmp/c");
+		assertEquals(6, detector.scannedLines);
+		assertLinks(3);
+		assertTrue(detector.scannedLines > 6);
+	}
+
+	@Test
+	public void testUnallocatedRowsAreNotRescanned() {
+		withTerminalSized(12, 4);
+		enterString("go http://x.org/a");
+		TerminalBuffer screen = terminal.getScreen();
+		// The line wraps onto a row not allocated in the buffer:
+		screen.rows[screen.externalToInternalRow(1)] = null;
+		assertLinks(0, "3-11 http://x");
+		assertLinks(1);
+		assertLinks(0, "3-11 http://x");
+		assertEquals(1, detector.scannedLines);
+	}
+
+	@Test
+	public void testLinesSharingTheirFirstRow() {
+		withTerminalSized(10, 4);
+		enterString("xx http://a.org\r\nxx http://b.net");
+		TerminalBuffer screen = terminal.getScreen();
+		// As repeated rows in a deduplicated history, two lines start with the same row object:
+		screen.rows[screen.externalToInternalRow(2)] = screen.rows[screen.externalToInternalRow(0)];
+		for (int i = 0; i < 3; i++) {
+			assertLinks(1, "0-5 http://a.org");
+			assertLinks(3, "0-5 http://b.net");
+		}
+		assertEquals(2, detector.scannedLines);
+	}
+
+}
@@ -0,0 +1,68 @@
+package com.termux.terminal;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TerminalMemoryManagerTest extends TerminalTestCase {
+
+	private TerminalEmulator filledSession(int lines) {
+		TerminalEmulator emulator = new TerminalEmulator(output, 20, 4, 1000, System.out);
+		for (int i = 0; i < lines; i++) {
+			byte[] line = ("line" + i + "\r\n").getBytes();
+			emulator.append(line, line.length);
+		}
+		return emulator;
+	}
+
+	@Test
+	public void testLeastRecentlyViewedSessionsAreTrimmedFirst() {
+		TerminalEmulator first = filledSession(300), second = filledSession(300), third = filledSession(300);
+		TerminalMemoryManager manager = new TerminalMemoryManager(Long.MAX_VALUE);
+		manager.register(first, "first");
+		manager.register(second, "second");
+		manager.register(third, "third");
+		manager.viewed(first);
+
+		List<TerminalMemoryManager.SessionUsage> usage = manager.getUsage();
+		assertEquals("second", usage.get(0).name);
+		assertEquals("first", usage.get(2).name);
+		assertEquals(first.getHeapBytes(), usage.get(2).heapBytes);
+		long total = manager.getTotalUsage();
+		assertEquals(first.getHeapBytes() + second.getHeapBytes() + third.getHeapBytes(), total);
+		assertEquals(0, manager.checkUsage());
+
+		// Needing to free more than the history of one session:
+		final List<String> trimmed = new ArrayList<>();
+		manager.setListener(new TerminalMemoryManager.Listener() {
+			@Override
+			public void onSessionTrimmed(TerminalEmulator emulator, String name, long freedBytes) {
+				trimmed.add(name);
+			}
+
+			@Override
+			public void onLimitExceeded(long usedBytes, long limitBytes) {
+				trimmed.add("exceeded");
+			}
+		});
+		manager.setLimit(total - second.getHistoryBytes() - 1000);
+		assertTrue(manager.checkUsage() > second.getHeapBytes());
+		assertTrue(manager.getTotalUsage() <= manager.getLimit());
+		assertEquals(0, second.getScreen().getActiveTranscriptRows());
+		assertTrue(third.getScreen().getActiveTranscriptRows() > 0);
+		assertEquals(297, first.getScreen().getActiveTranscriptRows());
+		assertEquals("[second, third]", trimmed.toString());
+
+		// More than can be freed:
+		trimmed.clear();
+		manager.setLimit(0);
+		manager.checkUsage();
+		assertEquals("[third, first, exceeded]", trimmed.toString());
+		assertEquals(0, first.getScreen().getActiveTranscriptRows());
+	}
+
+}
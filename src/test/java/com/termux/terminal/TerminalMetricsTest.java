@@ -0,0 +1,75 @@
+package com.termux.terminal;
+
+import org.junit.Test;
+
+import java.util.EnumMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TerminalMetricsTest extends TerminalTestCase {
+
+	@Test
+	public void testCounters() {
+		TerminalMetrics metrics = new TerminalMetrics();
+		withTerminalSized(5, 3);
+		terminal.setMetrics(metrics);
+		enterString("ab\033[31mc\033]0;title\007\033Pxyz\033\\\0337\033[?9999h\r\n\n\n");
+		resize(6, 3);
+		enterString("\033[2S\033[5;6T");
+
+		assertEquals(3, metrics.get(TerminalMetrics.Counter.CODE_POINTS));
+		assertEquals(4, metrics.get(TerminalMetrics.Counter.CSI_SEQUENCES));
+		assertEquals(1, metrics.get(TerminalMetrics.Counter.OSC_SEQUENCES));
+		assertEquals(1, metrics.get(TerminalMetrics.Counter.DCS_SEQUENCES));
+		// The ESC \ ending the device control string is not counted:
+		assertEquals(1, metrics.get(TerminalMetrics.Counter.ESC_SEQUENCES));
+		// The unknown DECSET and device control string:
+		assertEquals(2, metrics.get(TerminalMetrics.Counter.UNKNOWN_SEQUENCES));
+		assertEquals(1, metrics.get(TerminalMetrics.Counter.UNIMPLEMENTED_SEQUENCES));
+		assertEquals(3, metrics.get(TerminalMetrics.Counter.SCROLLED_ROWS));
+		assertEquals(1, metrics.get(TerminalMetrics.Counter.RESIZES));
+		assertTrue(metrics.get(TerminalMetrics.Counter.BYTES) > 40);
+		assertTrue(metrics.get(TerminalMetrics.Counter.APPENDS) > 0);
+		assertTrue(metrics.get(TerminalMetrics.Counter.APPEND_NANOS) > 0);
+
+		metrics.reset();
+		assertEquals(0, metrics.get(TerminalMetrics.Counter.BYTES));
+		terminal.setMetrics(null);
+		enterString("not counted");
+		assertEquals(0, metrics.get(TerminalMetrics.Counter.CODE_POINTS));
+	}
+
+	@Test
+	public void testScrolledRows() {
+		TerminalMetrics metrics = new TerminalMetrics();
+		withTerminalSized(5, 4);
+		terminal.setMetrics(metrics);
+		// A line feed at the bottom, scrolling up 2 and down 1, and reverse index at the top:
+		enterString("\033[4H\n\033[2S\033[T\033[H\033M");
+		assertEquals(5, metrics.get(TerminalMetrics.Counter.SCROLLED_ROWS));
+		// Inserting and deleting lines, as many as there are below the cursor at most:
+		enterString("\033[3H\033[2L\033[9M");
+		assertEquals(9, metrics.get(TerminalMetrics.Counter.SCROLLED_ROWS));
+		// Reverse index below the top does not scroll:
+		enterString("\033M");
+		assertEquals(9, metrics.get(TerminalMetrics.Counter.SCROLLED_ROWS));
+	}
+
+	@Test
+	public void testSharedBetweenSessions() {
+		TerminalMetrics metrics = new TerminalMetrics();
+		for (int i = 0; i < 3; i++) {
+			TerminalEmulator emulator = new TerminalEmulator(output, 10, 4, 100, System.out);
+			emulator.setMetrics(metrics);
+			byte[] bytes = "hello\033[H".getBytes();
+			emulator.append(bytes, bytes.length);
+		}
+		EnumMap<TerminalMetrics.Counter, Long> snapshot = metrics.snapshot();
+		assertEquals(Long.valueOf(24), snapshot.get(TerminalMetrics.Counter.BYTES));
+		assertEquals(Long.valueOf(15), snapshot.get(TerminalMetrics.Counter.CODE_POINTS));
+		assertEquals(Long.valueOf(3), snapshot.get(TerminalMetrics.Counter.CSI_SEQUENCES));
+		assertEquals(Long.valueOf(0), snapshot.get(TerminalMetrics.Counter.RESIZES));
+	}
+
+}
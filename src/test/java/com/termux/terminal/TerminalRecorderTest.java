@@ -0,0 +1,88 @@
+package com.termux.terminal;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TerminalRecorderTest extends TerminalTestCase {
+
+	private String recordedTranscript;
+	private int recordedCursorRow, recordedCursorCol;
+
+	private File record() throws IOException {
+		File file = File.createTempFile("terminal", ".rec");
+		file.deleteOnExit();
+		withTerminalSized(5, 3);
+		try (TerminalRecorder recorder = new TerminalRecorder(file, terminal)) {
+			terminal.setRecorder(recorder);
+			enterString("hello world\r\n\033[32mgreen");
+			resize(7, 4);
+			enterString("\r\n果枝\033[0m");
+			recordedTranscript = terminal.getScreen().getTranscriptText();
+			recordedCursorRow = terminal.getCursorRow();
+			recordedCursorCol = terminal.getCursorCol();
+			terminal.setRecorder(null);
+			enterString("not recorded");
+		}
+		return file;
+	}
+
+	@Test
+	public void testReplayAsFastAsPossible() throws IOException {
+		File file = record();
+		try (TerminalReplayer replayer = new TerminalReplayer(file)) {
+			assertEquals(5, replayer.getColumns());
+			assertEquals(3, replayer.getRows());
+			terminal = replayer.createEmulator(output, System.out);
+			TerminalReplayer.Result result = replayer.replay(terminal, false);
+			assertEquals(2, result.appends);
+			assertEquals(1, result.resizes);
+			assertEquals("hello world\r\n\033[32mgreen".length() + "\r\n果枝\033[0m".getBytes("UTF-8").length, result.bytesAppended);
+		}
+		assertEquals(recordedTranscript, terminal.getScreen().getTranscriptText());
+		assertCursorAt(recordedCursorRow, recordedCursorCol);
+		assertEquals(2, TextStyle.decodeForeColor(getStyleAt(recordedCursorRow, 0)));
+	}
+
+	@Test
+	public void testReplayInRealTime() throws IOException, InterruptedException {
+		File file = File.createTempFile("terminal", ".rec");
+		file.deleteOnExit();
+		withTerminalSized(5, 3);
+		try (TerminalRecorder recorder = new TerminalRecorder(file, terminal)) {
+			terminal.setRecorder(recorder);
+			enterString("a");
+			Thread.sleep(50);
+			enterString("b");
+		}
+
+		try (TerminalReplayer replayer = new TerminalReplayer(file)) {
+			terminal = replayer.createEmulator(output, System.out);
+			TerminalReplayer.Result result = replayer.replay(terminal, true);
+			assertTrue(result.recordedNanos >= 50_000_000L);
+			assertTrue(result.elapsedNanos >= result.recordedNanos);
+		}
+		assertLinesAre("ab   ", "     ", "     ");
+	}
+
+	@Test
+	public void testTruncatedRecording() throws IOException {
+		File file = record();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 1);
+		}
+		try (TerminalReplayer replayer = new TerminalReplayer(file)) {
+			replayer.replay(replayer.createEmulator(output, System.out), false);
+			fail();
+		} catch (IOException e) {
+			// Expected.
+		}
+	}
+
+}
@@ -7,6 +7,8 @@ import java.util.Arrays;
 import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class TerminalRowTest {
 
@@ -387,6 +389,17 @@ public class TerminalRowTest {
 		assertLineStartsWith(lowerCaseN, combiningTilde, ' ');
 	}
 
+	@Test
+	public void testWideOverwritingCombining() {
+		row.setChar(1, 'e', 0);
+		row.setChar(1, DIARESIS_CODEPOINT, 0);
+		assertEquals(81, row.getSpaceUsed());
+		// The wide character takes up the next column, dropping the combining character there as well:
+		row.setChar(0, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, 0);
+		assertEquals(79, row.getSpaceUsed());
+		assertLineStartsWith(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, ' ', ' ');
+	}
+
 	@Test
 	public void testInsertWideAtLastColumn() {
 		row.setChar(COLUMNS - 2, 'Z', 0);
@@ -398,4 +411,88 @@ public class TerminalRowTest {
 		assertEquals('ö', row.text[row.findStartOfColumn(COLUMNS - 1)]);
 	}
 
+	@Test
+	public void testStyleIndices() {
+		StyleTable table = new StyleTable();
+		row = new TerminalRow(COLUMNS, TextStyle.NORMAL, table);
+		long plainRowBytes = new TerminalRow(COLUMNS, TextStyle.NORMAL).estimateHeapBytes();
+		assertTrue(row.hasStyleIndices());
+		assertEquals(plainRowBytes - 6 * COLUMNS, row.estimateHeapBytes());
+
+		long red = TextStyle.encode(1, TextStyle.COLOR_INDEX_BACKGROUND, 0);
+		row.setChar(3, 'a', red);
+		assertEquals(red, row.getStyle(3));
+		assertEquals(TextStyle.NORMAL, row.getStyle(4));
+		assertEquals(2, table.size());
+
+		// A style not fitting in the full table makes the row store the styles in full:
+		for (int i = table.size(); i < StyleTable.MAX_STYLES; i++)
+			assertEquals(i, table.indexOf(TextStyle.encode(0xff000000 | i, TextStyle.COLOR_INDEX_BACKGROUND, 0)));
+		long extra = TextStyle.encode(0xff123456, TextStyle.COLOR_INDEX_BACKGROUND, 0);
+		assertEquals(-1, table.indexOf(extra));
+		row.setChar(5, 'b', extra);
+		assertFalse(row.hasStyleIndices());
+		assertEquals(plainRowBytes, row.estimateHeapBytes());
+		assertEquals(red, row.getStyle(3));
+		assertEquals(extra, row.getStyle(5));
+		assertEquals(TextStyle.NORMAL, row.getStyle(6));
+
+		// Clearing with a style in the table goes back to indices:
+		row.clear(red);
+		assertTrue(row.hasStyleIndices());
+		assertEquals(red, row.getStyle(5));
+	}
+
+	@Test
+	public void testUseStyleTable() {
+		long red = TextStyle.encode(1, TextStyle.COLOR_INDEX_BACKGROUND, 0);
+		row.setChar(0, 'a', red);
+		assertFalse(row.hasStyleIndices());
+		StyleTable table = new StyleTable();
+		row.useStyleTable(table);
+		assertTrue(row.hasStyleIndices());
+		assertEquals(red, row.getStyle(0));
+		assertEquals(TextStyle.NORMAL, row.getStyle(1));
+		assertEquals(2, table.size());
+	}
+
+	@Test
+	public void testVersionAndHash() {
+		long version = row.getVersion();
+		long hash = row.getHash();
+		assertEquals(version, row.getVersion());
+		TerminalRow other = new TerminalRow(COLUMNS, TextStyle.NORMAL);
+		assertTrue(other.getVersion() > version);
+		assertEquals(hash, other.getHash());
+
+		row.setChar(3, 'a', TextStyle.NORMAL);
+		long changedVersion = row.getVersion();
+		assertTrue(changedVersion > other.getVersion());
+		assertTrue(hash != row.getHash());
+		other.setChar(3, 'a', TextStyle.NORMAL);
+		assertEquals(row.getHash(), other.getHash());
+
+		// The style is hashed as well:
+		other.setChar(3, 'a', TextStyle.encode(1, TextStyle.COLOR_INDEX_BACKGROUND, 0));
+		assertTrue(row.getHash() != other.getHash());
+
+		// Line wrapping changes the version but not the hash:
+		row.setLineWrap(true);
+		assertTrue(row.getVersion() > changedVersion);
+		other.setChar(3, 'a', TextStyle.NORMAL);
+		assertEquals(row.getHash(), other.getHash());
+
+		// As does clearing back to what it was:
+		long wrappedVersion = row.getVersion();
+		row.clear(TextStyle.NORMAL);
+		assertTrue(row.getVersion() > wrappedVersion);
+		assertEquals(hash, row.getHash());
+
+		// Storing the styles as indices is no change:
+		long clearedVersion = row.getVersion();
+		row.useStyleTable(new StyleTable());
+		assertEquals(clearedVersion, row.getVersion());
+		assertEquals(hash, row.getHash());
+	}
+
 }
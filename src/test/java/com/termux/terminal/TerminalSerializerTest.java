@@ -0,0 +1,112 @@
+package com.termux.terminal;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TerminalSerializerTest extends TerminalTestCase {
+
+	/** Serialize in small pieces, to exercise resuming. */
+	private static byte[] serialize(TerminalSerializer serializer) {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		ByteBuffer chunk = ByteBuffer.allocate(7);
+		boolean done;
+		do {
+			chunk.clear();
+			done = serializer.write(chunk);
+			assertTrue(done || !chunk.hasRemaining());
+			result.write(chunk.array(), 0, chunk.position());
+		} while (!done);
+		return result.toByteArray();
+	}
+
+	@Test
+	public void testOutput() {
+		withTerminalSized(10, 3).enterString("\033[31mred\033[m plain\r\nx\033[44m\033[K\033[m");
+		byte[] output = serialize(TerminalSerializer.forTranscript(terminal.getScreen()));
+		assertEquals("\033[m\033[31mred\033[m plain\r\nx\033[44m\033[K\033[m\r\n", new String(output, StandardCharsets.UTF_8));
+
+		// Just the second row:
+		output = serialize(new TerminalSerializer(terminal.getScreen(), 1, 2));
+		assertEquals("\033[mx\033[44m\033[K\033[m", new String(output, StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testWriteToChannel() throws IOException {
+		withTerminalSized(5, 2);
+		for (int i = 0; i < 2000; i++)
+			enterString("\033[3" + (i % 8) + "m" + i + "\r\n");
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		TerminalSerializer.forTranscript(terminal.getScreen()).writeTo(Channels.newChannel(result));
+		assertArrayEquals(serialize(TerminalSerializer.forTranscript(terminal.getScreen())), result.toByteArray());
+	}
+
+	@Test
+	public void testRoundTrip() {
+		withTerminalSized(8, 4);
+		enterString("first line wrapping around\r\n");
+		enterString("\033[1;42mgreen\033[0m\033[45m\033[K\033[m\r\n\r\n");
+		enterString("1234567果wide at the wrap\r\n");
+		enterString("é̂ combining\033[7m inverse\033[m\r\n");
+		enterString("12345678\r\n");
+		enterString("\033[38;2;10;20;30;48;5;100mtrue and\033[K 256\033[m\r\n");
+		enterString("last");
+		TerminalBuffer source = terminal.getScreen();
+
+		byte[] output = serialize(TerminalSerializer.forTranscript(source));
+		TerminalEmulator restored = new TerminalEmulator(new MockTerminalClient(), 8, 4, 8, System.out);
+		restored.append(output, output.length);
+		TerminalBuffer target = restored.getScreen();
+		assertEquals(source.getActiveTranscriptRows(), target.getActiveTranscriptRows());
+		for (int row = -source.getActiveTranscriptRows(); row < 4; row++)
+			assertRowEquals(row, source.getRowAt(row), target.getRowAt(row));
+	}
+
+	@Test
+	public void testHyperlinks() {
+		withTerminalSized(8, 3);
+		enterString("a \033]8;id=x;http://x.org\033\\link\033]8;;\033\\ b\r\n");
+		enterString("\033[32m\033]8;;http://y.org\033\\green 果 wrapping\033]8;;\033\\\033[m\r\n");
+		enterString("\033]8;;http://z.org\033\\   \033]8;;\033\\");
+		TerminalBuffer source = terminal.getScreen();
+
+		byte[] output = serialize(TerminalSerializer.forTranscript(source));
+		String text = new String(output, StandardCharsets.UTF_8);
+		assertTrue(text, text.startsWith("\033[ma \033]8;id=x;http://x.org\033\\link\033]8;;\033\\ b\r\n"));
+		assertTrue(text, text.endsWith("\033]8;;\033\\"));
+		TerminalEmulator restored = new TerminalEmulator(new MockTerminalClient(), 8, 3, 8, System.out);
+		restored.append(output, output.length);
+		TerminalBuffer target = restored.getScreen();
+		assertEquals(source.getActiveTranscriptRows(), target.getActiveTranscriptRows());
+		for (int row = -source.getActiveTranscriptRows(); row < 3; row++) {
+			assertRowEquals(row, source.getRowAt(row), target.getRowAt(row));
+			for (int column = 0; column < 8; column++)
+				assertEquals("link at " + row + "," + column, source.getHyperlinkAt(row, column), target.getHyperlinkAt(row, column));
+		}
+		assertEquals("http://z.org", target.getHyperlinkAt(2, 2));
+	}
+
+	private static void assertRowEquals(int row, TerminalRow expected, TerminalRow actual) {
+		assertEquals("text of row " + row, new String(expected.text, 0, expected.getSpaceUsed()), new String(actual.text, 0, actual.getSpaceUsed()));
+		assertEquals("line wrap of row " + row, expected.lineWrap, actual.lineWrap);
+		// Only the first column of a wide character holds its style:
+		int column = 0;
+		for (int i = 0; i < expected.getSpaceUsed(); i++) {
+			int codePoint = Character.codePointAt(expected.text, i);
+			if (Character.charCount(codePoint) == 2) i++;
+			int width = WcWidth.width(codePoint);
+			if (width <= 0) continue;
+			assertEquals("style at " + row + "," + column, expected.getStyle(column), actual.getStyle(column));
+			column += width;
+		}
+	}
+
+}
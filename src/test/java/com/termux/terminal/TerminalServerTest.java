@@ -0,0 +1,276 @@
+package com.termux.terminal;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TerminalServerTest extends TerminalTestCase {
+
+	private TerminalServer server;
+	private InetSocketAddress readOnlyAddress, readWriteAddress;
+	/** Tasks for the thread using the emulator, which is the test thread unless a test says otherwise. */
+	private final LinkedBlockingQueue<Runnable> emulatorTasks = new LinkedBlockingQueue<>();
+
+	/** A viewer connected to the server, showing what it receives in an emulator of its own. */
+	private final class Viewer {
+		final Socket socket;
+		final TerminalEmulator emulator;
+		final byte[] buffer = new byte[4096];
+
+		Viewer(InetSocketAddress address) throws IOException {
+			socket = new Socket(address.getAddress(), address.getPort());
+			socket.setSoTimeout(50);
+			emulator = new TerminalEmulator(new MockTerminalClient(), terminal.columns, terminal.rows, 10, System.out);
+		}
+
+		/** Receive until the viewer shows the same as the shared emulator. */
+		void awaitMirrored() throws IOException {
+			long deadline = System.currentTimeMillis() + 10_000;
+			InputStream in = socket.getInputStream();
+			while (!screenText(emulator).equals(screenText(terminal))) {
+				if (System.currentTimeMillis() > deadline) fail("Viewer shows:\n" + screenText(emulator));
+				try {
+					int read = in.read(buffer);
+					if (read < 0) fail("Disconnected");
+					emulator.append(buffer, read);
+				} catch (SocketTimeoutException e) {
+					// Check again.
+				}
+			}
+		}
+
+		void send(String input) throws IOException {
+			socket.getOutputStream().write(input.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private static String screenText(TerminalEmulator emulator) {
+		return emulator.getScreen().getSelectedText(0, 0, emulator.columns, emulator.rows - 1);
+	}
+
+	private void startServer(int columns, int rows) throws IOException {
+		withTerminalSized(columns, rows);
+		server = new TerminalServer(terminal, output, emulatorTasks::add);
+		readOnlyAddress = listen(TerminalServer.Access.READ_ONLY);
+		readWriteAddress = listen(TerminalServer.Access.READ_WRITE);
+		server.start();
+	}
+
+	private InetSocketAddress listen(TerminalServer.Access access) throws IOException {
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		server.listen(channel, access);
+		return (InetSocketAddress) channel.getLocalAddress();
+	}
+
+	/** Append to the shared emulator and let the server know, as the thread using it would. */
+	private void update(String text) {
+		enterString(text);
+		server.onScreenUpdated();
+	}
+
+	@After
+	public void closeServer() throws IOException {
+		if (server != null) server.close();
+	}
+
+	@Test
+	public void testViewersMirrorScreen() throws IOException {
+		startServer(20, 4);
+		update("before \033[31mjoining\033[m");
+		Viewer first = new Viewer(readOnlyAddress);
+		Viewer second = new Viewer(readOnlyAddress);
+		first.awaitMirrored();
+		second.awaitMirrored();
+
+		update("\r\nafter\r\njoining\r\n\033[44mscrolled\033[m");
+		first.awaitMirrored();
+		second.awaitMirrored();
+		assertEquals(2, server.getViewerCount());
+	}
+
+	@Test
+	public void testSlowViewerGetsLatestScreen() throws IOException {
+		startServer(30, 5);
+		Viewer fast = new Viewer(readOnlyAddress);
+		Viewer slow = new Viewer(readOnlyAddress);
+		fast.awaitMirrored();
+		for (int i = 0; i < 5000; i++)
+			update("\r\nline " + i + " \033[3" + (i % 8) + "mcolored\033[m");
+		fast.awaitMirrored();
+		// The slow viewer has not read anything since joining, but catches up with whatever it is sent next:
+		slow.awaitMirrored();
+	}
+
+	@Test
+	public void testInputFromViewers() throws IOException, InterruptedException {
+		startServer(10, 2);
+		update("$ ");
+		Viewer reader = new Viewer(readOnlyAddress);
+		Viewer writer = new Viewer(readWriteAddress);
+		reader.awaitMirrored();
+		writer.awaitMirrored();
+		reader.send("ignored");
+		writer.send("ls\r");
+		StringBuilder written = new StringBuilder();
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (!written.toString().equals("ls\r")) {
+			assertTrue("Session got: " + written, System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+			Runnable task;
+			while ((task = emulatorTasks.poll()) != null)
+				task.run();
+			written.append(output.getOutputAndClear());
+		}
+	}
+
+	@Test
+	public void testInputWaitsForTheEmulatorThread() throws Exception {
+		startServer(10, 2);
+		Viewer writer = new Viewer(readWriteAddress);
+		writer.awaitMirrored();
+		final char[] input = new char[64 * 1024];
+		Arrays.fill(input, 'a');
+		Thread sender = new Thread(() -> {
+			try {
+				writer.send(new String(input));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		sender.start();
+
+		// Until the emulator thread has written the input read so far, no more is read:
+		Runnable task = emulatorTasks.poll(10, TimeUnit.SECONDS);
+		assertNotNull(task);
+		Thread.sleep(200);
+		task.run();
+		int written = output.getOutputAndClear().length();
+		assertTrue("Written at once: " + written, written > 0 && written <= 4096);
+
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (written < input.length) {
+			assertTrue("Session got: " + written, System.currentTimeMillis() < deadline);
+			task = emulatorTasks.poll(10, TimeUnit.MILLISECONDS);
+			if (task != null) task.run();
+			written += output.getOutputAndClear().length();
+		}
+		assertEquals(input.length, written);
+		sender.join();
+	}
+
+	@Test
+	public void testClosedListenerDoesNotStopServer() throws IOException {
+		withTerminalSized(10, 2);
+		server = new TerminalServer(terminal, output, emulatorTasks::add);
+		// Closing a channel before the server thread listens on it leaves the other channels served:
+		ServerSocketChannel closed = ServerSocketChannel.open();
+		closed.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		server.listen(closed, TerminalServer.Access.READ_WRITE);
+		closed.close();
+		readOnlyAddress = listen(TerminalServer.Access.READ_ONLY);
+		server.start();
+
+		update("$ ");
+		Viewer viewer = new Viewer(readOnlyAddress);
+		viewer.awaitMirrored();
+		update("ls");
+		viewer.awaitMirrored();
+	}
+
+	@Test
+	public void testInputDoesNotInterleaveWithEmulatorWrites() throws Exception {
+		final AtomicBoolean writing = new AtomicBoolean(), overlapped = new AtomicBoolean();
+		MockTerminalClient session = new MockTerminalClient() {
+			@Override
+			public void write(byte[] data, int offset, int count) {
+				if (writing.getAndSet(true)) overlapped.set(true);
+				// Write a byte at a time to give a concurrent write every chance to get in between:
+				for (int i = 0; i < count; i++) {
+					baos.write(data[offset + i]);
+					Thread.yield();
+				}
+				writing.set(false);
+			}
+		};
+		withTerminalSized(10, 2);
+		TerminalEmulator emulator = new TerminalEmulator(session, 10, 2, 10, System.out);
+		ExecutorService emulatorThread = Executors.newSingleThreadExecutor();
+		try {
+			server = new TerminalServer(emulator, session, emulatorThread);
+			readWriteAddress = listen(TerminalServer.Access.READ_WRITE);
+			server.start();
+			Viewer writer = new Viewer(readWriteAddress);
+
+			final int count = 500;
+			final byte[] statusReport = "\033[5n".getBytes(StandardCharsets.UTF_8);
+			StringBuilder expectedInput = new StringBuilder();
+			for (int i = 0; i < count; i++) {
+				emulatorThread.execute(() -> emulator.append(statusReport, statusReport.length));
+				writer.send("ls " + i + "\r");
+				expectedInput.append("ls ").append(i).append('\r');
+			}
+
+			String written = "";
+			long deadline = System.currentTimeMillis() + 10_000;
+			while (written.replace("\033[0n", "").length() < expectedInput.length()) {
+				assertTrue("Session got: " + written, System.currentTimeMillis() < deadline);
+				Thread.sleep(10);
+				written = new String(session.baos.toByteArray(), StandardCharsets.UTF_8);
+			}
+			emulatorThread.shutdown();
+			assertTrue(emulatorThread.awaitTermination(10, TimeUnit.SECONDS));
+			written = session.getOutputAndClear();
+
+			assertFalse(overlapped.get());
+			// Each reply is written whole, so taking them out leaves the input in order:
+			assertEquals(expectedInput.toString(), written.replace("\033[0n", ""));
+			assertEquals(count, (written.length() - expectedInput.length()) / "\033[0n".length());
+		} finally {
+			emulatorThread.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testDisconnect() throws IOException, InterruptedException {
+		startServer(10, 2);
+		update("$ ");
+		Viewer viewer = new Viewer(readOnlyAddress);
+		viewer.awaitMirrored();
+		assertEquals(1, server.getViewerCount());
+		viewer.socket.close();
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (server.getViewerCount() != 0) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnboundChannel() throws IOException {
+		withTerminalSized(10, 2);
+		server = new TerminalServer(terminal, output, emulatorTasks::add);
+		server.listen(ServerSocketChannel.open(), TerminalServer.Access.READ_ONLY);
+	}
+
+}
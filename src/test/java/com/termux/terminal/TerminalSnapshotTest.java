@@ -0,0 +1,114 @@
+package com.termux.terminal;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TerminalSnapshotTest extends TerminalTestCase {
+
+	private TerminalEmulator roundTrip() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		TerminalSnapshot.write(terminal, baos);
+		return TerminalSnapshot.read(new ByteArrayInputStream(baos.toByteArray()), output, System.out);
+	}
+
+	private void assertSameState(TerminalEmulator expected, TerminalEmulator actual) {
+		assertEquals(expected.isAlternateBufferActive(), actual.isAlternateBufferActive());
+		assertEquals(expected.getCursorRow(), actual.getCursorRow());
+		assertEquals(expected.getCursorCol(), actual.getCursorCol());
+		assertEquals(expected.getCursorStyle(), actual.getCursorStyle());
+		assertEquals(expected.getTitle(), actual.getTitle());
+		assertEquals(expected.isCursorKeysApplicationMode(), actual.isCursorKeysApplicationMode());
+		assertEquals(expected.isShowingCursor(), actual.isShowingCursor());
+		TerminalBuffer expectedScreen = expected.getScreen();
+		TerminalBuffer actualScreen = actual.getScreen();
+		assertEquals(expectedScreen.getActiveTranscriptRows(), actualScreen.getActiveTranscriptRows());
+		assertEquals(expectedScreen.getTranscriptText(), actualScreen.getTranscriptText());
+		for (int row = -expectedScreen.getActiveTranscriptRows(); row < expectedScreen.screenRows; row++) {
+			assertEquals("row=" + row, expectedScreen.getLineWrap(row), actualScreen.getLineWrap(row));
+			for (int col = 0; col < expectedScreen.columns; col++)
+				assertEquals("row=" + row + ", col=" + col, expectedScreen.getStyleAt(row, col), actualScreen.getStyleAt(row, col));
+		}
+		for (int i = 0; i < TextStyle.NUM_INDEXED_COLORS; i++)
+			assertEquals(expected.colors.currentColors[i], actual.colors.currentColors[i]);
+	}
+
+	@Test
+	public void testRoundTripWithHistory() throws IOException {
+		withTerminalSized(5, 3).enterString("\033]2;My title\007\033[22t\033]2;Other\007");
+		enterString("\033[31mred\033[0m\r\n\033[1;44mbold\033[0m\r\nabcdefghij\r\n果枝x\r\nlast");
+		enterString("\033[?1h\033[4 q\033]4;1;#ff0000\007");
+		TerminalEmulator restored = roundTrip();
+		assertSameState(terminal, restored);
+
+		// The title stack is restored:
+		enterString("\033[23t");
+		restored.append(new byte[]{27, '[', '2', '3', 't'}, 5);
+		assertEquals("My title", terminal.getTitle());
+		assertEquals(terminal.getTitle(), restored.getTitle());
+
+		// Continued output behaves the same:
+		byte[] more = "\033[2;3r\033[3H\n\nä̈ tab\tX".getBytes("UTF-8");
+		terminal.append(more, more.length);
+		restored.append(more, more.length);
+		assertSameState(terminal, restored);
+	}
+
+	@Test
+	public void testRoundTripInAlternateBuffer() throws IOException {
+		withTerminalSized(4, 3).enterString("main\r\nmore\033[?1049h\033[2;2Halt");
+		TerminalEmulator restored = roundTrip();
+		assertTrue(restored.isAlternateBufferActive());
+		assertSameState(terminal, restored);
+
+		enterString("\033[?1049l");
+		restored.append(new byte[]{27, '[', '?', '1', '0', '4', '9', 'l'}, 8);
+		assertSameState(terminal, restored);
+		assertLinesAre("main", "more", "    ");
+	}
+
+	@Test
+	public void testRoundTripInsideEscapeSequence() throws IOException {
+		withTerminalSized(5, 3).enterString("\033[3");
+		TerminalEmulator restored = roundTrip();
+		byte[] rest = "1mXä".getBytes("UTF-8");
+		terminal.append(rest, rest.length);
+		restored.append(rest, rest.length);
+		assertSameState(terminal, restored);
+		assertEquals(1, TextStyle.decodeForeColor(restored.getScreen().getStyleAt(0, 0)));
+	}
+
+	@Test
+	public void testRoundTripWithHyperlinks() throws IOException {
+		withTerminalSized(6, 3).enterString("\033]8;id=a;http://x.org/\007one\033]8;;\007\r\n\033]8;;file:///b\007t");
+		TerminalEmulator restored = roundTrip();
+		assertSameState(terminal, restored);
+		assertEquals("http://x.org/", restored.getScreen().getHyperlinkAt(0, 2));
+		assertEquals(null, restored.getScreen().getHyperlinkAt(0, 3));
+		assertEquals("file:///b", restored.getScreen().getHyperlinkAt(1, 0));
+
+		// The current link continues in the restored emulator:
+		assertEquals("file:///b", restored.getHyperlinkUri());
+		restored.append(new byte[]{'w', 'o'}, 2);
+		assertEquals("file:///b", restored.getScreen().getHyperlinkAt(1, 2));
+		assertEquals(2, restored.getScreen().getHyperlinkCount());
+	}
+
+	@Test
+	public void testRejectsUnknownData() {
+		withTerminalSized(5, 3);
+		try {
+			TerminalSnapshot.read(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 0, 0, 0, 1}), output, System.out);
+			fail();
+		} catch (IOException e) {
+			// Expected.
+		}
+	}
+
+}
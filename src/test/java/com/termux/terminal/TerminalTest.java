@@ -4,6 +4,9 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class TerminalTest extends TerminalTestCase {
@@ -47,6 +50,33 @@ public class TerminalTest extends TerminalTestCase {
 		assertForegroundColorAt(2, 0, 115);
 	}
 
+	@Test
+	public void testAltBufferAllocatedWhileInUse() {
+		withTerminalSized(3, 3);
+		assertNull(terminal.altBuffer);
+		enterString("\033[?1049h\033[42mX").assertLinesAre("X  ", "   ", "   ");
+		assertNotNull(terminal.altBuffer);
+		enterString("\033[?1049l");
+		assertNull(terminal.altBuffer);
+
+		// Entering clears the screen with the current background:
+		enterString("\033[42m\033[?1047h");
+		assertEquals(2, TextStyle.decodeBackColor(getStyleAt(2, 2)));
+		enterString("\033[?1047l");
+
+		// Kept after leaving while the release delay has not passed, and cleared when entered again:
+		terminal.setAltBufferReleaseDelay(60_000);
+		enterString("\033[?47hAB");
+		TerminalBuffer altBuffer = terminal.altBuffer;
+		enterString("\033[?47l").assertLinesAre("   ", "   ", "   ");
+		assertSame(altBuffer, terminal.altBuffer);
+		enterString("\033[?47h").assertLinesAre("   ", "   ", "   ");
+		assertSame(altBuffer, terminal.altBuffer);
+		enterString("\033[?47l");
+		terminal.setAltBufferReleaseDelay(0);
+		assertNull(terminal.altBuffer);
+	}
+
 	@Test
 	public void testMouseClick() {
 		withTerminalSized(10, 10);
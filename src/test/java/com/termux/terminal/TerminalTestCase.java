@@ -147,6 +147,8 @@ public abstract class TerminalTestCase {
 		Set<LineWrapper> linesSet = new HashSet<>();
 		for (int i = 0; i < lines.length; i++) {
 			if (lines[i] == null) continue;
+			// Repeated history rows share the row before them when deduplicating:
+			if (screen.isHistoryDeduplicated() && lines[i] == lines[(i + lines.length - 1) % lines.length]) continue;
 			assertTrue("Line exists at multiple places: " + i, linesSet.add(new LineWrapper(lines[i])));
 			char[] text = lines[i].text;
 			int usedChars = lines[i].getSpaceUsed();
@@ -171,7 +173,8 @@ public abstract class TerminalTestCase {
 					screen.columns, currentColumn);
 		}
 
-		assertEquals("The alt buffer should have have no history", terminal.altBuffer.totalRows, terminal.altBuffer.screenRows);
+		if (terminal.altBuffer != null)
+			assertEquals("The alt buffer should have have no history", terminal.altBuffer.totalRows, terminal.altBuffer.screenRows);
 		if (terminal.isAlternateBufferActive()) {
 			assertEquals("The alt buffer should be the same size as the screen", terminal.rows, terminal.altBuffer.totalRows);
 		}
@@ -0,0 +1,50 @@
+package com.termux.terminal;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class TerminalTraceTest extends TerminalTestCase {
+
+	private static String dump(TerminalTrace trace) throws IOException {
+		StringBuilder result = new StringBuilder();
+		trace.dump(result);
+		return result.toString();
+	}
+
+	@Test
+	public void testSequencesAreRecorded() throws IOException {
+		TerminalTrace trace = new TerminalTrace(16);
+		withTerminalSized(5, 3).enterString("\033[31mnot traced");
+		terminal.setTrace(trace);
+		enterString("\033[H\033[2;3Hab\033[1;;38;5;300m\0337\033]0;title\007\033]2;x\033\\\033[?9999h\033[1;2;3;4;5T\033P$qx\033\\");
+		assertEquals(9, trace.getRecordedCount());
+		assertEquals("#0 CSI 'H' at 0,0\n"
+				+ "#1 CSI 'H' 2;3 at 1,2\n"
+				+ "#2 CSI 'm' 1;;38;5;300 at 1,4 INVALID\n"
+				+ "#3 ESC '7' at 1,4\n"
+				+ "#4 OSC U+0007 at 1,4\n"
+				+ "#5 OSC '\\' at 1,4\n"
+				+ "#6 CSI_QUESTIONMARK 'h' 9999 at 1,4 UNKNOWN\n"
+				+ "#7 CSI 'T' 1;2;3;4;5 at 1,4 UNIMPLEMENTED\n"
+				+ "#8 DCS '\\' at 1,4 UNKNOWN\n", dump(trace));
+	}
+
+	@Test
+	public void testOnlyTheMostRecentAreKept() throws IOException {
+		TerminalTrace trace = new TerminalTrace(2);
+		withTerminalSized(5, 3);
+		terminal.setTrace(trace);
+		enterString("\033[1G\033[2G\033[3G");
+		assertEquals(3, trace.getRecordedCount());
+		assertEquals("#1 CSI 'G' 2 at 0,1\n#2 CSI 'G' 3 at 0,2\n", dump(trace));
+		trace.clear();
+		assertEquals("", dump(trace));
+		terminal.setTrace(null);
+		enterString("\033[1G");
+		assertEquals(0, trace.getRecordedCount());
+	}
+
+}